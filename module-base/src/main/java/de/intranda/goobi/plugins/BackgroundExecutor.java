@@ -0,0 +1,61 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shared thread pool for the work of the plugin that should not block the request threads of the application server
+ */
+public class BackgroundExecutor {
+
+    private static final int THREADS = 4;
+
+    private static final AtomicInteger COUNTER = new AtomicInteger();
+
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(THREADS, r -> {
+        Thread t = new Thread(r, "batch-assignment-" + COUNTER.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    });
+
+    private BackgroundExecutor() {
+    }
+
+    /**
+     * run the task in the background
+     *
+     * @param task the task to run
+     * @return future to check the state of the task
+     */
+    public static Future<?> submit(Runnable task) {
+        return EXECUTOR.submit(task);
+    }
+
+    /**
+     * stop the running tasks and the threads, called when the plugin is unloaded
+     */
+    static void shutdown() {
+        EXECUTOR.shutdownNow();
+    }
+}
@@ -0,0 +1,168 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import org.apache.commons.configuration.HierarchicalConfiguration;
+import org.goobi.beans.Step;
+
+import de.sub.goobi.config.ConfigPlugins;
+import de.sub.goobi.config.ConfigurationHelper;
+import lombok.AccessLevel;
+import lombok.Getter;
+
+/**
+ * Parsed configuration of the plugin for one project and step. The configuration is parsed once and cached until the configuration file changes
+ * on disk, the configured properties can be looked up by name.
+ */
+@Getter
+public class BatchAssignmentConfiguration {
+
+    // project and step to the parsed configuration
+    private static final Map<String, CachedConfiguration> CACHE = new ConcurrentHashMap<>();
+
+    private final String batchWaitStep;
+    private final int batchPageSize;
+    private final boolean automaticAssignment;
+    private final boolean automaticLock;
+    private final int lockMaxProcesses;
+    private final long lockMaxAgeMinutes;
+    // delete empty batches after this number of days, 0 to keep them
+    private final long emptyBatchMaxAgeDays;
+    // delete empty batches without stored values as well, e.g. the batches created before the values were stored
+    private final boolean emptyBatchWithoutValues;
+    // names of the configured properties, in the configured order
+    private final List<String> propertyNames;
+    @Getter(AccessLevel.NONE)
+    private final Map<String, PropertyDefinition> propertyDefinitions;
+
+    BatchAssignmentConfiguration(String batchWaitStep, int batchPageSize, boolean automaticAssignment, boolean automaticLock, int lockMaxProcesses,
+            long lockMaxAgeMinutes, long emptyBatchMaxAgeDays, List<PropertyDefinition> definitions) {
+        this(batchWaitStep, batchPageSize, automaticAssignment, automaticLock, lockMaxProcesses, lockMaxAgeMinutes, emptyBatchMaxAgeDays, false,
+                definitions);
+    }
+
+    BatchAssignmentConfiguration(String batchWaitStep, int batchPageSize, boolean automaticAssignment, boolean automaticLock, int lockMaxProcesses,
+            long lockMaxAgeMinutes, long emptyBatchMaxAgeDays, boolean emptyBatchWithoutValues, List<PropertyDefinition> definitions) {
+        this.batchWaitStep = batchWaitStep;
+        this.batchPageSize = batchPageSize;
+        this.automaticAssignment = automaticAssignment;
+        this.automaticLock = automaticLock;
+        this.lockMaxProcesses = lockMaxProcesses;
+        this.lockMaxAgeMinutes = lockMaxAgeMinutes;
+        this.emptyBatchMaxAgeDays = emptyBatchMaxAgeDays;
+        this.emptyBatchWithoutValues = emptyBatchWithoutValues;
+        Map<String, PropertyDefinition> map = new LinkedHashMap<>();
+        for (PropertyDefinition definition : definitions) {
+            // the first definition of a property wins, as with the former linear search
+            map.putIfAbsent(definition.getName(), definition);
+        }
+        propertyDefinitions = Collections.unmodifiableMap(map);
+        propertyNames = List.copyOf(map.keySet());
+    }
+
+    /**
+     * get the configuration for the project and step, the configuration file is only read again if it was changed
+     *
+     * @param pluginTitle title of the plugin
+     * @param step the current step
+     * @return the parsed configuration
+     */
+    public static BatchAssignmentConfiguration get(String pluginTitle, Step step) {
+        Path file = Paths.get(ConfigurationHelper.getInstance().getConfigurationFolder(), "plugin_" + pluginTitle + ".xml");
+        return get(getKey(pluginTitle, step), file, () -> ConfigPlugins.getProjectAndStepConfig(pluginTitle, step));
+    }
+
+    /**
+     * get the key of the configuration for the project and step
+     *
+     * @param pluginTitle title of the plugin
+     * @param step the current step
+     * @return the key of the cached configuration
+     */
+    public static String getKey(String pluginTitle, Step step) {
+        return pluginTitle + "|" + step.getProzess().getProjekt().getTitel() + "|" + step.getTitel();
+    }
+
+    static BatchAssignmentConfiguration get(String key, Path file, Supplier<HierarchicalConfiguration> loader) {
+        long lastModified = getLastModified(file);
+        CachedConfiguration cached = CACHE.get(key);
+        if (cached != null && cached.lastModified() == lastModified) {
+            return cached.configuration();
+        }
+        BatchAssignmentConfiguration configuration = parse(loader.get());
+        CACHE.put(key, new CachedConfiguration(lastModified, configuration));
+        return configuration;
+    }
+
+    /**
+     * parse the block of the configuration file for the current project and step
+     *
+     * @param config the configuration block
+     * @return the parsed configuration
+     */
+    static BatchAssignmentConfiguration parse(HierarchicalConfiguration config) {
+        List<PropertyDefinition> definitions = config.configurationsAt("property")
+                .stream()
+                .map(p -> new PropertyDefinition(p.getString("."), p.getString("@vocabularyPropertyFilterField", null),
+                        p.getString("@vocabularyPropertyFilterValue", null)))
+                .toList();
+        return new BatchAssignmentConfiguration(config.getString("batchWaitStep"), Math.max(1, config.getInt("batchListPageSize", 20)),
+                config.getBoolean("automaticAssignment", false), !config.configurationsAt("automaticLock").isEmpty(),
+                config.getInt("automaticLock/@maxProcesses", 0), config.getLong("automaticLock/@maxAgeMinutes", 0),
+                config.getLong("emptyBatchCleanup/@maxAgeDays", 0), config.getBoolean("emptyBatchCleanup/@withoutStoredValues", false), definitions);
+    }
+
+    /**
+     * get the definition of a configured property
+     *
+     * @param name name of the property
+     * @return the definition or null, if the property is not configured
+     */
+    public PropertyDefinition getPropertyDefinition(String name) {
+        return propertyDefinitions.get(name);
+    }
+
+    public boolean isPropertyConfigured(String name) {
+        return propertyDefinitions.containsKey(name);
+    }
+
+    private static long getLastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            // a missing file is handled by the configuration loader
+            return -1;
+        }
+    }
+
+    private record CachedConfiguration(long lastModified, BatchAssignmentConfiguration configuration) {
+    }
+}
@@ -0,0 +1,61 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+import lombok.Getter;
+
+/**
+ * Signals that a process could not be assigned to a batch or a batch could not be locked because of a concurrent change. The reason tells the user
+ * whether a retry makes sense.
+ */
+public class BatchAssignmentException extends Exception {
+
+    private static final long serialVersionUID = 4907712306578339521L;
+
+    public enum Reason {
+        // the wait steps of the batch are closed or being closed
+        BATCH_CLOSED("plugin_step_batch_assignment_batchClosed"),
+        // the batch reached the maximum number of processes
+        BATCH_FULL("plugin_step_batch_assignment_batchFull"),
+        // another user changes the batch right now, try again
+        BUSY("plugin_step_batch_assignment_batchBusy"),
+        // the batches have different values of the configured properties and can't be merged
+        INCOMPATIBLE("plugin_step_batch_assignment_batchIncompatible");
+
+        @Getter
+        private final String messageKey;
+
+        Reason(String messageKey) {
+            this.messageKey = messageKey;
+        }
+    }
+
+    @Getter
+    private final Reason reason;
+
+    @Getter
+    private final int batchId;
+
+    public BatchAssignmentException(Reason reason, int batchId) {
+        super(reason + ": batch " + batchId);
+        this.reason = reason;
+        this.batchId = batchId;
+    }
+}
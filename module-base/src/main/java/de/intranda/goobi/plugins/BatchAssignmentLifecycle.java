@@ -0,0 +1,94 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import jakarta.faces.application.Application;
+import jakarta.faces.context.FacesContext;
+import jakarta.faces.event.PreDestroyApplicationEvent;
+import jakarta.faces.event.SystemEvent;
+import jakarta.faces.event.SystemEventListener;
+
+import de.sub.goobi.helper.FacesContextHelper;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Stops the background threads of the plugin when the application is shut down or undeployed. The threads would otherwise keep running and keep
+ * the classes of the plugin in memory after a redeployment. The journal entries are only written in the background once the shutdown is
+ * registered, so that the remaining entries are written before the application stops.
+ */
+@Log4j2
+public final class BatchAssignmentLifecycle {
+
+    private static final long JOURNAL_TIMEOUT_MILLIS = 10000;
+
+    private static final AtomicBoolean REGISTERED = new AtomicBoolean();
+
+    private BatchAssignmentLifecycle() {
+    }
+
+    /**
+     * register the shutdown with the running application, this is done once with the first request that opens the plugin
+     */
+    public static void register() {
+        if (REGISTERED.get()) {
+            return;
+        }
+        FacesContext facesContext = FacesContextHelper.getCurrentFacesContext();
+        if (facesContext == null) {
+            // no application to watch, e.g. within an automatic step, the next request registers the shutdown
+            return;
+        }
+        if (REGISTERED.compareAndSet(false, true)) {
+            facesContext.getApplication().subscribeToEvent(PreDestroyApplicationEvent.class, new ShutdownListener());
+            JournalWriter.getInstance().start();
+        }
+    }
+
+    /**
+     * stop all background threads of the plugin and write the remaining journal entries
+     */
+    public static void shutdown() {
+        log.info("Stop the background threads of the batch assignment");
+        BatchLockScheduler.getInstance().stop();
+        EmptyBatchCleanup.getInstance().stop();
+        VocabularyFilterCache.shutdown();
+        BatchLockJob.shutdown();
+        BackgroundExecutor.shutdown();
+        // the other threads may have added journal entries until now
+        if (!JournalWriter.getInstance().close(JOURNAL_TIMEOUT_MILLIS)) {
+            log.warn("{} journal entries were not written", JournalWriter.getInstance().getPendingEntries());
+        }
+    }
+
+    private static class ShutdownListener implements SystemEventListener {
+
+        @Override
+        public boolean isListenerForSource(Object source) {
+            return source instanceof Application;
+        }
+
+        @Override
+        public void processEvent(SystemEvent event) {
+            shutdown();
+        }
+    }
+}
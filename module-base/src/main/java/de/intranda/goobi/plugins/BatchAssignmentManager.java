@@ -0,0 +1,1057 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.apache.commons.dbutils.QueryRunner;
+import org.apache.commons.dbutils.ResultSetHandler;
+import org.apache.commons.dbutils.handlers.ScalarHandler;
+import org.apache.commons.lang3.StringUtils;
+import org.goobi.beans.Institution;
+import org.goobi.beans.JournalEntry;
+
+import de.sub.goobi.helper.enums.StepStatus;
+import de.sub.goobi.persistence.managers.MySQLHelper;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Database access for the batch assignment that can't be expressed efficiently with the default managers of Goobi workflow
+ */
+@Log4j2
+public class BatchAssignmentManager {
+
+    // number of empty batches that are offered for the assignment, only the newest ones are listed
+    static final int MAX_EMPTY_BATCHES = 50;
+
+    private static final String INSERT_JOURNAL_ENTRY =
+            "INSERT INTO journal (objectID, creationDate, userName, type, content, entrytype) VALUES (?, ?, ?, ?, ?, ?)";
+
+    static final String UPDATE_PROCESS_PROPERTY =
+            "UPDATE properties SET property_value = ? WHERE object_id = ? AND object_type = 'process' AND property_name = ?";
+
+    static final String INSERT_PROCESS_PROPERTY =
+            "INSERT INTO properties (property_name, property_value, object_id, object_type, creation_date) VALUES (?, ?, ?, 'process', ?)";
+
+    private BatchAssignmentManager() {
+    }
+
+    /**
+     * Get the number of processes and the id of a representative process for each of the given batches in a single query
+     *
+     * @param batchIds ids of the batches to count
+     * @param institution limit the counted processes to this institution, can be null
+     * @return map with the batch id as key, batches without processes are not contained
+     */
+    public static Map<Integer, BatchProcessCount> getProcessCounts(Collection<Integer> batchIds, Institution institution) {
+        Map<Integer, BatchProcessCount> answer = new HashMap<>();
+        if (batchIds.isEmpty()) {
+            return answer;
+        }
+        SqlQuery q = createProcessCountQuery(batchIds, institution);
+        ResultSetHandler<List<BatchProcessCount>> handler = rs -> {
+            List<BatchProcessCount> list = new ArrayList<>();
+            while (rs.next()) {
+                list.add(new BatchProcessCount(rs.getInt(1), rs.getInt(2), rs.getInt(3)));
+            }
+            return list;
+        };
+
+        List<BatchProcessCount> counts = query(q.sql(), handler, q.parameter());
+        if (counts != null) {
+            for (BatchProcessCount count : counts) {
+                answer.put(count.batchId(), count);
+            }
+        }
+        return answer;
+    }
+
+    static SqlQuery createProcessCountQuery(Collection<Integer> batchIds, Institution institution) {
+        List<Object> parameter = new ArrayList<>();
+        StringBuilder sql = new StringBuilder();
+        sql.append("SELECT prozesse.batchID, COUNT(prozesse.ProzesseID), MIN(prozesse.ProzesseID) FROM prozesse ");
+        if (institution != null) {
+            sql.append("LEFT JOIN projekte ON prozesse.ProjekteID = projekte.ProjekteID ");
+        }
+        sql.append("WHERE prozesse.istTemplate = false AND prozesse.batchID IN (");
+        sql.append(batchIds.stream().map(String::valueOf).collect(Collectors.joining(", ")));
+        sql.append(") ");
+        if (institution != null) {
+            sql.append("AND projekte.institution_id = ? ");
+            parameter.add(institution.getId());
+        }
+        sql.append("GROUP BY prozesse.batchID");
+        return new SqlQuery(sql.toString(), parameter);
+    }
+
+    /**
+     * Get the number of processes that reached the wait step and the number of processes that didn't reach it yet for each of the given batches
+     * in a single query
+     *
+     * @param batchIds ids of the batches
+     * @param batchWaitStep title of the wait step
+     * @param institution limit the counted processes to this institution, can be null
+     * @return map with the batch id as key, batches without processes are not contained
+     */
+    public static Map<Integer, BatchProgress> getBatchProgress(Collection<Integer> batchIds, String batchWaitStep, Institution institution) {
+        Map<Integer, BatchProgress> answer = new HashMap<>();
+        if (batchIds.isEmpty()) {
+            return answer;
+        }
+        SqlQuery q = createBatchProgressQuery(batchIds, batchWaitStep, institution);
+        List<BatchProgress> progress = query(q.sql(), rs -> {
+            List<BatchProgress> list = new ArrayList<>();
+            while (rs.next()) {
+                list.add(new BatchProgress(rs.getInt(1), rs.getInt(2), rs.getInt(3)));
+            }
+            return list;
+        }, q.parameter());
+        if (progress != null) {
+            for (BatchProgress p : progress) {
+                answer.put(p.batchId(), p);
+            }
+        }
+        return answer;
+    }
+
+    static SqlQuery createBatchProgressQuery(Collection<Integer> batchIds, String batchWaitStep, Institution institution) {
+        List<Object> parameter = new ArrayList<>();
+        StringBuilder sql = new StringBuilder();
+        // a locked wait step was not reached yet, all other states mean the process arrived there
+        sql.append("SELECT prozesse.batchID, SUM(CASE WHEN schritte.Bearbeitungsstatus <> ? THEN 1 ELSE 0 END), ");
+        sql.append("SUM(CASE WHEN schritte.Bearbeitungsstatus = ? THEN 1 ELSE 0 END) FROM prozesse ");
+        parameter.add(StepStatus.LOCKED.getValue());
+        parameter.add(StepStatus.LOCKED.getValue());
+        sql.append("JOIN schritte ON schritte.ProzesseID = prozesse.ProzesseID AND schritte.Titel = ? ");
+        parameter.add(batchWaitStep);
+        if (institution != null) {
+            sql.append("LEFT JOIN projekte ON prozesse.ProjekteID = projekte.ProjekteID ");
+        }
+        sql.append("WHERE prozesse.istTemplate = false AND prozesse.batchID IN (");
+        sql.append(batchIds.stream().map(String::valueOf).collect(Collectors.joining(", ")));
+        sql.append(") ");
+        if (institution != null) {
+            sql.append("AND projekte.institution_id = ? ");
+            parameter.add(institution.getId());
+        }
+        sql.append("GROUP BY prozesse.batchID");
+        return new SqlQuery(sql.toString(), parameter);
+    }
+
+    /**
+     * Get the ids of a page of the batches that are still waiting in the given workflow step or that don't contain any process yet
+     *
+     * @param batchWaitStep title of the step the processes of the batch are waiting in
+     * @param processCriteria additional criteria for the processes of the batch, e.g. the visibility restrictions of the current user
+     * @param search optional search term, matches the batch name, the batch id or the value of one of the given properties
+     * @param propertyNames names of the properties to search in
+     * @param start index of the first batch to return
+     * @param count maximum number of batches to return
+     * @return list of batch ids, newest batches first
+     */
+    public static List<Integer> getAvailableBatchIds(String batchWaitStep, String processCriteria, String search, Collection<String> propertyNames,
+            int start, int count) {
+        SqlQuery q = createAvailableBatchQuery(batchWaitStep, processCriteria, search, propertyNames, start, count);
+        List<Integer> answer = query(q.sql(), BatchAssignmentManager::readIntegerList, q.parameter());
+        return answer == null ? new ArrayList<>() : answer;
+    }
+
+    static SqlQuery createAvailableBatchQuery(String batchWaitStep, String processCriteria, String search, Collection<String> propertyNames,
+            int start, int count) {
+        List<Object> parameter = new ArrayList<>();
+        StringBuilder sql = new StringBuilder("SELECT batches.id FROM batches WHERE ");
+        appendAvailableBatchCondition(sql, parameter, batchWaitStep, processCriteria, search, propertyNames);
+        sql.append(" ORDER BY batches.id DESC LIMIT ?, ?");
+        parameter.add(start);
+        parameter.add(count);
+        return new SqlQuery(sql.toString(), parameter);
+    }
+
+    /**
+     * Get the names of the given batches
+     *
+     * @param batchIds ids of the batches
+     * @return map with the batch id as key and the name as value, the name can be null
+     */
+    public static Map<Integer, String> getBatchNames(Collection<Integer> batchIds) {
+        Map<Integer, String> answer = new HashMap<>();
+        if (batchIds.isEmpty()) {
+            return answer;
+        }
+        String sql = "SELECT id, batchName FROM batches WHERE id IN (" + batchIds.stream().map(String::valueOf).collect(Collectors.joining(", "))
+                + ")";
+        Map<Integer, String> names = query(sql, rs -> {
+            Map<Integer, String> map = new HashMap<>();
+            while (rs.next()) {
+                map.put(rs.getInt(1), rs.getString(2));
+            }
+            return map;
+        }, new ArrayList<>());
+        if (names != null) {
+            answer.putAll(names);
+        }
+        return answer;
+    }
+
+    /**
+     * Get the start dates of the given batches
+     *
+     * @param batchIds ids of the batches
+     * @return map with the batch id as key, batches without start date are not contained
+     */
+    public static Map<Integer, Date> getBatchStartDates(Collection<Integer> batchIds) {
+        Map<Integer, Date> answer = new HashMap<>();
+        if (batchIds.isEmpty()) {
+            return answer;
+        }
+        String sql = "SELECT id, startDate FROM batches WHERE startDate IS NOT NULL AND id IN ("
+                + batchIds.stream().map(String::valueOf).collect(Collectors.joining(", ")) + ")";
+        Map<Integer, Date> dates = query(sql, rs -> {
+            Map<Integer, Date> map = new HashMap<>();
+            while (rs.next()) {
+                map.put(rs.getInt(1), rs.getTimestamp(2));
+            }
+            return map;
+        }, new ArrayList<>());
+        if (dates != null) {
+            answer.putAll(dates);
+        }
+        return answer;
+    }
+
+    /**
+     * Count the batches that are returned by {@link #getAvailableBatchIds(String, String, String, Collection, int, int)} without paging
+     */
+    public static int countAvailableBatches(String batchWaitStep, String processCriteria, String search, Collection<String> propertyNames) {
+        SqlQuery q = createAvailableBatchCountQuery(batchWaitStep, processCriteria, search, propertyNames);
+        Integer answer = query(q.sql(), rs -> rs.next() ? rs.getInt(1) : 0, q.parameter());
+        return answer == null ? 0 : answer;
+    }
+
+    static SqlQuery createAvailableBatchCountQuery(String batchWaitStep, String processCriteria, String search, Collection<String> propertyNames) {
+        List<Object> parameter = new ArrayList<>();
+        StringBuilder sql = new StringBuilder("SELECT COUNT(batches.id) FROM batches WHERE ");
+        appendAvailableBatchCondition(sql, parameter, batchWaitStep, processCriteria, search, propertyNames);
+        return new SqlQuery(sql.toString(), parameter);
+    }
+
+    private static void appendAvailableBatchCondition(StringBuilder sql, List<Object> parameter, String batchWaitStep, String processCriteria,
+            String search, Collection<String> propertyNames) {
+        // batches with at least one process that has not finished the wait step yet
+        sql.append("(EXISTS (SELECT 1 FROM prozesse LEFT JOIN projekte ON prozesse.ProjekteID = projekte.ProjekteID ");
+        sql.append("WHERE prozesse.batchID = batches.id AND prozesse.istTemplate = false ");
+        if (StringUtils.isNotBlank(processCriteria)) {
+            sql.append("AND ").append(processCriteria).append(" ");
+        }
+        sql.append("AND NOT EXISTS (SELECT 1 FROM schritte WHERE schritte.ProzesseID = prozesse.ProzesseID ");
+        sql.append("AND schritte.Titel = ? AND schritte.Bearbeitungsstatus = ?))");
+        parameter.add(batchWaitStep);
+        parameter.add(StepStatus.DONE.getValue());
+
+        // or one of the newest empty batches, the derived table is needed because MySQL doesn't support LIMIT within IN
+        sql.append(" OR batches.id IN (SELECT id FROM (SELECT empty.id FROM batches empty WHERE NOT EXISTS ");
+        sql.append("(SELECT 1 FROM prozesse WHERE prozesse.batchID = empty.id) ORDER BY empty.id DESC LIMIT ?) AS newest_empty))");
+        parameter.add(MAX_EMPTY_BATCHES);
+
+        if (StringUtils.isNotBlank(search)) {
+            String like = "%" + search.trim() + "%";
+            sql.append(" AND (batches.batchName LIKE ?");
+            parameter.add(like);
+            if (StringUtils.isNumeric(search.trim())) {
+                sql.append(" OR batches.id = ?");
+                parameter.add(Integer.valueOf(search.trim()));
+            }
+            if (!propertyNames.isEmpty()) {
+                sql.append(" OR EXISTS (SELECT 1 FROM prozesse JOIN properties ON properties.object_id = prozesse.ProzesseID ");
+                sql.append("AND properties.object_type = 'process' WHERE prozesse.batchID = batches.id AND properties.property_name IN (");
+                sql.append(propertyNames.stream().map(n -> "?").collect(Collectors.joining(", ")));
+                sql.append(") AND properties.property_value LIKE ?)");
+                parameter.addAll(propertyNames);
+                parameter.add(like);
+            }
+            sql.append(")");
+        }
+    }
+
+    /**
+     * Get the batches the given processes are assigned to
+     *
+     * @param processIds ids of the processes
+     * @return map with the process id as key and the batch id as value, the value is null for processes without batch, unknown processes are
+     *         missing
+     */
+    public static Map<Integer, Integer> getBatchIdsOfProcesses(Collection<Integer> processIds) {
+        Map<Integer, Integer> answer = new HashMap<>();
+        if (processIds.isEmpty()) {
+            return answer;
+        }
+        String sql = "SELECT ProzesseID, batchID FROM prozesse WHERE ProzesseID IN ("
+                + processIds.stream().map(String::valueOf).collect(Collectors.joining(", ")) + ")";
+        Map<Integer, Integer> batches = query(sql, rs -> {
+            Map<Integer, Integer> map = new HashMap<>();
+            while (rs.next()) {
+                int batchId = rs.getInt(2);
+                map.put(rs.getInt(1), rs.wasNull() ? null : batchId);
+            }
+            return map;
+        }, new ArrayList<>());
+        if (batches != null) {
+            answer.putAll(batches);
+        }
+        return answer;
+    }
+
+    /**
+     * Create a new batch without any process
+     *
+     * @param batchName name of the batch, can be null
+     * @param startDate start date of the batch
+     * @return id of the new batch
+     * @throws SQLException if the batch can't be created
+     */
+    public static int createBatch(String batchName, Date startDate) throws SQLException {
+        long start = System.nanoTime();
+        Connection connection = null;
+        try {
+            connection = MySQLHelper.getInstance().getConnection();
+            Number id = new QueryRunner().insert(connection, "INSERT INTO batches (batchName, startDate) VALUES (?, ?)", new ScalarHandler<Number>(),
+                    batchName, new Timestamp(startDate.getTime()));
+            return id.intValue();
+        } finally {
+            closeConnection(connection);
+            BatchAssignmentMetrics.getInstance().recordTime(BatchAssignmentMetrics.DATABASE_QUERY, start);
+        }
+    }
+
+    /**
+     * Get the oldest batches without any process that were started before the given date. Only batches with stored values of the configured
+     * properties are returned, these batches were created by the plugin, unless batches without stored values are requested as well. Batches
+     * without start date are never returned.
+     *
+     * @param startedBefore latest start date of the batches
+     * @param propertyNames names of the configured properties
+     * @param withoutStoredValues true to return the empty batches without stored values as well
+     * @param count maximum number of batches to return
+     * @return list of batch ids, oldest batches first
+     */
+    public static List<Integer> getExpiredEmptyBatchIds(Date startedBefore, Collection<String> propertyNames, boolean withoutStoredValues,
+            int count) {
+        SqlQuery q = createExpiredEmptyBatchQuery(startedBefore, propertyNames, withoutStoredValues, count);
+        if (q == null) {
+            return new ArrayList<>();
+        }
+        List<Integer> answer = query(q.sql(), BatchAssignmentManager::readIntegerList, q.parameter());
+        return answer == null ? new ArrayList<>() : answer;
+    }
+
+    static SqlQuery createExpiredEmptyBatchQuery(Date startedBefore, Collection<String> propertyNames, boolean withoutStoredValues, int count) {
+        if (!withoutStoredValues && propertyNames.isEmpty()) {
+            return null;
+        }
+        List<Object> parameter = new ArrayList<>();
+        StringBuilder sql = new StringBuilder("SELECT batches.id FROM batches WHERE batches.startDate < ? ");
+        parameter.add(new Timestamp(startedBefore.getTime()));
+        sql.append("AND NOT EXISTS (SELECT 1 FROM prozesse WHERE prozesse.batchID = batches.id) ");
+        if (!withoutStoredValues) {
+            sql.append("AND EXISTS (SELECT 1 FROM properties WHERE properties.object_type = 'batch' AND properties.object_id = batches.id ");
+            sql.append("AND properties.property_name IN (");
+            sql.append(propertyNames.stream().map(n -> "?").collect(Collectors.joining(", "))).append(")) ");
+            parameter.addAll(propertyNames);
+        }
+        sql.append("ORDER BY batches.id LIMIT ?");
+        parameter.add(count);
+        return new SqlQuery(sql.toString(), parameter);
+    }
+
+    /**
+     * Delete a batch, if it still doesn't contain any process. The check and the deletion happen in the same statement.
+     *
+     * @param batchId id of the batch
+     * @return true if the batch was deleted
+     * @throws SQLException if the batch can't be deleted
+     */
+    public static boolean deleteEmptyBatch(int batchId) throws SQLException {
+        long start = System.nanoTime();
+        Connection connection = null;
+        try {
+            connection = MySQLHelper.getInstance().getConnection();
+            QueryRunner runner = new QueryRunner();
+            boolean deleted = runner.update(connection,
+                    "DELETE FROM batches WHERE id = ? AND NOT EXISTS (SELECT 1 FROM prozesse WHERE prozesse.batchID = ?)", batchId, batchId) > 0;
+            if (deleted) {
+                runner.update(connection, "DELETE FROM properties WHERE object_type = 'batch' AND object_id = ?", batchId);
+            }
+            return deleted;
+        } finally {
+            closeConnection(connection);
+            BatchAssignmentMetrics.getInstance().recordTime(BatchAssignmentMetrics.DATABASE_QUERY, start);
+        }
+    }
+
+    /**
+     * Check if the wait step of any process in the batch is finished already, processes can neither join nor leave such a batch
+     *
+     * @param batchId id of the batch
+     * @param batchWaitStep title of the wait step
+     * @return true if the batch is locked
+     * @throws SQLException if the steps can't be read
+     */
+    public static boolean isBatchClosed(int batchId, String batchWaitStep) throws SQLException {
+        String sql = "SELECT COUNT(*) FROM schritte JOIN prozesse ON schritte.ProzesseID = prozesse.ProzesseID "
+                + "WHERE prozesse.batchID = ? AND schritte.Titel = ? AND schritte.Bearbeitungsstatus = ?";
+        List<Object> parameter = new ArrayList<>();
+        parameter.add(batchId);
+        parameter.add(batchWaitStep);
+        parameter.add(StepStatus.DONE.getValue());
+        return execute(sql, rs -> rs.next() && rs.getInt(1) > 0, parameter);
+    }
+
+    /**
+     * Get the wait steps of all processes of a batch that are not finished yet
+     *
+     * @param batchId id of the batch
+     * @param batchWaitStep title of the wait step
+     * @return list of step and process ids
+     * @throws SQLException if the steps can't be read
+     */
+    public static List<WaitStep> getOpenWaitSteps(int batchId, String batchWaitStep) throws SQLException {
+        String sql = "SELECT schritte.SchritteID, schritte.ProzesseID FROM schritte JOIN prozesse ON schritte.ProzesseID = prozesse.ProzesseID "
+                + "WHERE prozesse.batchID = ? AND prozesse.istTemplate = false AND schritte.Titel = ? AND schritte.Bearbeitungsstatus <> ?";
+        List<Object> parameter = new ArrayList<>();
+        parameter.add(batchId);
+        parameter.add(batchWaitStep);
+        parameter.add(StepStatus.DONE.getValue());
+        return execute(sql, rs -> {
+            List<WaitStep> list = new ArrayList<>();
+            while (rs.next()) {
+                list.add(new WaitStep(rs.getInt(1), rs.getInt(2)));
+            }
+            return list;
+        }, parameter);
+    }
+
+    /**
+     * Get the ids of all processes of a batch
+     *
+     * @param batchId id of the batch
+     * @param institution limit the processes to this institution, can be null
+     * @return list of process ids in ascending order
+     */
+    public static List<Integer> getProcessIdsOfBatch(int batchId, Institution institution) {
+        List<Object> parameter = new ArrayList<>();
+        StringBuilder sql = new StringBuilder("SELECT prozesse.ProzesseID FROM prozesse ");
+        if (institution != null) {
+            sql.append("LEFT JOIN projekte ON prozesse.ProjekteID = projekte.ProjekteID ");
+        }
+        sql.append("WHERE prozesse.istTemplate = false AND prozesse.batchID = ? ");
+        parameter.add(batchId);
+        if (institution != null) {
+            sql.append("AND projekte.institution_id = ? ");
+            parameter.add(institution.getId());
+        }
+        sql.append("ORDER BY prozesse.ProzesseID");
+        List<Integer> answer = query(sql.toString(), BatchAssignmentManager::readIntegerList, parameter);
+        return answer == null ? new ArrayList<>() : answer;
+    }
+
+    /**
+     * Get one page of the processes of a batch together with their current step, the pages are ordered by the process id
+     *
+     * @param batchId id of the batch
+     * @param institution limit the processes to this institution, can be null
+     * @param afterProcessId only processes with a larger id are returned, 0 for the first page
+     * @param count maximum number of processes
+     * @return list of processes in ascending order
+     * @throws SQLException if the processes can't be read
+     */
+    public static List<ManifestRow> getManifestRows(int batchId, Institution institution, int afterProcessId, int count) throws SQLException {
+        List<Object> parameter = new ArrayList<>();
+        StringBuilder sql = new StringBuilder("SELECT prozesse.ProzesseID, prozesse.Titel, schritte.Titel, schritte.Bearbeitungsstatus ");
+        sql.append("FROM prozesse ");
+        if (institution != null) {
+            sql.append("LEFT JOIN projekte ON prozesse.ProjekteID = projekte.ProjekteID ");
+        }
+        // the current step is the first step that is neither finished nor deactivated
+        sql.append("LEFT JOIN schritte ON schritte.ProzesseID = prozesse.ProzesseID AND schritte.Reihenfolge = (SELECT MIN(s.Reihenfolge) ");
+        sql.append("FROM schritte s WHERE s.ProzesseID = prozesse.ProzesseID AND s.Bearbeitungsstatus NOT IN (?, ?)) ");
+        parameter.add(StepStatus.DONE.getValue());
+        parameter.add(StepStatus.DEACTIVATED.getValue());
+        sql.append("WHERE prozesse.istTemplate = false AND prozesse.batchID = ? AND prozesse.ProzesseID > ? ");
+        parameter.add(batchId);
+        parameter.add(afterProcessId);
+        if (institution != null) {
+            sql.append("AND projekte.institution_id = ? ");
+            parameter.add(institution.getId());
+        }
+        sql.append("ORDER BY prozesse.ProzesseID, schritte.SchritteID LIMIT ?");
+        parameter.add(count);
+        return execute(sql.toString(), rs -> {
+            List<ManifestRow> rows = new ArrayList<>();
+            while (rs.next()) {
+                Integer status = rs.getObject(4) == null ? null : rs.getInt(4);
+                rows.add(new ManifestRow(rs.getInt(1), rs.getString(2), rs.getString(3), status));
+            }
+            return toManifestRows(rows);
+        }, parameter);
+    }
+
+    /**
+     * Parallel steps with the same order result in several joined rows of a process, the first one is used. The limit applies to the joined rows,
+     * so a page can end within the rows of a process. Such a process is still returned once and the next page starts after it, so a page may contain
+     * fewer processes than requested.
+     *
+     * @param joinedRows rows of the query, ordered by the process id
+     * @return one row per process
+     */
+    static List<ManifestRow> toManifestRows(List<ManifestRow> joinedRows) {
+        Map<Integer, ManifestRow> rows = new LinkedHashMap<>();
+        for (ManifestRow row : joinedRows) {
+            rows.putIfAbsent(row.processId(), row);
+        }
+        return new ArrayList<>(rows.values());
+    }
+
+    /**
+     * Get the values of the given properties of a process
+     *
+     * @param processId id of the process
+     * @param propertyNames names of the properties
+     * @return map with the property name as key and the value as value
+     */
+    public static Map<String, String> getPropertyValues(int processId, Collection<String> propertyNames) {
+        return getPropertyValues(List.of(processId), propertyNames).getOrDefault(processId, new HashMap<>());
+    }
+
+    /**
+     * Get the values of the given properties of several processes in a single query
+     *
+     * @param processIds ids of the processes
+     * @param propertyNames names of the properties
+     * @return map with the process id as key and a map of the property names and values as value
+     */
+    public static Map<Integer, Map<String, String>> getPropertyValues(Collection<Integer> processIds, Collection<String> propertyNames) {
+        Map<Integer, Map<String, String>> answer = new HashMap<>();
+        if (processIds.isEmpty() || propertyNames.isEmpty()) {
+            return answer;
+        }
+        List<Object> parameter = new ArrayList<>(propertyNames);
+        String sql = "SELECT object_id, property_name, property_value FROM properties WHERE object_type = 'process' AND object_id IN ("
+                + processIds.stream().map(String::valueOf).collect(Collectors.joining(", ")) + ") AND property_name IN ("
+                + propertyNames.stream().map(n -> "?").collect(Collectors.joining(", ")) + ")";
+        Map<Integer, Map<String, String>> values = query(sql, rs -> {
+            Map<Integer, Map<String, String>> map = new HashMap<>();
+            while (rs.next()) {
+                map.computeIfAbsent(rs.getInt(1), id -> new HashMap<>()).putIfAbsent(rs.getString(2), rs.getString(3));
+            }
+            return map;
+        }, parameter);
+        if (values != null) {
+            answer.putAll(values);
+        }
+        return answer;
+    }
+
+    /**
+     * Get the stored values of the configured properties of several batches in a single query. The values are stored in the properties table
+     * with the object type batch when the batch is created or receives its first process.
+     *
+     * @param batchIds ids of the batches
+     * @param propertyNames names of the properties
+     * @return map with the batch id as key and a map of the property names and values as value, batches without stored values are missing
+     */
+    public static Map<Integer, Map<String, String>> getBatchPropertyValues(Collection<Integer> batchIds, Collection<String> propertyNames) {
+        Map<Integer, Map<String, String>> answer = new HashMap<>();
+        if (batchIds.isEmpty() || propertyNames.isEmpty()) {
+            return answer;
+        }
+        List<Object> parameter = new ArrayList<>(propertyNames);
+        String sql = "SELECT object_id, property_name, property_value FROM properties WHERE object_type = 'batch' AND object_id IN ("
+                + batchIds.stream().map(String::valueOf).collect(Collectors.joining(", ")) + ") AND property_name IN ("
+                + propertyNames.stream().map(n -> "?").collect(Collectors.joining(", ")) + ")";
+        Map<Integer, Map<String, String>> values = query(sql, rs -> {
+            Map<Integer, Map<String, String>> map = new HashMap<>();
+            while (rs.next()) {
+                map.computeIfAbsent(rs.getInt(1), id -> new HashMap<>()).putIfAbsent(rs.getString(2), rs.getString(3));
+            }
+            return map;
+        }, parameter);
+        if (values != null) {
+            answer.putAll(values);
+        }
+        return answer;
+    }
+
+    /**
+     * Replace the stored values of the configured properties of a batch within a single transaction
+     *
+     * @param batchId id of the batch
+     * @param propertyValues values of the properties, empty values are not stored
+     * @throws SQLException if the values can't be stored
+     */
+    public static void saveBatchPropertyValues(int batchId, Map<String, String> propertyValues) throws SQLException {
+        long start = System.nanoTime();
+        Connection connection = null;
+        try {
+            connection = MySQLHelper.getInstance().getConnection();
+            connection.setAutoCommit(false);
+            writeBatchPropertyValues(new QueryRunner(), connection, batchId, propertyValues);
+            connection.commit();
+        } catch (SQLException e) {
+            rollback(connection, e);
+            throw e;
+        } finally {
+            resetAutoCommit(connection);
+            closeConnection(connection);
+            BatchAssignmentMetrics.getInstance().recordTime(BatchAssignmentMetrics.DATABASE_QUERY, start);
+        }
+    }
+
+    private static void writeBatchPropertyValues(QueryRunner runner, Connection connection, int batchId, Map<String, String> propertyValues)
+            throws SQLException {
+        runner.update(connection, "DELETE FROM properties WHERE object_type = 'batch' AND object_id = ?", batchId);
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        Object[][] inserts = propertyValues.entrySet()
+                .stream()
+                .filter(e -> StringUtils.isNotBlank(e.getValue()))
+                .map(e -> new Object[] { e.getKey(), e.getValue(), batchId, now })
+                .toArray(Object[][]::new);
+        if (inserts.length > 0) {
+            runner.batch(connection, "INSERT INTO properties (property_name, property_value, object_id, object_type, creation_date) "
+                    + "VALUES (?, ?, ?, 'batch', ?)", inserts);
+        }
+    }
+
+    /**
+     * Assign a process to a batch within a single transaction. The given property values are written to the process, the values of the batch
+     * are replaced if given, the batch is set and the journal entry is created. If anything fails, nothing is changed.
+     *
+     * The batch row is locked for the duration of the transaction and the batch is checked again, so concurrent assignments on other nodes can
+     * neither exceed the maximum size nor add a process to a batch whose wait steps were closed already.
+     *
+     * @param processId id of the process
+     * @param batchId id of the batch
+     * @param batchWaitStep title of the wait step
+     * @param maxSize maximum number of processes in a batch
+     * @param propertyValues values of the properties to set, missing properties are created
+     * @param batchValues values of the properties to store with the batch, null to keep the stored values
+     * @param entry the journal entry to write
+     * @throws SQLException if the assignment failed
+     * @throws BatchAssignmentException if the batch is full or closed
+     */
+    public static void assignToBatch(int processId, int batchId, String batchWaitStep, int maxSize, Map<String, String> propertyValues,
+            Map<String, String> batchValues, JournalEntry entry) throws SQLException, BatchAssignmentException {
+        long start = System.nanoTime();
+        Connection connection = null;
+        try {
+            connection = MySQLHelper.getInstance().getConnection();
+            connection.setAutoCommit(false);
+            QueryRunner runner = new QueryRunner();
+
+            checkBatch(runner, connection, processId, batchId, batchWaitStep, maxSize);
+            // the process left the assignment step already when its batch was locked
+            Integer previousBatchId = runner.query(connection, "SELECT batchID FROM prozesse WHERE ProzesseID = ?",
+                    rs -> rs.next() && rs.getObject(1) != null ? rs.getInt(1) : null, processId);
+            if (previousBatchId != null && previousBatchId != batchId) {
+                checkPreviousBatch(previousBatchId, isClosed(runner, connection, previousBatchId, batchWaitStep));
+            }
+
+            // find out which of the properties exist already
+            List<String> existing = new ArrayList<>();
+            if (!propertyValues.isEmpty()) {
+                List<Object> parameter = new ArrayList<>();
+                parameter.add(processId);
+                parameter.addAll(propertyValues.keySet());
+                String sql = "SELECT DISTINCT property_name FROM properties WHERE object_id = ? AND object_type = 'process' AND property_name IN ("
+                        + propertyValues.keySet().stream().map(n -> "?").collect(Collectors.joining(", ")) + ")";
+                existing = runner.query(connection, sql, rs -> {
+                    List<String> list = new ArrayList<>();
+                    while (rs.next()) {
+                        list.add(rs.getString(1));
+                    }
+                    return list;
+                }, parameter.toArray());
+            }
+
+            // update the existing properties and insert the missing ones, each in one batched statement
+            PropertyChanges changes = createPropertyChanges(processId, propertyValues, existing, new Timestamp(System.currentTimeMillis()));
+            if (!changes.updates().isEmpty()) {
+                runner.batch(connection, UPDATE_PROCESS_PROPERTY, changes.updates().toArray(new Object[0][]));
+            }
+            if (!changes.inserts().isEmpty()) {
+                runner.batch(connection, INSERT_PROCESS_PROPERTY, changes.inserts().toArray(new Object[0][]));
+            }
+
+            runner.update(connection, "UPDATE prozesse SET batchID = ? WHERE ProzesseID = ?", batchId, processId);
+            if (batchValues != null) {
+                writeBatchPropertyValues(runner, connection, batchId, batchValues);
+            }
+
+            if (entry != null) {
+                runner.update(connection, INSERT_JOURNAL_ENTRY, toJournalParameters(entry));
+            }
+
+            connection.commit();
+        } catch (SQLException | BatchAssignmentException e) {
+            rollback(connection, e);
+            throw e;
+        } finally {
+            resetAutoCommit(connection);
+            closeConnection(connection);
+            BatchAssignmentMetrics.getInstance().recordTime(BatchAssignmentMetrics.DATABASE_QUERY, start);
+        }
+    }
+
+    /**
+     * Move processes from one batch to another within a single transaction. The given property values are written to all moved processes with
+     * one statement per property, the processes are moved with one statement and the journal entry is created. If anything fails, nothing is
+     * changed.
+     *
+     * @param fromBatchId id of the current batch of the processes
+     * @param toBatchId id of the new batch
+     * @param processIds ids of the processes to move, processes of other batches are ignored
+     * @param batchWaitStep title of the wait step
+     * @param maxSize maximum number of processes in a batch
+     * @param propertyValues values of the properties to set, missing properties are created
+     * @param entry the journal entry to write, can be null
+     * @return number of moved processes
+     * @throws SQLException if the processes could not be moved
+     * @throws BatchAssignmentException if one of the batches is closed or the new batch would exceed the maximum size
+     */
+    public static int moveProcesses(int fromBatchId, int toBatchId, Collection<Integer> processIds, String batchWaitStep, int maxSize,
+            Map<String, String> propertyValues, JournalEntry entry) throws SQLException, BatchAssignmentException {
+        if (processIds.isEmpty()) {
+            return 0;
+        }
+        return runMove(fromBatchId, toBatchId, processIds, batchWaitStep, maxSize, propertyValues, entry);
+    }
+
+    /**
+     * Move all processes of a batch to another batch and delete the empty batch within a single transaction
+     *
+     * @param sourceBatchId id of the batch to remove
+     * @param targetBatchId id of the batch that gets the processes
+     * @param batchWaitStep title of the wait step
+     * @param maxSize maximum number of processes in a batch
+     * @param propertyValues values of the properties to set, missing properties are created
+     * @param entry the journal entry to write, can be null
+     * @return number of moved processes
+     * @throws SQLException if the batches could not be merged
+     * @throws BatchAssignmentException if one of the batches is closed or the merged batch would exceed the maximum size
+     */
+    public static int mergeBatches(int sourceBatchId, int targetBatchId, String batchWaitStep, int maxSize, Map<String, String> propertyValues,
+            JournalEntry entry) throws SQLException, BatchAssignmentException {
+        return runMove(sourceBatchId, targetBatchId, null, batchWaitStep, maxSize, propertyValues, entry);
+    }
+
+    /**
+     * move the selected processes or all processes, if no selection is given, the source batch is deleted in the second case
+     */
+    private static int runMove(int fromBatchId, int toBatchId, Collection<Integer> processIds, String batchWaitStep, int maxSize,
+            Map<String, String> propertyValues, JournalEntry entry) throws SQLException, BatchAssignmentException {
+        long start = System.nanoTime();
+        Connection connection = null;
+        try {
+            connection = MySQLHelper.getInstance().getConnection();
+            connection.setAutoCommit(false);
+            QueryRunner runner = new QueryRunner();
+
+            // lock both batch rows in the same order as all other transactions
+            List<Integer> found = runner.query(connection, "SELECT id FROM batches WHERE id IN (?, ?) ORDER BY id FOR UPDATE",
+                    BatchAssignmentManager::readIntegerList, fromBatchId, toBatchId);
+            for (int batchId : new int[] { fromBatchId, toBatchId }) {
+                if (!found.contains(batchId) || isClosed(runner, connection, batchId, batchWaitStep)) {
+                    throw new BatchAssignmentException(BatchAssignmentException.Reason.BATCH_CLOSED, batchId);
+                }
+            }
+
+            String selection = "prozesse.batchID = ?";
+            if (processIds != null) {
+                selection += " AND prozesse.ProzesseID IN (" + processIds.stream().map(String::valueOf).collect(Collectors.joining(", ")) + ")";
+            }
+            int moving = runner.query(connection, "SELECT COUNT(*) FROM prozesse WHERE " + selection, rs -> rs.next() ? rs.getInt(1) : 0,
+                    fromBatchId);
+            int existing = runner.query(connection, "SELECT COUNT(*) FROM prozesse WHERE batchID = ?", rs -> rs.next() ? rs.getInt(1) : 0,
+                    toBatchId);
+            if (existing + moving > maxSize) {
+                throw new BatchAssignmentException(BatchAssignmentException.Reason.BATCH_FULL, toBatchId);
+            }
+
+            // update the existing properties of all moved processes and insert the missing ones, one statement per property each
+            if (moving > 0 && !propertyValues.isEmpty()) {
+                List<Object[]> updates = new ArrayList<>();
+                List<Object[]> inserts = new ArrayList<>();
+                Timestamp now = new Timestamp(System.currentTimeMillis());
+                for (Map.Entry<String, String> property : propertyValues.entrySet()) {
+                    updates.add(new Object[] { property.getValue(), property.getKey(), fromBatchId });
+                    inserts.add(new Object[] { property.getKey(), property.getValue(), now, fromBatchId, property.getKey() });
+                }
+                runner.batch(connection, "UPDATE properties SET property_value = ? WHERE object_type = 'process' AND property_name = ? "
+                        + "AND object_id IN (SELECT prozesse.ProzesseID FROM prozesse WHERE " + selection + ")", updates.toArray(new Object[0][]));
+                runner.batch(connection, "INSERT INTO properties (property_name, property_value, object_id, object_type, creation_date) "
+                        + "SELECT ?, ?, prozesse.ProzesseID, 'process', ? FROM prozesse WHERE " + selection + " AND NOT EXISTS (SELECT 1 FROM "
+                        + "properties p WHERE p.object_id = prozesse.ProzesseID AND p.object_type = 'process' AND p.property_name = ?)",
+                        inserts.toArray(new Object[0][]));
+            }
+
+            int moved = runner.update(connection, "UPDATE prozesse SET batchID = ? WHERE " + selection, toBatchId, fromBatchId);
+            if (processIds == null) {
+                runner.update(connection, "DELETE FROM batches WHERE id = ?", fromBatchId);
+                runner.update(connection, "DELETE FROM properties WHERE object_type = 'batch' AND object_id = ?", fromBatchId);
+            }
+
+            if (entry != null && moved > 0) {
+                runner.update(connection, INSERT_JOURNAL_ENTRY, toJournalParameters(entry));
+            }
+
+            connection.commit();
+            return moved;
+        } catch (SQLException | BatchAssignmentException e) {
+            rollback(connection, e);
+            throw e;
+        } finally {
+            resetAutoCommit(connection);
+            closeConnection(connection);
+            BatchAssignmentMetrics.getInstance().recordTime(BatchAssignmentMetrics.DATABASE_QUERY, start);
+        }
+    }
+
+    /**
+     * Write several journal entries with a single batched statement
+     *
+     * @param entries the entries to write
+     * @throws SQLException if the entries can't be written
+     */
+    public static void saveJournalEntries(List<JournalEntry> entries) throws SQLException {
+        if (entries.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        Connection connection = null;
+        try {
+            connection = MySQLHelper.getInstance().getConnection();
+            new QueryRunner().batch(connection, INSERT_JOURNAL_ENTRY,
+                    entries.stream().map(BatchAssignmentManager::toJournalParameters).toArray(Object[][]::new));
+        } finally {
+            closeConnection(connection);
+            BatchAssignmentMetrics.getInstance().recordTime(BatchAssignmentMetrics.DATABASE_QUERY, start);
+        }
+    }
+
+    private static Object[] toJournalParameters(JournalEntry entry) {
+        return new Object[] { entry.getObjectId(), new Timestamp(entry.getCreationDate().getTime()), entry.getUserName(),
+                entry.getType().getTitle(), entry.getContent(), entry.getEntryType().getTitle() };
+    }
+
+    /**
+     * lock the batch row until the end of the transaction and check that the process can still be added
+     */
+    private static void checkBatch(QueryRunner runner, Connection connection, int processId, int batchId, String batchWaitStep, int maxSize)
+            throws SQLException, BatchAssignmentException {
+        List<Integer> found = runner.query(connection, "SELECT id FROM batches WHERE id = ? FOR UPDATE", BatchAssignmentManager::readIntegerList,
+                batchId);
+        if (found.isEmpty()) {
+            checkTargetBatch(batchId, false, 0, maxSize, false);
+        }
+        int numberOfProcesses = runner.query(connection, "SELECT COUNT(*) FROM prozesse WHERE batchID = ? AND ProzesseID <> ?",
+                rs -> rs.next() ? rs.getInt(1) : 0, batchId, processId);
+        checkTargetBatch(batchId, true, numberOfProcesses, maxSize, isClosed(runner, connection, batchId, batchWaitStep));
+    }
+
+    /**
+     * check if a process can join the batch
+     *
+     * @param batchId id of the batch
+     * @param exists false if the batch was deleted
+     * @param otherProcesses number of processes in the batch, without the process that joins it
+     * @param maxSize maximum number of processes in a batch
+     * @param closed true if the wait step of a process in the batch is finished
+     * @throws BatchAssignmentException if the batch is full or closed
+     */
+    static void checkTargetBatch(int batchId, boolean exists, int otherProcesses, int maxSize, boolean closed) throws BatchAssignmentException {
+        if (!exists) {
+            throw new BatchAssignmentException(BatchAssignmentException.Reason.BATCH_CLOSED, batchId);
+        }
+        if (otherProcesses >= maxSize) {
+            throw new BatchAssignmentException(BatchAssignmentException.Reason.BATCH_FULL, batchId);
+        }
+        if (closed) {
+            throw new BatchAssignmentException(BatchAssignmentException.Reason.BATCH_CLOSED, batchId);
+        }
+    }
+
+    /**
+     * check if a process can leave its current batch, the process left the assignment step already when its batch was locked
+     *
+     * @param previousBatchId id of the current batch of the process
+     * @param closed true if the wait step of a process in the batch is finished
+     * @throws BatchAssignmentException if the batch is closed
+     */
+    static void checkPreviousBatch(int previousBatchId, boolean closed) throws BatchAssignmentException {
+        if (closed) {
+            throw new BatchAssignmentException(BatchAssignmentException.Reason.BATCH_CLOSED, previousBatchId);
+        }
+    }
+
+    /**
+     * create the parameters of the batched statements that write the property values of a process
+     *
+     * @param processId id of the process
+     * @param propertyValues values of the properties
+     * @param existing names of the properties the process has already
+     * @param now creation date of new properties
+     * @return parameters for {@link #UPDATE_PROCESS_PROPERTY} and {@link #INSERT_PROCESS_PROPERTY}
+     */
+    static PropertyChanges createPropertyChanges(int processId, Map<String, String> propertyValues, Collection<String> existing, Timestamp now) {
+        List<Object[]> updates = new ArrayList<>();
+        List<Object[]> inserts = new ArrayList<>();
+        for (Map.Entry<String, String> property : propertyValues.entrySet()) {
+            if (existing.contains(property.getKey())) {
+                updates.add(new Object[] { property.getValue(), processId, property.getKey() });
+            } else {
+                inserts.add(new Object[] { property.getKey(), property.getValue(), processId, now });
+            }
+        }
+        return new PropertyChanges(updates, inserts);
+    }
+
+    /**
+     * check if the wait step of any process in the batch is finished already
+     */
+    private static boolean isClosed(QueryRunner runner, Connection connection, int batchId, String batchWaitStep) throws SQLException {
+        int closedSteps = runner.query(connection,
+                "SELECT COUNT(*) FROM schritte JOIN prozesse ON schritte.ProzesseID = prozesse.ProzesseID "
+                        + "WHERE prozesse.batchID = ? AND schritte.Titel = ? AND schritte.Bearbeitungsstatus = ?",
+                rs -> rs.next() ? rs.getInt(1) : 0, batchId, batchWaitStep, StepStatus.DONE.getValue());
+        return closedSteps > 0;
+    }
+
+    private static List<Integer> readIntegerList(ResultSet rs) throws SQLException {
+        List<Integer> list = new ArrayList<>();
+        while (rs.next()) {
+            list.add(rs.getInt(1));
+        }
+        return list;
+    }
+
+    private static <T> T query(String sql, ResultSetHandler<T> handler, List<Object> parameter) {
+        try {
+            return execute(sql, handler, parameter);
+        } catch (SQLException e) {
+            log.error("Unable to run query {}", sql, e);
+            return null;
+        }
+    }
+
+    private static <T> T execute(String sql, ResultSetHandler<T> handler, List<Object> parameter) throws SQLException {
+        long start = System.nanoTime();
+        Connection connection = null;
+        try {
+            connection = MySQLHelper.getInstance().getConnection();
+            return new QueryRunner().query(connection, sql, handler, parameter.toArray());
+        } finally {
+            closeConnection(connection);
+            BatchAssignmentMetrics.getInstance().recordTime(BatchAssignmentMetrics.DATABASE_QUERY, start);
+        }
+    }
+
+    /**
+     * roll back the transaction, a failed rollback is added to the exception that caused it
+     */
+    private static void rollback(Connection connection, Exception cause) {
+        if (connection != null) {
+            try {
+                connection.rollback();
+            } catch (SQLException e) {
+                cause.addSuppressed(e);
+            }
+        }
+    }
+
+    /**
+     * switch the connection back to auto commit, a failure is only logged, so it doesn't replace the result or the exception of the transaction
+     */
+    private static void resetAutoCommit(Connection connection) {
+        if (connection != null) {
+            try {
+                connection.setAutoCommit(true);
+            } catch (SQLException e) {
+                log.error("Unable to reset the auto commit of the connection", e);
+            }
+        }
+    }
+
+    private static void closeConnection(Connection connection) {
+        if (connection != null) {
+            try {
+                MySQLHelper.closeConnection(connection);
+            } catch (SQLException e) {
+                log.error(e);
+            }
+        }
+    }
+
+    /**
+     * Statement together with the values of its placeholders
+     */
+    record SqlQuery(String sql, List<Object> parameter) {
+    }
+
+    /**
+     * Parameters of the batched statements that update and insert properties
+     */
+    record PropertyChanges(List<Object[]> updates, List<Object[]> inserts) {
+    }
+
+    /**
+     * Number of processes within a batch together with the id of the process that represents the batch
+     */
+    public record BatchProcessCount(int batchId, int numberOfProcesses, int representativeProcessId) {
+    }
+
+    /**
+     * Number of processes of a batch that reached the wait step and that are still in the steps before it
+     */
+    public record BatchProgress(int batchId, int processesAtWaitStep, int processesUpstream) implements Serializable {
+    }
+
+    /**
+     * Wait step of a process within a batch
+     */
+    public record WaitStep(int stepId, int processId) {
+    }
+
+    /**
+     * Process of a batch with its current step, the step is null if all steps are finished
+     */
+    public record ManifestRow(int processId, String title, String currentStep, Integer currentStepStatus) {
+    }
+}
@@ -0,0 +1,155 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Timing and size metrics of the plugin. The metrics are exposed via JMX as <code>de.intranda.goobi.plugins:type=BatchAssignmentMetrics</code>,
+ * latencies are measured in milliseconds, sizes in number of objects.
+ */
+@Log4j2
+public class BatchAssignmentMetrics implements BatchAssignmentMetricsMXBean {
+
+    // latencies
+    public static final String INITIALIZE = "initialize";
+    public static final String COLLECT_BATCHES = "collectAvailableBatches";
+    public static final String LOAD_PROCESS = "loadProcess";
+    public static final String DATABASE_QUERY = "databaseQuery";
+    public static final String VOCABULARY_LOOKUP = "vocabularyLookup";
+    public static final String ASSIGN_EXISTING = "assignToExistingBatch";
+    public static final String ASSIGN_NEW = "assignToNewBatch";
+    public static final String LOCK_BATCH = "lockBatch";
+    public static final String DOCKET = "generateBatchDocket";
+    public static final String RENDER_DOCKET = "renderDocket";
+    public static final String EXPORT_MANIFEST = "exportManifest";
+
+    // sizes
+    public static final String LISTED_BATCHES = "listedBatches";
+    public static final String LOADED_PROCESSES = "loadedProcesses";
+
+    private static final String OBJECT_NAME = "de.intranda.goobi.plugins:type=BatchAssignmentMetrics";
+
+    private static final BatchAssignmentMetrics INSTANCE = new BatchAssignmentMetrics(true);
+
+    private final Map<String, MetricsHistogram> latencies = new ConcurrentHashMap<>();
+    private final Map<String, MetricsHistogram> sizes = new ConcurrentHashMap<>();
+
+    BatchAssignmentMetrics(boolean register) {
+        if (register) {
+            register();
+        }
+    }
+
+    public static BatchAssignmentMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * record the duration of an operation
+     *
+     * @param name name of the operation
+     * @param startNanos value of {@link System#nanoTime()} when the operation started
+     */
+    public void recordTime(String name, long startNanos) {
+        latencies.computeIfAbsent(name, k -> new MetricsHistogram()).record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+    }
+
+    /**
+     * record the number of objects an operation used, e.g. the number of listed batches
+     *
+     * @param name name of the value
+     * @param value the number of objects
+     */
+    public void recordSize(String name, long value) {
+        sizes.computeIfAbsent(name, k -> new MetricsHistogram()).record(value);
+    }
+
+    @Override
+    public Map<String, Statistics> getLatencies() {
+        return toStatistics(latencies);
+    }
+
+    @Override
+    public Map<String, Statistics> getSizes() {
+        return toStatistics(sizes);
+    }
+
+    @Override
+    public void reset() {
+        latencies.values().forEach(MetricsHistogram::reset);
+        sizes.values().forEach(MetricsHistogram::reset);
+    }
+
+    private static Map<String, Statistics> toStatistics(Map<String, MetricsHistogram> histograms) {
+        Map<String, Statistics> answer = new TreeMap<>();
+        histograms.forEach((name, histogram) -> answer.put(name, new Statistics(histogram)));
+        return answer;
+    }
+
+    private void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            // a redeployed plugin replaces the bean of the previous class loader
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+        } catch (JMException | SecurityException e) {
+            log.warn("Unable to register the metrics of the batch assignment: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Snapshot of a histogram
+     */
+    @Getter
+    public static class Statistics {
+        private final long count;
+        private final long sum;
+        private final double mean;
+        private final long max;
+        private final long p50;
+        private final long p95;
+        private final long p99;
+
+        Statistics(MetricsHistogram histogram) {
+            count = histogram.getCount();
+            sum = histogram.getSum();
+            mean = histogram.getMean();
+            max = histogram.getMax();
+            p50 = histogram.getPercentile(50);
+            p95 = histogram.getPercentile(95);
+            p99 = histogram.getPercentile(99);
+        }
+    }
+}
@@ -0,0 +1,707 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.apache.commons.lang3.StringUtils;
+import org.goobi.beans.Batch;
+import org.goobi.beans.GoobiProperty;
+import org.goobi.beans.Institution;
+import org.goobi.beans.JournalEntry;
+import org.goobi.beans.JournalEntry.EntryType;
+import org.goobi.beans.Process;
+import org.goobi.beans.Processproperty;
+import org.goobi.beans.Step;
+import org.goobi.beans.User;
+import org.goobi.production.enums.LogType;
+
+import de.intranda.goobi.plugins.BatchAssignmentException.Reason;
+import de.intranda.goobi.plugins.BatchAssignmentManager.BatchProcessCount;
+import de.sub.goobi.config.ConfigurationHelper;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Assignment of processes to batches, creation, locking and dockets of batches without a user session. The user and the step are passed
+ * explicitly, so the operations can be used by the plugin as well as by scripts, REST endpoints or background jobs. All operations keep the shared
+ * caches of the plugin up to date.
+ */
+@Log4j2
+public class BatchAssignmentService {
+
+    // user name of journal entries without a user
+    public static final String AUTOMATIC_USER = "- automatic -";
+
+    private final BatchAssignmentConfiguration configuration;
+    private final BatchDataSource dataSource;
+    // restrictions of the user who works with the service, the cached summaries of these users are updated in place
+    private final String visibilityKey;
+
+    public BatchAssignmentService(BatchAssignmentConfiguration configuration) {
+        this(configuration, GoobiBatchDataSource.INSTANCE);
+    }
+
+    BatchAssignmentService(BatchAssignmentConfiguration configuration, BatchDataSource dataSource) {
+        this(configuration, dataSource, OpenBatchRegistry.UNRESTRICTED);
+    }
+
+    BatchAssignmentService(BatchAssignmentConfiguration configuration, BatchDataSource dataSource, String visibilityKey) {
+        this.configuration = configuration;
+        this.dataSource = dataSource;
+        this.visibilityKey = visibilityKey;
+    }
+
+    /**
+     * create the service with the plugin configuration of the project and step
+     *
+     * @param step a step that uses the plugin
+     * @return the service
+     */
+    public static BatchAssignmentService forStep(Step step) {
+        return new BatchAssignmentService(BatchAssignmentConfiguration.get(BatchAssignmentStepPlugin.TITLE, step));
+    }
+
+    /**
+     * assign the process to an existing batch and copy the configured properties of the batch to the process, the process object is updated as
+     * well
+     *
+     * @param process the process
+     * @param batchId id of the batch
+     * @param userName name of the user for the journal
+     * @throws SQLException if the assignment failed
+     * @throws BatchAssignmentException if the batch is full, closed or changed by someone else right now
+     */
+    public void assignProcess(Process process, int batchId, String userName) throws SQLException, BatchAssignmentException {
+        Integer previousBatchId = process.getBatch() == null ? null : process.getBatch().getBatchId();
+
+        // read the configured properties stored with the batch
+        Map<String, String> batchValues = getBatchPropertyValues(batchId);
+        Map<String, String> propertyValues = batchValues == null ? new HashMap<>() : batchValues;
+
+        // copy the properties, assign to the same batch and add a log entry at once, the first process defines the values of an empty batch
+        Map<String, String> newBatchValues = batchValues == null ? getPropertyValues(process) : null;
+        JournalEntry logEntry = createJournalEntry(process.getId(), batchId, userName);
+        int maxSize = ConfigurationHelper.getInstance().getBatchMaxSize();
+        // neither the old nor the new batch may be locked while the process moves
+        BatchLocks.withBatches(Arrays.asList(previousBatchId, batchId), () -> {
+            BatchLocks.checkNotLocked(previousBatchId);
+            BatchLocks.checkNotLocked(batchId);
+            dataSource.assignToBatch(process.getId(), batchId, configuration.getBatchWaitStep(), maxSize, propertyValues, newBatchValues, logEntry);
+            return null;
+        });
+
+        // keep the process object in sync with the database
+        for (Map.Entry<String, String> value : propertyValues.entrySet()) {
+            boolean found = false;
+            for (GoobiProperty myprop : process.getEigenschaften()) {
+                if (myprop.getTitel().equals(value.getKey())) {
+                    found = true;
+                    myprop.setWert(value.getValue());
+                }
+            }
+            if (!found) {
+                Processproperty newProp = new Processproperty();
+                newProp.setTitel(value.getKey());
+                newProp.setWert(value.getValue());
+                newProp.setProzess(process);
+                process.getEigenschaften().add(newProp);
+            }
+        }
+        process.setBatch(dataSource.getBatch(batchId));
+
+        processesMoved(Collections.singletonMap(process.getId(), previousBatchId), List.of(process.getId()), batchId, batchValues == null);
+    }
+
+    /**
+     * assign several processes to an existing batch and copy the configured properties of the batch to the processes. Each process is assigned in
+     * its own transaction, processes that can't be assigned are reported in the result.
+     *
+     * @param processIds ids of the processes
+     * @param batchId id of the batch
+     * @param userName name of the user for the journal
+     * @return the assigned and the rejected processes
+     * @throws SQLException if the assignment failed
+     * @throws BatchAssignmentException if the batch is closed or changed by someone else right now
+     */
+    public AssignmentResult assignProcesses(Collection<Integer> processIds, int batchId, String userName)
+            throws SQLException, BatchAssignmentException {
+        Map<String, String> batchValues = getBatchPropertyValues(batchId);
+        return assignProcesses(processIds, batchId, batchValues == null ? Map.of() : batchValues, batchValues == null, userName);
+    }
+
+    /**
+     * create a new batch for the process, the configured properties of the process object are stored together with the batch
+     *
+     * @param process the process
+     * @param batchName name of the new batch
+     * @param userName name of the user for the journal
+     * @return the new batch
+     * @throws SQLException if the batch can't be created
+     * @throws BatchAssignmentException if the process is part of a batch that is locked right now
+     */
+    public Batch createBatch(Process process, String batchName, String userName) throws SQLException, BatchAssignmentException {
+        // properties that were emptied are written to the process as well
+        Map<String, String> processValues = new HashMap<>();
+        for (GoobiProperty property : process.getEigenschaften()) {
+            if (configuration.isPropertyConfigured(property.getTitel())) {
+                processValues.putIfAbsent(property.getTitel(), StringUtils.defaultString(property.getWert()));
+            }
+        }
+        return createBatch(process, batchName, userName, processValues);
+    }
+
+    private Batch createBatch(Process process, String batchName, String userName, Map<String, String> propertyValues)
+            throws SQLException, BatchAssignmentException {
+        Integer previousBatchId = process.getBatch() == null ? null : process.getBatch().getBatchId();
+        Map<String, String> batchValues = new HashMap<>(propertyValues);
+        batchValues.values().removeIf(StringUtils::isBlank);
+        int maxSize = ConfigurationHelper.getInstance().getBatchMaxSize();
+        // the process can't leave a batch that is locked right now or whose wait steps are closed already
+        int newBatchId = BatchLocks.withBatches(Collections.singletonList(previousBatchId), () -> {
+            BatchLocks.checkNotLocked(previousBatchId);
+            if (previousBatchId != null && dataSource.isBatchClosed(previousBatchId, configuration.getBatchWaitStep())) {
+                throw new BatchAssignmentException(Reason.BATCH_CLOSED, previousBatchId);
+            }
+            // the process, the values of the new batch and the journal entry are written at once, the batch is deleted again if this fails
+            int batchId = dataSource.createBatch(batchName, new Date());
+            try {
+                dataSource.assignToBatch(process.getId(), batchId, configuration.getBatchWaitStep(), maxSize, propertyValues, batchValues,
+                        createJournalEntry(process.getId(), batchId, userName));
+            } catch (SQLException | BatchAssignmentException | RuntimeException e) {
+                deleteEmptyBatch(batchId, e);
+                throw e;
+            }
+            return batchId;
+        });
+        Batch newBatch = dataSource.getBatch(newBatchId);
+        process.setBatch(newBatch);
+
+        OpenBatchRegistry registry = OpenBatchRegistry.getInstance();
+        registry.processMoved(previousBatchId, newBatchId, visibilityKey);
+        registry.invalidateBatchLists(configuration.getBatchWaitStep());
+        BatchPropertyIndex.getInstance().remove(previousBatchId);
+        BatchPropertyIndex.getInstance().update(configuration.getBatchWaitStep(), newBatchId, batchValues);
+        BatchDocketCache.invalidate(previousBatchId);
+        return newBatch;
+    }
+
+    /**
+     * create a new batch for several processes, the configured properties of the first process are copied to the other processes. The batch is
+     * created while the current batches of the processes are locked, its values are stored together with the first assigned process. If no
+     * process can be assigned, the batch is deleted again.
+     *
+     * @param processIds ids of the processes, at least one
+     * @param batchName name of the new batch
+     * @param userName name of the user for the journal
+     * @return the id of the new batch together with the assigned and the rejected processes, the id is null if no process was assigned
+     * @throws SQLException if the batch can't be created
+     * @throws BatchAssignmentException if the new batch is changed by someone else right now
+     */
+    public AssignmentResult createBatch(List<Integer> processIds, String batchName, String userName) throws SQLException, BatchAssignmentException {
+        if (processIds.isEmpty()) {
+            throw new IllegalArgumentException("A new batch needs at least one process");
+        }
+        Map<String, String> values = withoutBlankValues(dataSource.getPropertyValues(processIds.get(0), configuration.getPropertyNames()));
+        Map<Integer, Integer> previousBatches = dataSource.getBatchIdsOfProcesses(processIds);
+        AssignmentResult result = BatchLocks.withBatches(new HashSet<>(previousBatches.values()), () -> {
+            int batchId = dataSource.createBatch(batchName, new Date());
+            try {
+                AssignmentResult assignment = assignLocked(processIds, previousBatches, batchId, values, true, values, userName);
+                if (assignment.assigned().isEmpty()) {
+                    dataSource.deleteEmptyBatch(batchId);
+                    return new AssignmentResult(null, assignment.assigned(), assignment.rejected(), assignment.notFound());
+                }
+                return assignment;
+            } catch (SQLException | RuntimeException e) {
+                deleteEmptyBatch(batchId, e);
+                throw e;
+            }
+        });
+        if (result.batchId() != null) {
+            OpenBatchRegistry.getInstance().invalidateBatchLists(configuration.getBatchWaitStep());
+            processesMoved(previousBatches, result.assigned(), result.batchId(), false);
+        }
+        return result;
+    }
+
+    /**
+     * assign the process to the newest open batch with the same values of the configured properties, create a new batch if no batch matches
+     *
+     * @param process the process
+     * @return id of the batch
+     * @throws SQLException if the assignment failed
+     * @throws BatchAssignmentException if the process is part of a batch that is locked right now
+     */
+    public Integer assignAutomatically(Process process) throws SQLException, BatchAssignmentException {
+        String batchWaitStep = configuration.getBatchWaitStep();
+        List<String> propertyNames = configuration.getPropertyNames();
+        // empty properties are not stored with a batch, so they are not compared either
+        Map<String, String> values = withoutBlankValues(dataSource.getPropertyValues(process.getId(), propertyNames));
+        Integer previousBatchId = process.getBatch() == null ? null : process.getBatch().getBatchId();
+        BatchLocks.checkNotLocked(previousBatchId);
+        OpenBatchRegistry registry = OpenBatchRegistry.getInstance();
+
+        // compare the properties with the stored values of all open batches of the same project that are not full yet
+        String processCriteria = getProjectCriteria(process);
+        String projectKey = processCriteria.isEmpty() ? OpenBatchRegistry.UNRESTRICTED : processCriteria + OpenBatchRegistry.UNRESTRICTED;
+        List<Integer> openBatches = registry.getBatchIds(batchWaitStep, projectKey,
+                () -> dataSource.getAvailableBatchIds(batchWaitStep, processCriteria, null, propertyNames, 0, Integer.MAX_VALUE));
+        Map<Integer, BatchProcessCount> counts = dataSource.getProcessCounts(openBatches, null);
+        int maxSize = ConfigurationHelper.getInstance().getBatchMaxSize();
+        List<BatchProcessCount> candidates = openBatches.stream()
+                .map(counts::get)
+                .filter(c -> c != null && c.numberOfProcesses() < maxSize)
+                .toList();
+        Map<Integer, Map<String, String>> candidateValues = getBatchPropertyValues(candidates.stream().map(BatchProcessCount::batchId).toList());
+        for (BatchProcessCount candidate : candidates) {
+            if (values.equals(withoutBlankValues(candidateValues.getOrDefault(candidate.batchId(), new HashMap<>())))) {
+                JournalEntry logEntry = createJournalEntry(process.getId(), candidate.batchId(), AUTOMATIC_USER);
+                try {
+                    BatchLocks.withBatches(Arrays.asList(previousBatchId, candidate.batchId()), () -> {
+                        BatchLocks.checkNotLocked(previousBatchId);
+                        BatchLocks.checkNotLocked(candidate.batchId());
+                        dataSource.assignToBatch(process.getId(), candidate.batchId(), batchWaitStep, maxSize, new HashMap<>(), null, logEntry);
+                        return null;
+                    });
+                } catch (BatchAssignmentException e) {
+                    if (e.getBatchId() != candidate.batchId()) {
+                        throw e;
+                    }
+                    // the batch was filled or locked in the meantime, try the next one
+                    log.debug("Batch {} is not available anymore: {}", candidate.batchId(), e.getReason());
+                    continue;
+                }
+                process.setBatch(dataSource.getBatch(candidate.batchId()));
+                processesMoved(Collections.singletonMap(process.getId(), previousBatchId), List.of(process.getId()), candidate.batchId(), false);
+                return candidate.batchId();
+            }
+        }
+
+        // no batch matches, create a new one named after the property values
+        String batchName = propertyNames.stream().map(values::get).filter(StringUtils::isNotBlank).collect(Collectors.joining(" - "));
+        return createBatch(process, batchName, AUTOMATIC_USER, values).getBatchId();
+    }
+
+    /**
+     * lock the batch, the wait steps of all processes are closed in the background
+     *
+     * @param batchId id of the batch
+     * @param user the user who closes the steps, null for automatic locks
+     * @return the job that closes the wait steps
+     * @throws SQLException if the batch can't be locked
+     * @throws BatchAssignmentException if the batch is changed by someone else right now
+     */
+    public BatchLockJob lockBatch(int batchId, User user) throws SQLException, BatchAssignmentException {
+        // wait until running assignments to this batch are finished, no new ones can start afterwards
+        BatchLockJob job =
+                BatchLocks.withBatches(List.of(batchId), () -> BatchLockJob.start(dataSource, batchId, configuration.getBatchWaitStep(), user));
+        OpenBatchRegistry.getInstance().batchLocked(batchId);
+        BatchPropertyIndex.getInstance().remove(batchId);
+        return job;
+    }
+
+    /**
+     * get the docket of the batch, if it was generated already
+     *
+     * @param batchId id of the batch
+     * @param institution institution of the user, only processes of this institution are listed, can be null
+     * @return the docket file or null
+     */
+    public Path getDocket(int batchId, Institution institution) {
+        return BatchDocketCache.getDocket(dataSource, batchId, institution);
+    }
+
+    /**
+     * start the generation of the docket in the background
+     *
+     * @param batchId id of the batch
+     * @param institution institution of the user, only processes of this institution are listed, can be null
+     * @return true if the docket is generated, false if the batch doesn't contain any process
+     */
+    public boolean generateDocket(int batchId, Institution institution) {
+        return BatchDocketCache.generate(dataSource, batchId, institution);
+    }
+
+    /**
+     * get the state of the docket of the batch, the processes of the batch are only read again after they changed
+     *
+     * @param batchId id of the batch
+     * @param institution institution of the user, only processes of this institution are listed, can be null
+     * @return the state of the docket
+     */
+    public BatchDocketCache.DocketState getDocketState(int batchId, Institution institution) {
+        return BatchDocketCache.getState(dataSource, batchId, institution);
+    }
+
+    /**
+     * move processes from one batch to another with a single update, the configured properties of the new batch are copied to the moved
+     * processes and one journal entry describes the whole move
+     *
+     * @param processIds ids of the processes, processes of other batches are ignored
+     * @param fromBatchId id of the current batch
+     * @param toBatchId id of the new batch
+     * @param userName name of the user for the journal
+     * @return number of moved processes
+     * @throws SQLException if the processes could not be moved
+     * @throws BatchAssignmentException if one of the batches is closed or the new batch would exceed the maximum size
+     */
+    public int moveProcesses(Collection<Integer> processIds, int fromBatchId, int toBatchId, String userName)
+            throws SQLException, BatchAssignmentException {
+        if (fromBatchId == toBatchId) {
+            return 0;
+        }
+        Map<String, String> batchValues = getBatchPropertyValues(toBatchId);
+        int moved = BatchLocks.withBatches(List.of(fromBatchId, toBatchId), () -> {
+            BatchLocks.checkNotLocked(fromBatchId);
+            BatchLocks.checkNotLocked(toBatchId);
+            Map<Integer, Integer> batchIds = dataSource.getBatchIdsOfProcesses(processIds);
+            List<Integer> moving = processIds.stream().filter(id -> Objects.equals(batchIds.get(id), fromBatchId)).distinct().toList();
+            if (moving.isEmpty()) {
+                return 0;
+            }
+            JournalEntry entry = createSummaryEntry(moving.get(0), userName,
+                    "moved " + moving.size() + " processes from batch " + fromBatchId + " to batch " + toBatchId + ": " + moving);
+            return dataSource.moveProcesses(fromBatchId, toBatchId, moving, configuration.getBatchWaitStep(),
+                    ConfigurationHelper.getInstance().getBatchMaxSize(), batchValues == null ? Map.of() : batchValues, entry);
+        });
+        batchesChanged(moved, fromBatchId, toBatchId);
+        return moved;
+    }
+
+    /**
+     * split a batch, the processes after the first ones are moved to a new batch. The processes keep their properties, as they belong to the same
+     * batch already.
+     *
+     * @param batchId id of the batch to split
+     * @param keepProcesses number of processes that stay in the batch, ordered by their id
+     * @param newBatchName name of the new batch
+     * @param userName name of the user for the journal
+     * @return id of the new batch or null, if the batch doesn't contain more processes
+     * @throws SQLException if the batch could not be split
+     * @throws BatchAssignmentException if the batch is closed
+     */
+    public Integer splitBatch(int batchId, int keepProcesses, String newBatchName, String userName) throws SQLException, BatchAssignmentException {
+        BatchLocks.checkNotLocked(batchId);
+        SplitResult result = BatchLocks.withBatches(List.of(batchId), () -> {
+            BatchLocks.checkNotLocked(batchId);
+            // the processes are read within the lock, so no concurrent assignment or move can change them
+            List<Integer> processIds = dataSource.getProcessIdsOfBatch(batchId);
+            if (processIds.size() <= keepProcesses) {
+                return null;
+            }
+            List<Integer> moving = new ArrayList<>(processIds.subList(Math.max(0, keepProcesses), processIds.size()));
+            Map<String, String> batchValues = getBatchPropertyValues(batchId);
+            // the new batch is only created while the split batch is locked and deleted again if the processes can't be moved
+            int newBatchId = dataSource.createBatch(newBatchName, new Date());
+            try {
+                dataSource.saveBatchPropertyValues(newBatchId, batchValues == null ? Map.of() : batchValues);
+                JournalEntry entry = createSummaryEntry(moving.get(0), userName,
+                        "split batch " + batchId + ", moved " + moving.size() + " processes to batch " + newBatchId + ": " + moving);
+                int moved = dataSource.moveProcesses(batchId, newBatchId, moving, configuration.getBatchWaitStep(),
+                        ConfigurationHelper.getInstance().getBatchMaxSize(), Map.of(), entry);
+                return new SplitResult(newBatchId, moved);
+            } catch (SQLException | BatchAssignmentException | RuntimeException e) {
+                deleteEmptyBatch(newBatchId, e);
+                throw e;
+            }
+        });
+        if (result == null) {
+            return null;
+        }
+        OpenBatchRegistry.getInstance().invalidateBatchLists(configuration.getBatchWaitStep());
+        batchesChanged(result.moved(), batchId, result.newBatchId());
+        return result.newBatchId();
+    }
+
+    private void deleteEmptyBatch(int batchId, Exception cause) {
+        try {
+            dataSource.deleteEmptyBatch(batchId);
+        } catch (SQLException | RuntimeException e) {
+            // the cleanup of empty batches removes it later
+            cause.addSuppressed(e);
+        }
+    }
+
+    /**
+     * move all processes of a batch to another batch and delete the empty batch. Both batches must have the same values of the configured
+     * properties, properties that are missing in one of the batches are copied from the other batch.
+     *
+     * @param sourceBatchId id of the batch to remove
+     * @param targetBatchId id of the batch that gets the processes
+     * @param userName name of the user for the journal
+     * @return number of moved processes
+     * @throws SQLException if the batches could not be merged
+     * @throws BatchAssignmentException if the properties differ, one of the batches is closed or the merged batch would exceed the maximum size
+     */
+    public int mergeBatches(int sourceBatchId, int targetBatchId, String userName) throws SQLException, BatchAssignmentException {
+        if (sourceBatchId == targetBatchId) {
+            return 0;
+        }
+        int moved = BatchLocks.withBatches(List.of(sourceBatchId, targetBatchId), () -> {
+            BatchLocks.checkNotLocked(sourceBatchId);
+            BatchLocks.checkNotLocked(targetBatchId);
+            Map<String, String> sourceValues = getBatchPropertyValues(sourceBatchId);
+            Map<String, String> targetValues = getBatchPropertyValues(targetBatchId);
+            // the merged batch has the values of both batches
+            Map<String, String> values = new HashMap<>();
+            if (targetValues != null) {
+                values.putAll(targetValues);
+            }
+            if (sourceValues != null) {
+                for (Map.Entry<String, String> value : sourceValues.entrySet()) {
+                    String other = values.get(value.getKey());
+                    if (StringUtils.isBlank(other)) {
+                        values.put(value.getKey(), value.getValue());
+                    } else if (StringUtils.isNotBlank(value.getValue()) && !other.equals(value.getValue())) {
+                        throw new BatchAssignmentException(Reason.INCOMPATIBLE, sourceBatchId);
+                    }
+                }
+            }
+            List<Integer> processIds = new ArrayList<>(dataSource.getProcessIdsOfBatch(sourceBatchId));
+            JournalEntry entry = processIds.isEmpty() ? null
+                    : createSummaryEntry(processIds.get(0), userName,
+                            "merged batch " + sourceBatchId + " into batch " + targetBatchId + ", moved " + processIds.size() + " processes: "
+                                    + processIds);
+            int merged = dataSource.mergeBatches(sourceBatchId, targetBatchId, configuration.getBatchWaitStep(),
+                    ConfigurationHelper.getInstance().getBatchMaxSize(), values, entry);
+            if (!values.equals(targetValues == null ? Map.of() : targetValues)) {
+                // the target batch takes the values that only the source batch had
+                dataSource.saveBatchPropertyValues(targetBatchId, values);
+            }
+            return merged;
+        });
+        OpenBatchRegistry.getInstance().batchDeleted(sourceBatchId);
+        batchesChanged(moved, sourceBatchId, targetBatchId);
+        return moved;
+    }
+
+    /**
+     * write the list of processes of the batch with their configured properties and their current step
+     *
+     * @param batchId id of the batch
+     * @param institution institution of the user, only processes of this institution are listed, can be null
+     * @param format the output format
+     * @param out the stream to write to, it is not closed
+     * @return number of written processes
+     * @throws IOException if the manifest can't be written
+     * @throws SQLException if the processes can't be read
+     */
+    public int writeManifest(int batchId, Institution institution, BatchManifestWriter.Format format, OutputStream out)
+            throws IOException, SQLException {
+        return new BatchManifestWriter(dataSource, configuration.getPropertyNames()).write(batchId, institution, format, out);
+    }
+
+    private AssignmentResult assignProcesses(Collection<Integer> processIds, int batchId, Map<String, String> propertyValues, boolean batchWasEmpty,
+            String userName) throws SQLException, BatchAssignmentException {
+        Map<Integer, Integer> previousBatches = dataSource.getBatchIdsOfProcesses(processIds);
+        Set<Integer> lockedBatches = new HashSet<>(previousBatches.values());
+        lockedBatches.add(batchId);
+        // all batches stay locked for the whole call, so each process is checked only against the database
+        AssignmentResult result = BatchLocks.withBatches(lockedBatches, () -> {
+            BatchLocks.checkNotLocked(batchId);
+            return assignLocked(processIds, previousBatches, batchId, propertyValues, batchWasEmpty, null, userName);
+        });
+        processesMoved(previousBatches, result.assigned(), batchId, batchWasEmpty);
+        return result;
+    }
+
+    /**
+     * assign the processes one by one while their batches are locked
+     *
+     * @param storeBatchValues true if the batch is empty, its values are stored together with the first assigned process
+     * @param batchValues values to store with the batch, null to use the values of the first assigned process
+     */
+    private AssignmentResult assignLocked(Collection<Integer> processIds, Map<Integer, Integer> previousBatches, int batchId,
+            Map<String, String> propertyValues, boolean storeBatchValues, Map<String, String> batchValues, String userName) throws SQLException {
+        int maxSize = ConfigurationHelper.getInstance().getBatchMaxSize();
+        List<Integer> assigned = new ArrayList<>();
+        Map<Integer, Reason> rejected = new LinkedHashMap<>();
+        List<Integer> notFound = new ArrayList<>();
+        Reason targetUnavailable = null;
+        for (Integer processId : processIds) {
+            Integer previousBatchId = previousBatches.get(processId);
+            if (!previousBatches.containsKey(processId)) {
+                notFound.add(processId);
+            } else if (targetUnavailable != null) {
+                rejected.put(processId, targetUnavailable);
+            } else if (BatchLockJob.isRunning(previousBatchId)) {
+                rejected.put(processId, Reason.BATCH_CLOSED);
+            } else if (!Objects.equals(previousBatchId, batchId)) {
+                Map<String, String> newBatchValues = null;
+                if (storeBatchValues && assigned.isEmpty()) {
+                    newBatchValues = batchValues != null ? batchValues
+                            : withoutBlankValues(dataSource.getPropertyValues(processId, configuration.getPropertyNames()));
+                }
+                try {
+                    dataSource.assignToBatch(processId, batchId, configuration.getBatchWaitStep(), maxSize, propertyValues, newBatchValues,
+                            createJournalEntry(processId, batchId, userName));
+                    assigned.add(processId);
+                } catch (BatchAssignmentException e) {
+                    // the batch is full or was closed on another node, the remaining processes can't be assigned either
+                    targetUnavailable = e.getReason();
+                    rejected.put(processId, targetUnavailable);
+                }
+            }
+        }
+        return new AssignmentResult(batchId, assigned, rejected, notFound);
+    }
+
+    /**
+     * update the shared caches after processes were moved to the batch
+     */
+    private void processesMoved(Map<Integer, Integer> previousBatches, List<Integer> processIds, int batchId, boolean batchWasEmpty) {
+        if (processIds.isEmpty()) {
+            return;
+        }
+        OpenBatchRegistry registry = OpenBatchRegistry.getInstance();
+        BatchPropertyIndex index = BatchPropertyIndex.getInstance();
+        for (Integer processId : processIds) {
+            Integer previousBatchId = previousBatches.get(processId);
+            registry.processMoved(previousBatchId, batchId, visibilityKey);
+            index.remove(previousBatchId);
+            BatchDocketCache.invalidate(previousBatchId);
+        }
+        if (batchWasEmpty) {
+            // the batch has the values of its first process now, they are loaded again with the next request
+            index.remove(batchId);
+            registry.invalidate(List.of(batchId));
+        }
+        BatchDocketCache.invalidate(batchId);
+    }
+
+    /**
+     * update the shared caches after processes were moved between two batches
+     */
+    private void batchesChanged(int moved, int fromBatchId, int toBatchId) {
+        List<Integer> batchIds = List.of(fromBatchId, toBatchId);
+        OpenBatchRegistry.getInstance().invalidate(batchIds);
+        for (Integer batchId : batchIds) {
+            // the stored values of both batches may have changed
+            BatchPropertyIndex.getInstance().remove(batchId);
+            if (moved > 0) {
+                BatchDocketCache.invalidate(batchId);
+            }
+        }
+    }
+
+    /**
+     * get the values of the configured properties of several batches. The values stored with the batch are used, only batches created before the
+     * values were stored are read from their first process.
+     *
+     * @param batchIds ids of the batches
+     * @return map with the batch id as key, empty batches without stored values are missing
+     */
+    public Map<Integer, Map<String, String>> getBatchPropertyValues(Collection<Integer> batchIds) {
+        List<String> propertyNames = configuration.getPropertyNames();
+        Map<Integer, Map<String, String>> answer = dataSource.getBatchPropertyValues(batchIds, propertyNames);
+        List<Integer> missing = batchIds.stream().filter(id -> !answer.containsKey(id)).toList();
+        if (!missing.isEmpty()) {
+            Map<Integer, BatchProcessCount> counts = dataSource.getProcessCounts(missing, null);
+            Map<Integer, Map<String, String>> values = dataSource
+                    .getPropertyValues(counts.values().stream().map(BatchProcessCount::representativeProcessId).toList(), propertyNames);
+            for (BatchProcessCount count : counts.values()) {
+                answer.put(count.batchId(), values.getOrDefault(count.representativeProcessId(), new HashMap<>()));
+            }
+        }
+        return answer;
+    }
+
+    /**
+     * get the values of the configured properties of the batch, null if the batch is empty and has no stored values
+     */
+    private Map<String, String> getBatchPropertyValues(int batchId) {
+        return getBatchPropertyValues(List.of(batchId)).get(batchId);
+    }
+
+    private Map<String, String> getPropertyValues(Process process) {
+        Map<String, String> answer = new HashMap<>();
+        for (GoobiProperty property : process.getEigenschaften()) {
+            if (configuration.isPropertyConfigured(property.getTitel()) && StringUtils.isNotBlank(property.getWert())) {
+                answer.putIfAbsent(property.getTitel(), property.getWert());
+            }
+        }
+        return answer;
+    }
+
+    /**
+     * the criteria that limit the batches of an automatic assignment to the project of the process, as the user interface only offers the
+     * batches of the projects of the user
+     */
+    static String getProjectCriteria(Process process) {
+        return getProjectCriteria(process.getProjekt() == null ? null : process.getProjekt().getId());
+    }
+
+    /**
+     * the criteria that limit the listed batches to batches with processes of the project
+     *
+     * @param projectId id of the project, can be null
+     * @return the criteria or an empty string without project
+     */
+    static String getProjectCriteria(Integer projectId) {
+        return projectId == null ? "" : "prozesse.ProjekteID = " + projectId;
+    }
+
+    private static Map<String, String> withoutBlankValues(Map<String, String> values) {
+        Map<String, String> answer = new HashMap<>(values);
+        answer.values().removeIf(StringUtils::isBlank);
+        return answer;
+    }
+
+    private static JournalEntry createJournalEntry(int processId, Integer batchId, String userName) {
+        return new JournalEntry(processId, new Date(), userName, LogType.DEBUG, "added process to batch " + batchId, EntryType.PROCESS);
+    }
+
+    /**
+     * journal entries belong to a process, the summary of an operation on several processes is added to the first one
+     */
+    private static JournalEntry createSummaryEntry(int processId, String userName, String message) {
+        return new JournalEntry(processId, new Date(), userName, LogType.DEBUG, message, EntryType.PROCESS);
+    }
+
+    /**
+     * Result of the assignment of several processes
+     *
+     * @param batchId id of the batch, null if a new batch was deleted again because no process could be assigned
+     * @param assigned ids of the processes that were assigned
+     * @param rejected ids of the processes that could not be assigned together with the reason
+     * @param notFound ids of the processes that don't exist
+     */
+    public record AssignmentResult(Integer batchId, List<Integer> assigned, Map<Integer, Reason> rejected, List<Integer> notFound) {
+    }
+
+    private record SplitResult(int newBatchId, int moved) {
+    }
+}
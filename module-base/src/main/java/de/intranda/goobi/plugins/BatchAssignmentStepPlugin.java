@@ -1,10 +1,12 @@
 package de.intranda.goobi.plugins;
 
 import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
@@ -25,29 +27,20 @@ import java.util.*;
  *
  */
 
-import java.util.stream.Collectors;
-
-import io.goobi.workflow.api.vocabulary.VocabularyAPIManager;
-import io.goobi.workflow.api.vocabulary.helper.ExtendedVocabularyRecord;
 import jakarta.faces.context.FacesContext;
 import jakarta.servlet.ServletContext;
 import jakarta.servlet.ServletOutputStream;
 import jakarta.servlet.http.HttpServletResponse;
 
-import org.apache.commons.configuration.HierarchicalConfiguration;
-import org.apache.commons.configuration.SubnodeConfiguration;
+import org.apache.commons.lang3.StringUtils;
 import org.goobi.beans.Batch;
 import org.goobi.beans.GoobiProperty;
 import org.goobi.beans.Institution;
-import org.goobi.beans.JournalEntry;
-import org.goobi.beans.JournalEntry.EntryType;
-import org.goobi.beans.Process;
 import org.goobi.beans.Processproperty;
 import org.goobi.beans.Step;
 import org.goobi.beans.User;
 import org.goobi.managedbeans.LoginBean;
 import org.goobi.managedbeans.StepBean;
-import org.goobi.production.enums.LogType;
 import org.goobi.production.enums.PluginGuiType;
 import org.goobi.production.enums.PluginReturnValue;
 import org.goobi.production.enums.PluginType;
@@ -57,16 +50,11 @@ import org.goobi.production.plugin.interfaces.IStepPluginVersion2;
 import org.goobi.production.properties.DisplayProperty;
 import org.goobi.production.properties.PropertyParser;
 
-import de.sub.goobi.config.ConfigPlugins;
-import de.sub.goobi.config.ConfigurationHelper;
+import de.intranda.goobi.plugins.BatchAssignmentManager.BatchProcessCount;
+import de.intranda.goobi.plugins.BatchAssignmentManager.BatchProgress;
 import de.sub.goobi.forms.NavigationForm;
-import de.sub.goobi.helper.CloseStepHelper;
 import de.sub.goobi.helper.FacesContextHelper;
 import de.sub.goobi.helper.Helper;
-import de.sub.goobi.persistence.managers.JournalManager;
-import de.sub.goobi.persistence.managers.ProcessManager;
-import de.sub.goobi.persistence.managers.PropertyManager;
-import io.goobi.workflow.xslt.XsltToPdf;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.log4j.Log4j2;
@@ -78,13 +66,12 @@ import org.goobi.production.properties.Type;
 public class BatchAssignmentStepPlugin implements IStepPluginVersion2 {
 
     private static final long serialVersionUID = -1178690277971117431L;
+    static final String TITLE = "intranda_step_batch_assignment";
     @Getter
-    private String title = "intranda_step_batch_assignment";
+    private String title = TITLE;
     @Getter
     private Step step;
     private String returnPath;
-    @Getter
-    private List<MiniBatch> batches;
 
     @Getter
     @Setter
@@ -94,195 +81,570 @@ public class BatchAssignmentStepPlugin implements IStepPluginVersion2 {
     @Setter
     private String batchNewTitle;
     private String batchWaitStep;
-    private List<PropertyDefinition> propertyDefinitions;
+    private boolean automaticAssignment;
+    // the parsed configuration is not part of the serialized session, it is read again after the session was restored
+    private transient BatchAssignmentConfiguration configuration;
+
+    @Getter
+    @Setter
+    private String batchSearch;
+    private int batchPageSize;
+    @Getter
+    private volatile List<DisplayProperty> properties;
+
+    // show only the batches that share at least one property value with the current process
     @Getter
-    private List<DisplayProperty> properties;
+    @Setter
+    private boolean matchingBatchesOnly;
+    // the current page of available batches, it is built completely before it is published
+    private volatile BatchListState batchList = BatchListState.EMPTY;
+
+    // restrictions of the current user
+    private String processCriteria;
+    private Institution institution;
+    private String visibilityKey;
+
+    // state of the data that is loaded in the background
+    @Getter
+    private volatile boolean loading;
+    @Getter
+    private volatile boolean loadingFailed;
+
+    // state of the docket of the current batch, it is updated by the actions and the poll instead of each rendering
+    private volatile BatchDocketCache.DocketState docketState = BatchDocketCache.DocketState.NONE;
+
+    // access to the batches and processes
+    private BatchDataSource dataSource = GoobiBatchDataSource.INSTANCE;
+    // cache of the vocabulary filter, null to use the shared cache
+    private transient VocabularyFilterCache vocabularyCache;
+    // assignment, creation and locking of batches
+    private transient BatchAssignmentService service;
 
     @Override
     public void initialize(Step step, String returnPath) {
-        this.returnPath = returnPath;
-        this.step = step;
+        long start = System.nanoTime();
+        try {
+            this.returnPath = returnPath;
+            this.step = step;
+
+
+            // read parameters from correct block in configuration file, the file is only parsed again after it was changed
+            configuration = BatchAssignmentConfiguration.get(title, step);
+            batchWaitStep = configuration.getBatchWaitStep();
+            batchPageSize = configuration.getBatchPageSize();
+            automaticAssignment = configuration.isAutomaticAssignment();
+            // the background threads are stopped together with the application
+            BatchAssignmentLifecycle.register();
+            // the scheduler and the cleanup read the configuration again with each run
+            String pluginTitle = title;
+            String configurationKey = BatchAssignmentConfiguration.getKey(pluginTitle, step);
+            BatchLockScheduler.getInstance()
+                    .register(configurationKey, step.getProzess().getProjekt().getId(), () -> BatchAssignmentConfiguration.get(pluginTitle, step));
+            EmptyBatchCleanup.getInstance().register(configurationKey, () -> BatchAssignmentConfiguration.get(pluginTitle, step));
+            properties = new ArrayList<>();
+            batchList = BatchListState.EMPTY;
+
+            // the restrictions of the current user can only be read within the request
+            readUserRestrictions();
+            service = new BatchAssignmentService(configuration, dataSource, visibilityKey);
+
+            if (automaticAssignment) {
+                // nothing to show, the assignment happens in run()
+                log.debug("automatic batch assignment for process {}", step.getProzess().getId());
+            } else if (loadPropertiesOfProcess()) {
+                if (FacesContextHelper.getCurrentFacesContext() == null) {
+                    // no user interface to update later, load the batches right now
+                    loadBatches(properties, batchSearch, matchingBatchesOnly);
+                } else {
+                    // render the page immediately, the user interface polls until the batches are available
+                    loading = true;
+                    // the background thread only works with a copy of the request state
+                    List<DisplayProperty> currentProperties = properties;
+                    String search = batchSearch;
+                    boolean matchingOnly = matchingBatchesOnly;
+                    BackgroundExecutor.submit(() -> loadBatches(currentProperties, search, matchingOnly));
+                }
+            }
 
+            log.info("BatchAssignment step plugin initialized");
+        } finally {
+            BatchAssignmentMetrics.getInstance().recordTime(BatchAssignmentMetrics.INITIALIZE, start);
+        }
+    }
 
-        // read parameters from correct block in configuration file
-        SubnodeConfiguration myconfig = ConfigPlugins.getProjectAndStepConfig(title, step);
-        batchWaitStep = myconfig.getString("batchWaitStep");
-        properties = new ArrayList<>();
-        propertyDefinitions = loadPropertyDefinitions(myconfig);
+    /**
+     * load the properties of the current process within the request, the property parser and the vocabularies need the faces context
+     *
+     * @return true if the properties were loaded
+     */
+    private boolean loadPropertiesOfProcess() {
+        loadingFailed = false;
+        try {
+            properties = loadProperties();
+            return true;
+        } catch (RuntimeException e) {
+            log.error("Unable to load the properties for the batch assignment", e);
+            loadingFailed = true;
+            return false;
+        }
+    }
 
-        // first load the property configuration
-        List<DisplayProperty> plist = PropertyParser.getInstance().getPropertiesForProcess(step.getProzess());
+    /**
+     * load the list of available batches, the list is published at the end
+     *
+     * @param currentProperties the properties of the current process
+     * @param search the search term of the user
+     * @param matchingOnly true to list only the batches that share a property value with the current process
+     */
+    private void loadBatches(List<DisplayProperty> currentProperties, String search, boolean matchingOnly) {
+        try {
+            batchList = createBatchList(currentProperties, search, 0, matchingOnly);
+            updateDocketState();
+        } catch (RuntimeException e) {
+            log.error("Unable to load the data for the batch assignment", e);
+            loadingFailed = true;
+        } finally {
+            loading = false;
+        }
+    }
+
+    /**
+     * load the configured properties of the current process and limit the possible values of vocabulary properties
+     */
+    private List<DisplayProperty> loadProperties() {
+        return filterProperties(PropertyParser.getInstance().getPropertiesForProcess(step.getProzess()));
+    }
+
+    /**
+     * keep only the configured properties and limit the possible values of vocabulary properties
+     *
+     * @param plist all properties of the process
+     * @return the configured properties
+     */
+    List<DisplayProperty> filterProperties(List<DisplayProperty> plist) {
+        List<DisplayProperty> answer = new ArrayList<>();
         for (DisplayProperty pt : plist) {
-            Optional<PropertyDefinition> propertyDefinition = propertyDefinitions.stream()
-                    .filter(pd -> pd.getName().equals(pt.getName()))
-                    .findFirst();
+            PropertyDefinition propertyDefinition = getConfiguration().getPropertyDefinition(pt.getName());
 
             // skip if this property is not configured
-            if (propertyDefinition.isEmpty()) {
+            if (propertyDefinition == null) {
                 continue;
             }
 
-            Optional<String> vocabularyFilterField = Optional.ofNullable(propertyDefinition.get().getVocabularyFilterField());
-            Optional<String> vocabularyFilterValue = Optional.ofNullable(propertyDefinition.get().getVocabularyFilterValue());
+            Optional<String> vocabularyFilterField = Optional.ofNullable(propertyDefinition.getVocabularyFilterField());
+            Optional<String> vocabularyFilterValue = Optional.ofNullable(propertyDefinition.getVocabularyFilterValue());
 
             // vocabulary filter
             if (vocabularyFilterField.isPresent() && vocabularyFilterValue.isPresent()) {
                 if (Type.VOCABULARYREFERENCE.equals(pt.getType()) || Type.VOCABULARYMULTIREFERENCE.equals(pt.getType())) {
+                    // load all referenced records at once, the filter below is answered from the cache afterwards
+                    getVocabularyCache()
+                            .prefetch(pt.getPossibleValues().stream().map(s -> (String) s.getValue()).toList(), vocabularyFilterField.get());
                     pt.getPossibleValues().removeIf(s -> !doesMatchVocabularyFilter((String) s.getValue(), vocabularyFilterField.get(), vocabularyFilterValue.get()));
                 } else {
                     log.warn("Vocabulary filter defined for non-vocabularyreference property: {}", pt.getName());
                 }
             }
 
-            properties.add(pt);
+            answer.add(pt);
         }
+        return answer;
+    }
 
-        // get a list of all open batches
-        collectAvailableBatches();
-
-        log.info("BatchAssignment step plugin initialized");
+    /**
+     * read the restrictions of the current user that limit the list of visible batches
+     */
+    private void readUserRestrictions() {
+        User user = Helper.getCurrentUser();
+        // without a user, e.g. within an automatic step, all processes are visible
+        processCriteria = user == null ? "" : FilterHelper.criteriaBuilder("", false, null, null, null, true, false);
+        institution = user != null && !user.isSuperAdmin() ? user.getInstitution() : null;
+        visibilityKey = processCriteria + "|" + (institution == null ? "" : institution.getId());
     }
 
     private boolean doesMatchVocabularyFilter(String recordId, String fieldName, String expectedValue) {
+        return getVocabularyCache().matches(recordId, fieldName, expectedValue);
+    }
+
+    private VocabularyFilterCache getVocabularyCache() {
+        return vocabularyCache == null ? VocabularyFilterCache.getInstance() : vocabularyCache;
+    }
+
+    private BatchAssignmentService getService() {
+        // the service is not part of the serialized session
+        if (service == null) {
+            service = new BatchAssignmentService(getConfiguration(), dataSource, visibilityKey);
+        }
+        return service;
+    }
+
+    private BatchAssignmentConfiguration getConfiguration() {
+        if (configuration == null) {
+            configuration = BatchAssignmentConfiguration.get(title, step);
+        }
+        return configuration;
+    }
+
+    /**
+     * prepare the plugin without a configuration file, a user session or the database, e.g. for benchmarks
+     *
+     * @param step the current step
+     * @param batchWaitStep title of the wait step
+     * @param batchPageSize number of batches per page
+     * @param propertyDefinitions the configured properties
+     * @param dataSource access to the batches and processes
+     * @param vocabularyCache cache for the vocabulary filter
+     */
+    void configure(Step step, String batchWaitStep, int batchPageSize, List<PropertyDefinition> propertyDefinitions, BatchDataSource dataSource,
+            VocabularyFilterCache vocabularyCache) {
+        this.step = step;
+        this.batchWaitStep = batchWaitStep;
+        this.batchPageSize = batchPageSize;
+        this.configuration = new BatchAssignmentConfiguration(batchWaitStep, batchPageSize, false, false, 0, 0, 0, propertyDefinitions);
+        this.dataSource = dataSource;
+        this.vocabularyCache = vocabularyCache;
+        processCriteria = "";
+        institution = null;
+        visibilityKey = OpenBatchRegistry.UNRESTRICTED;
+        this.service = new BatchAssignmentService(configuration, dataSource, visibilityKey);
+        properties = new ArrayList<>();
+        batchList = BatchListState.EMPTY;
+    }
+
+    /**
+     * set the properties of the current process, e.g. for benchmarks
+     */
+    void setProperties(List<DisplayProperty> properties) {
+        this.properties = properties;
+    }
+
+    /**
+     * request all Batches which are currently available for the assignment, the current page is kept
+     */
+    void collectAvailableBatches() {
+        showBatchPage(batchList.page());
+    }
+
+    /**
+     * load the given page of available batches and publish it
+     *
+     * @param page number of the page, starting with 0
+     */
+    private void showBatchPage(int page) {
+        batchList = createBatchList(properties, batchSearch, page, matchingBatchesOnly);
+    }
+
+    /**
+     * create a page of the batches which are currently available for the assignment, no field is changed until the result is published
+     *
+     * @param currentProperties the properties of the current process
+     * @param search the search term of the user
+     * @param requestedPage number of the page, starting with 0
+     * @param matchingOnly true to list only the batches that share a property value with the current process
+     * @return the loaded page
+     */
+    private BatchListState createBatchList(List<DisplayProperty> currentProperties, String search, int requestedPage, boolean matchingOnly) {
+        long start = System.nanoTime();
         try {
-            ExtendedVocabularyRecord rec = VocabularyAPIManager.getInstance().vocabularyRecords().get(Long.parseLong(recordId));
-            Optional<String> value = rec.getFieldValueForDefinitionName(fieldName);
-            if (value.isEmpty()) {
-                log.warn("Vocabulary record doesn't contain filter field: {}", fieldName);
-                return false;
+            List<String> propertyNames = getConfiguration().getPropertyNames();
+            OpenBatchRegistry registry = OpenBatchRegistry.getInstance();
+
+            List<Integer> pageIds;
+            Map<Integer, Integer> scores;
+            int numberOfBatches;
+            int page;
+            if (StringUtils.isBlank(search)) {
+                // the complete list of waiting and empty batches is shared by all users with the same restrictions
+                List<Integer> allIds = registry.getBatchIds(batchWaitStep, visibilityKey,
+                        () -> dataSource.getAvailableBatchIds(batchWaitStep, processCriteria, null, propertyNames, 0, Integer.MAX_VALUE));
+                // the batches that match the current process best are shown first
+                scores = BatchPropertyIndex.getInstance()
+                        .score(batchWaitStep, allIds, getPropertyValues(currentProperties), this::loadBatchPropertyValues);
+                allIds = BatchPropertyIndex.sortByScore(allIds, scores, matchingOnly);
+                numberOfBatches = allIds.size();
+                page = adjustBatchPage(requestedPage, numberOfBatches);
+                pageIds = allIds.subList(page * batchPageSize, Math.min(numberOfBatches, (page + 1) * batchPageSize));
+            } else {
+                // search results are not cached and keep their order, count them and load only the batches of the current page
+                scores = Map.of();
+                numberOfBatches = dataSource.countAvailableBatches(batchWaitStep, processCriteria, search, propertyNames);
+                page = adjustBatchPage(requestedPage, numberOfBatches);
+                pageIds = dataSource.getAvailableBatchIds(batchWaitStep, processCriteria, search, propertyNames, page * batchPageSize,
+                        batchPageSize);
             }
-            return value.get().equals(expectedValue);
-        } catch (NumberFormatException e) {
-            log.error("Unable to parse vocabulary recordId: {}", recordId);
-            return false;
+
+            AtomicInteger loadedProcesses = new AtomicInteger();
+            List<MiniBatch> batches = registry.getSummaries(batchWaitStep, visibilityKey, pageIds,
+                    ids -> createMiniBatches(ids, currentProperties, loadedProcesses));
+            BatchAssignmentMetrics.getInstance().recordSize(BatchAssignmentMetrics.LISTED_BATCHES, batches.size());
+            BatchAssignmentMetrics.getInstance().recordSize(BatchAssignmentMetrics.LOADED_PROCESSES, loadedProcesses.get());
+            return new BatchListState(batches, numberOfBatches, page, scores, loadCurrentBatchProgress());
+        } finally {
+            BatchAssignmentMetrics.getInstance().recordTime(BatchAssignmentMetrics.COLLECT_BATCHES, start);
         }
     }
 
-    private List<PropertyDefinition> loadPropertyDefinitions(SubnodeConfiguration myconfig) {
-        return myconfig.configurationsAt("property")
-                .stream()
-                .map(this::parsePropertyDefinition)
-                .toList();
+    /**
+     * get the listed batches of the current page
+     */
+    public List<MiniBatch> getBatches() {
+        return batchList.batches();
     }
 
-    private PropertyDefinition parsePropertyDefinition(HierarchicalConfiguration rawProperty) {
-        String name = rawProperty.getString(".");
-        String filterField = rawProperty.getString("@vocabularyPropertyFilterField", null);
-        String filterValue = rawProperty.getString("@vocabularyPropertyFilterValue", null);
-        PropertyDefinition result = new PropertyDefinition();
-        result.setName(name);
-        result.setVocabularyFilterField(filterField);
-        result.setVocabularyFilterValue(filterValue);
-        return result;
+    /**
+     * get the number of all available batches
+     */
+    public int getNumberOfBatches() {
+        return batchList.numberOfBatches();
     }
 
     /**
-     * request all Batches which are currently available for the assignment
+     * load the progress of the batch of the current process, all processes are counted to decide if the batch can be locked
      */
-    private void collectAvailableBatches() {
-        // first get the list of all batches that are waiting in the defined step
-    	List<Batch> allBatches = ProcessManager
-                .getBatchesWithFilter(FilterHelper.criteriaBuilder("\"-stepdone:" + batchWaitStep + "\"", false, null, null, null, true, false), 0,
-                        20, null);
-        
-        // then add all batches to the list, that are currently empty
-        try {
-            allBatches.addAll(ProcessManager.getEmptyBatches());
-        } catch (SQLException e) {
-            log.warn("Unable to retrieve empty batches", e);
+    private BatchProgress loadCurrentBatchProgress() {
+        Batch b = step.getProzess().getBatch();
+        if (b == null) {
+            return null;
         }
+        return dataSource.getBatchProgress(List.of(b.getBatchId()), batchWaitStep, null).get(b.getBatchId());
+    }
 
-        // create minibatches for user interface
-        batches = new ArrayList<>();
-        for (Batch b : allBatches) {
-            MiniBatch mb = new MiniBatch();
-            mb.setBatchId(b.getBatchId());
-            mb.setBatchName(b.getBatchName());
-            mb.setProperties(new ArrayList<>());
-
-            // request the currently assigned processes
-            List<Process> processes = getProcessesOfBatch(b.getBatchId());
-            mb.setNumberOfProcesses(processes.size());
-
-            // get desired properties of the first process in existing batch
-            if (!processes.isEmpty()) {
-                Process p = processes.get(0);
-                List<DisplayProperty> plist = PropertyParser.getInstance().getPropertiesForProcess(p);
-                for (DisplayProperty prop : plist) {
-                    if (propertyDefinitions.stream().anyMatch(d -> d.getName().equals(prop.getName()))) {
-                        mb.getProperties().add(prop);
-                    }
-                }
+    /**
+     * get the number of processes of the current batch that reached the wait step
+     */
+    public int getCurrentBatchProcessesAtWaitStep() {
+        BatchProgress p = batchList.currentBatchProgress();
+        return p == null ? 0 : p.processesAtWaitStep();
+    }
 
+    /**
+     * get the number of other processes of the current batch that did not reach the wait step yet, the current process is still in the assignment
+     * step and is not counted
+     */
+    public int getCurrentBatchProcessesUpstream() {
+        BatchProgress p = batchList.currentBatchProgress();
+        return p == null ? 0 : Math.max(0, p.processesUpstream() - 1);
+    }
+
+    /**
+     * check if all other processes of the current batch reached the wait step, a batch that is locked earlier misses the late processes
+     *
+     * @return true if the batch can be locked without waiting for other processes
+     */
+    public boolean isLockSafe() {
+        return getCurrentBatchProcessesUpstream() == 0;
+    }
+
+    /**
+     * get the values of the configured properties of the current process
+     */
+    private static Map<String, String> getPropertyValues(List<DisplayProperty> currentProperties) {
+        Map<String, String> answer = new HashMap<>();
+        for (DisplayProperty pp : currentProperties) {
+            if (StringUtils.isNotBlank(pp.getValue())) {
+                answer.put(pp.getName(), pp.getValue());
             }
-            batches.add(mb);
         }
+        return answer;
     }
 
     /**
-     * get a list of all processes of a given batch
+     * load the values of the configured properties that are stored with the given batches
      *
-     * @param id
-     * @return
+     * @param batchIds ids of the batches
+     * @return map with the batch id as key, empty batches are missing
      */
-    private List<Process> getProcessesOfBatch(int id) {
-        StringBuilder filter = new StringBuilder().append(FilterHelper.criteriaBuilder("", false, null, null, null, true, false));
-        filter.append(" AND istTemplate = false AND batchID = ").append(id);
-        Institution inst = null;
-        User user = Helper.getCurrentUser();
-        if (user != null && !user.isSuperAdmin()) {
-            inst = user.getInstitution();
+    private Map<Integer, Map<String, String>> loadBatchPropertyValues(List<Integer> batchIds) {
+        return getService().getBatchPropertyValues(batchIds);
+    }
+
+    /**
+     * get the number of property values the batch shares with the current process
+     *
+     * @param mb the listed batch
+     * @return the number of matching values
+     */
+    public int getMatchScore(MiniBatch mb) {
+        return batchList.scores().getOrDefault(mb.getBatchId(), 0);
+    }
+
+    private int adjustBatchPage(int page, int numberOfBatches) {
+        if (page > 0 && page * batchPageSize >= numberOfBatches) {
+            return Math.max(0, (numberOfBatches - 1) / batchPageSize);
         }
-        return ProcessManager.getProcesses("prozesse.titel", filter.toString(), 0, ConfigurationHelper.getInstance().getBatchMaxSize(), inst);
+        return page;
     }
 
     /**
-     * assign a selected batch
+     * create the summaries of the given batches for the user interface
+     *
+     * @param batchIds ids of the batches
+     * @param currentProperties the properties of the current process
+     * @param loadedProcesses counter for the processes that were loaded
+     * @return map with the batch id as key
      */
-    public void assignToExistingBatch() {
-        Process p = step.getProzess();
-
-        // copy properies from first process in batch
-        List<Process> processes = getProcessesOfBatch(batch.getBatchId());
-        if (!processes.isEmpty()) {
-            Process firstProcess = processes.get(0);
-
-            for (GoobiProperty prop : firstProcess.getEigenschaften()) {
-                if (propertyDefinitions.stream().anyMatch(d -> d.getName().equals(prop.getTitel()))) {
-
-                    // try to set the existing property to the same value
-                    boolean found = false;
-                    for (GoobiProperty myprop : p.getEigenschaften()) {
-                        if (myprop.getTitel().equals(prop.getTitel())) {
-                            found = true;
-                            myprop.setWert(prop.getWert());
-                            PropertyManager.saveProperty(myprop);
-                            break;
-                        }
-                    }
+    private Map<Integer, MiniBatch> createMiniBatches(List<Integer> batchIds, List<DisplayProperty> currentProperties,
+            AtomicInteger loadedProcesses) {
+        Map<Integer, String> names = dataSource.getBatchNames(batchIds);
+
+        // count the processes of all batches at once
+        Map<Integer, BatchProcessCount> counts = dataSource.getProcessCounts(batchIds, institution);
+        // and their state at the wait step in a single grouped query
+        Map<Integer, BatchProgress> progress = dataSource.getBatchProgress(batchIds, batchWaitStep, institution);
+        // the property values stored with the batches, the type of each property is taken from the current process
+        Map<Integer, Map<String, String>> storedValues = dataSource.getBatchPropertyValues(batchIds, getConfiguration().getPropertyNames());
+        // batches created before the values were stored show the values of their representative process, they are read without the property
+        // parser, so the summaries can be created outside of the request
+        List<Integer> representatives = batchIds.stream()
+                .filter(id -> !storedValues.containsKey(id) && counts.containsKey(id))
+                .map(id -> counts.get(id).representativeProcessId())
+                .toList();
+        Map<Integer, Map<String, String>> processValues = Map.of();
+        if (!representatives.isEmpty()) {
+            long start = System.nanoTime();
+            processValues = dataSource.getPropertyValues(representatives, getConfiguration().getPropertyNames());
+            BatchAssignmentMetrics.getInstance().recordTime(BatchAssignmentMetrics.LOAD_PROCESS, start);
+            loadedProcesses.addAndGet(representatives.size());
+        }
+        Map<Integer, Map<String, String>> batchValues = new HashMap<>(storedValues);
+        for (Integer id : batchIds) {
+            BatchProcessCount count = counts.get(id);
+            if (!batchValues.containsKey(id) && count != null) {
+                batchValues.put(id, processValues.getOrDefault(count.representativeProcessId(), Map.of()));
+            }
+        }
+        Map<String, DisplayProperty> templates = new HashMap<>();
+        currentProperties.forEach(pp -> templates.putIfAbsent(pp.getName(), pp));
+        // the labels of the vocabulary records are loaded at once, independent of the possible values of the current process
+        Set<String> recordIds = new HashSet<>();
+        for (Map<String, String> values : batchValues.values()) {
+            values.forEach((name, value) -> {
+                if (templates.containsKey(name) && BatchPropertySummary.isVocabulary(templates.get(name).getType())) {
+                    recordIds.addAll(BatchPropertySummary.getSelectedValues(value));
+                }
+            });
+        }
+        if (!recordIds.isEmpty()) {
+            getVocabularyCache().prefetchLabels(recordIds);
+        }
 
-                    // if property could not be found add it here
-                    if (!found) {
-                        Processproperty newProp = new Processproperty();
-                        newProp.setTitel(prop.getTitel());
-                        newProp.setWert(prop.getWert());
-                        newProp.setProzess(p);
-                        PropertyManager.saveProcessProperty(newProp);
+        Map<Integer, MiniBatch> answer = new HashMap<>();
+        for (Integer id : batchIds) {
+            BatchProcessCount count = counts.get(id);
+            BatchProgress p = progress.get(id);
+            List<BatchPropertySummary> summaries = List.of();
+            Map<String, String> values = batchValues.get(id);
+            if (values != null) {
+                summaries = new ArrayList<>();
+                for (String name : getConfiguration().getPropertyNames()) {
+                    if (values.containsKey(name)) {
+                        summaries.add(BatchPropertySummary.of(name, values.get(name), templates.get(name), getVocabularyCache()));
                     }
                 }
             }
+            MiniBatch mb = new MiniBatch(id, names.get(id), count == null ? 0 : count.numberOfProcesses(), p == null ? 0 : p.processesAtWaitStep(),
+                    p == null ? 0 : p.processesUpstream(), summaries);
+            answer.put(id, mb);
+        }
+        return answer;
+    }
+
+    /**
+     * search the available batches by name, id or property value, starting with the first page
+     */
+    public void searchBatches() {
+        showBatchPage(0);
+    }
+
+    /**
+     * reset the search and show the first page of all available batches
+     */
+    public void resetBatchSearch() {
+        batchSearch = null;
+        searchBatches();
+    }
+
+    public void nextBatchPage() {
+        if (hasNextBatchPage()) {
+            showBatchPage(batchList.page() + 1);
         }
+    }
 
-        // assign to the same batch
-        Batch b = ProcessManager.getBatchById(batch.getBatchId());
-        p.setBatch(b);
-        ProcessManager.saveProcessInformation(p);
+    public void previousBatchPage() {
+        if (hasPreviousBatchPage()) {
+            showBatchPage(batchList.page() - 1);
+        }
+    }
+
+    public boolean hasNextBatchPage() {
+        BatchListState state = batchList;
+        return (state.page() + 1) * batchPageSize < state.numberOfBatches();
+    }
+
+    public boolean hasPreviousBatchPage() {
+        return batchList.page() > 0;
+    }
+
+    public int getCurrentBatchPage() {
+        return batchList.page() + 1;
+    }
 
-        // add a log entry
-        LoginBean loginForm = Helper.getLoginBean();
-        JournalEntry logEntry = new JournalEntry(step.getProzess().getId(), new Date(), loginForm.getMyBenutzer().getNachVorname(), LogType.DEBUG,
-                "added process to batch " + batch.getBatchId(), EntryType.PROCESS);
-        JournalManager.saveJournalEntry(logEntry);
+    public int getNumberOfBatchPages() {
+        return Math.max(1, (batchList.numberOfBatches() + batchPageSize - 1) / batchPageSize);
+    }
+
+    /**
+     * check if the tab to select an existing batch can be used, this is the case if batches exist or if the current search or filter has no
+     * result
+     */
+    public boolean isBatchSelectionAvailable() {
+        return batchList.numberOfBatches() > 0 || StringUtils.isNotBlank(batchSearch) || matchingBatchesOnly;
+    }
+
+    /**
+     * assign a selected batch
+     */
+    public void assignToExistingBatch() {
+        long start = System.nanoTime();
+        try {
+            LoginBean loginForm = Helper.getLoginBean();
+            assignToBatch(batch, loginForm.getMyBenutzer().getNachVorname());
+        } catch (BatchAssignmentException e) {
+            handleConcurrentChange(e);
+        } catch (SQLException e) {
+            log.error("Unable to assign process {} to batch {}", step.getProzess().getId(), batch.getBatchId(), e);
+            Helper.setFehlerMeldung("plugin_step_batch_assignment_assignmentFailed");
+        } finally {
+            BatchAssignmentMetrics.getInstance().recordTime(BatchAssignmentMetrics.ASSIGN_EXISTING, start);
+        }
+    }
+
+    /**
+     * assign the current process to the batch and copy the configured properties of the batch to the process
+     *
+     * @param target the selected batch
+     * @param userName name of the user for the journal
+     * @throws SQLException if the assignment failed
+     * @throws BatchAssignmentException if the batch is full, closed or changed by someone else right now
+     */
+    void assignToBatch(MiniBatch target, String userName) throws SQLException, BatchAssignmentException {
+        getService().assignProcess(step.getProzess(), target.getBatchId(), userName);
+        collectAvailableBatches();
+        updateDocketState();
+    }
+
+    /**
+     * inform the user that the batch was changed by someone else and show the current state of the batches
+     */
+    private void handleConcurrentChange(BatchAssignmentException e) {
+        log.info("Batch {} can't be changed: {}", e.getBatchId(), e.getReason());
+        Helper.setFehlerMeldung(e.getReason().getMessageKey());
+        if (e.getReason() == BatchAssignmentException.Reason.BATCH_CLOSED) {
+            OpenBatchRegistry.getInstance().invalidateBatchLists(batchWaitStep);
+            BatchPropertyIndex.getInstance().remove(e.getBatchId());
+        } else {
+            OpenBatchRegistry.getInstance().invalidate(List.of(e.getBatchId()));
+        }
         collectAvailableBatches();
     }
 
@@ -290,10 +652,41 @@ public class BatchAssignmentStepPlugin implements IStepPluginVersion2 {
      * create a new batch and assign the current process to it
      */
     public void assignToNewBatch() {
-        // create a new batch
-        Batch newBatch = new Batch();
-        newBatch.setBatchName(batchNewTitle);
-        step.getProzess().setBatch(newBatch);
+        long start = System.nanoTime();
+        try {
+            // create a new batch with the values of the properties
+            Batch newBatch;
+            try {
+                transferProperties();
+                LoginBean loginForm = Helper.getLoginBean();
+                newBatch = getService().createBatch(step.getProzess(), batchNewTitle, loginForm.getMyBenutzer().getNachVorname());
+            } catch (BatchAssignmentException e) {
+                handleConcurrentChange(e);
+                return;
+            } catch (SQLException e) {
+                log.error("Unable to create a new batch for process {}", step.getProzess().getId(), e);
+                Helper.setFehlerMeldung("plugin_step_batch_assignment_assignmentFailed");
+                return;
+            }
+
+            // register the new batch, its properties are the ones of the current process
+            MiniBatch mb = new MiniBatch(newBatch.getBatchId(), newBatch.getBatchName(), 1, 0, 1, BatchPropertySummary.of(properties));
+            OpenBatchRegistry.getInstance().batchCreated(batchWaitStep, visibilityKey, mb);
+            collectAvailableBatches();
+            updateDocketState();
+
+            // switch ui back to first tab
+            NavigationForm nf = Helper.getBeanByClass(NavigationForm.class);
+            nf.getUiStatus().put("batchassign", "tab1");
+        } finally {
+            BatchAssignmentMetrics.getInstance().recordTime(BatchAssignmentMetrics.ASSIGN_NEW, start);
+        }
+    }
+
+    /**
+     * copy the values of the properties into the current process
+     */
+    private void transferProperties() {
         for (DisplayProperty pp : properties) {
             if (pp.getProzesseigenschaft() == null) {
                 Processproperty pe = new Processproperty();
@@ -309,84 +702,161 @@ public class BatchAssignmentStepPlugin implements IStepPluginVersion2 {
                 }
             }
         }
-        ProcessManager.saveProcessInformation(step.getProzess());
-
-        // add a log entry
-        LoginBean loginForm = Helper.getLoginBean();
-        JournalEntry logEntry = new JournalEntry(step.getProzess().getId(), new Date(), loginForm.getMyBenutzer().getNachVorname(), LogType.DEBUG,
-                "added process to batch " + newBatch.getBatchId(), EntryType.PROCESS);
-        JournalManager.saveJournalEntry(logEntry);
-        collectAvailableBatches();
-
-        // switch ui back to first tab
-        NavigationForm nf = Helper.getBeanByClass(NavigationForm.class);
-        nf.getUiStatus().put("batchassign", "tab1");
-
     }
 
     /**
-     * lock this batcch
+     * lock this batch, the wait steps of all processes are closed in the background
      */
     public String lockBatch() {
-        LoginBean loginForm = Helper.getLoginBean();
-        // run through all processes of current batch
-        List<Process> processes = getProcessesOfBatch(step.getProzess().getBatch().getBatchId());
-        for (Process process : processes) {
-            // run through all steps of process to finish the batch-wait-step
-            for (Step other : process.getSchritteList()) {
-                if (other.getTitel().equals(batchWaitStep)) {
-                    CloseStepHelper.closeStep(other, loginForm.getMyBenutzer());
-                    break;
-                }
+        long start = System.nanoTime();
+        try {
+            LoginBean loginForm = Helper.getLoginBean();
+            Integer batchId = step.getProzess().getBatch().getBatchId();
+            try {
+                getService().lockBatch(batchId, loginForm.getMyBenutzer());
+            } catch (BatchAssignmentException e) {
+                Helper.setFehlerMeldung(e.getReason().getMessageKey());
+            } catch (SQLException e) {
+                // not thrown when a job is started
+                log.error(e);
             }
+            return "";
+        } finally {
+            BatchAssignmentMetrics.getInstance().recordTime(BatchAssignmentMetrics.LOCK_BATCH, start);
         }
+    }
+
+    /**
+     * get the job that locks the batch of the current process
+     *
+     * @return the job or null, if the batch was not locked yet
+     */
+    public BatchLockJob getLockJob() {
+        Batch b = step.getProzess().getBatch();
+        return b == null ? null : BatchLockJob.getJob(b.getBatchId());
+    }
 
+    /**
+     * finish the current step once all wait steps of the batch are closed
+     */
+    public String finishLockedBatch() {
+        BatchLockJob job = getLockJob();
+        if (job == null || !job.isSuccessful()) {
+            Helper.setFehlerMeldung("plugin_step_batch_assignment_lockBatchIncomplete");
+            return "";
+        }
         // finish current step
         StepBean sb = Helper.getBeanByClass(StepBean.class);
         return sb.SchrittDurchBenutzerAbschliessen();
     }
 
     /**
-     * generate Batch Docket
+     * generate Batch Docket, the docket is created in the background and downloaded with the next call once it is available
      */
     public void generateBatchDocket() {
-        Institution inst = null;
-        User user = Helper.getCurrentUser();
-        if (user != null && !user.isSuperAdmin()) {
-            // limit result to institution of current user
-            inst = user.getInstitution();
+        long start = System.nanoTime();
+        try {
+            int batchId = step.getProzess().getBatch().getBatchId();
+            Path docket = getService().getDocket(batchId, institution);
+            if (docket == null) {
+                if (log.isDebugEnabled()) {
+                    log.debug("generate docket for process list");
+                }
+                if (getService().generateDocket(batchId, institution)) {
+                    Helper.setMeldung("plugin_step_batch_assignment_docketInPreparation");
+                    // the poll reads the state again until the docket is available
+                    docketState = BatchDocketCache.DocketState.IN_PREPARATION;
+                } else {
+                    docketState = BatchDocketCache.DocketState.NONE;
+                }
+                return;
+            }
+
+            FacesContext facesContext = FacesContextHelper.getCurrentFacesContext();
+            if (!facesContext.getResponseComplete()) {
+                HttpServletResponse response = (HttpServletResponse) facesContext.getExternalContext().getResponse();
+                String fileName = "batch_" + batchId + ".pdf";
+                ServletContext servletContext = (ServletContext) facesContext.getExternalContext().getContext();
+                String contentType = servletContext.getMimeType(fileName);
+                response.setContentType(contentType);
+                response.setHeader("Content-Disposition", "attachment;filename=\"" + fileName + "\"");
+
+                try {
+                    ServletOutputStream out = response.getOutputStream();
+                    Files.copy(docket, out);
+                    out.flush();
+                } catch (IOException e) {
+                    log.error("IOException while exporting run note", e);
+                }
+
+                facesContext.responseComplete();
+            }
+        } finally {
+            BatchAssignmentMetrics.getInstance().recordTime(BatchAssignmentMetrics.DOCKET, start);
         }
+    }
 
-        if (log.isDebugEnabled()) {
-            log.debug("generate docket for process list");
+    /**
+     * download the list of processes of the current batch, the processes are written to the response while they are read
+     *
+     * @param format name of the format, <code>csv</code> or <code>json</code>
+     */
+    public void downloadManifest(String format) {
+        BatchManifestWriter.Format manifestFormat;
+        try {
+            manifestFormat = BatchManifestWriter.Format.valueOf(String.valueOf(format).toUpperCase());
+        } catch (IllegalArgumentException e) {
+            log.warn("Unknown manifest format {}", format);
+            Helper.setFehlerMeldung("plugin_step_batch_assignment_unknownManifestFormat");
+            return;
         }
-        String rootpath = ConfigurationHelper.getInstance().getXsltFolder();
-        Path xsltfile = Paths.get(rootpath, "docket_multipage.xsl");
-        FacesContext facesContext = FacesContextHelper.getCurrentFacesContext();
-        List<Process> docket = ProcessManager.getProcesses(null, " istTemplate = false AND batchID = " + step.getProzess().getBatch().getBatchId(), 0,
-                ConfigurationHelper.getInstance().getBatchMaxSize(), inst);
-
-        if (!docket.isEmpty() && !facesContext.getResponseComplete()) {
-            HttpServletResponse response = (HttpServletResponse) facesContext.getExternalContext().getResponse();
-            String fileName = "batch_" + step.getProzess().getBatch().getBatchId() + ".pdf";
-            ServletContext servletContext = (ServletContext) facesContext.getExternalContext().getContext();
-            String contentType = servletContext.getMimeType(fileName);
-            response.setContentType(contentType);
-            response.setHeader("Content-Disposition", "attachment;filename=\"" + fileName + "\"");
+        long start = System.nanoTime();
+        try {
+            int batchId = step.getProzess().getBatch().getBatchId();
+            FacesContext facesContext = FacesContextHelper.getCurrentFacesContext();
+            if (!facesContext.getResponseComplete()) {
+                HttpServletResponse response = (HttpServletResponse) facesContext.getExternalContext().getResponse();
+                String fileName = "batch_" + batchId + "." + manifestFormat.getFileExtension();
+                response.setContentType(manifestFormat.getContentType() + ";charset=UTF-8");
+                response.setHeader("Content-Disposition", "attachment;filename=\"" + fileName + "\"");
+
+                try {
+                    ServletOutputStream out = response.getOutputStream();
+                    getService().writeManifest(batchId, institution, manifestFormat, out);
+                    out.flush();
+                } catch (IOException | SQLException e) {
+                    log.error("Unable to export the manifest of batch {}", batchId, e);
+                }
 
-            try {
-                ServletOutputStream out = response.getOutputStream();
-                XsltToPdf ern = new XsltToPdf();
-                ern.startExport(docket, out, xsltfile.toString());
-                out.flush();
-            } catch (IOException e) {
-                log.error("IOException while exporting run note", e);
+                facesContext.responseComplete();
             }
-
-            facesContext.responseComplete();
+        } finally {
+            BatchAssignmentMetrics.getInstance().recordTime(BatchAssignmentMetrics.EXPORT_MANIFEST, start);
         }
     }
 
+    /**
+     * read the state of the docket of the current batch, called by the actions that change it and by the poll while the docket is generated
+     */
+    public void updateDocketState() {
+        Batch b = step.getProzess().getBatch();
+        docketState = b == null ? BatchDocketCache.DocketState.NONE : getService().getDocketState(b.getBatchId(), institution);
+    }
+
+    /**
+     * check if the docket of the current batch is generated in the background
+     */
+    public boolean isDocketInPreparation() {
+        return docketState == BatchDocketCache.DocketState.IN_PREPARATION;
+    }
+
+    /**
+     * check if the docket of the current batch is ready for the download
+     */
+    public boolean isDocketAvailable() {
+        return docketState == BatchDocketCache.DocketState.AVAILABLE;
+    }
+
     @Override
     public PluginGuiType getPluginGuiType() {
         return PluginGuiType.PART;
@@ -430,12 +900,28 @@ public class BatchAssignmentStepPlugin implements IStepPluginVersion2 {
 
     @Override
     public PluginReturnValue run() {
-        boolean successful = true;
-        // your logic goes here
-        log.info("BatchAssignment step plugin executed");
-        if (!successful) {
+        if (!automaticAssignment) {
+            log.info("BatchAssignment step plugin executed");
+            return PluginReturnValue.FINISH;
+        }
+        try {
+            Integer batchId = getService().assignAutomatically(step.getProzess());
+            log.info("BatchAssignment step plugin assigned process {} to batch {}", step.getProzess().getId(), batchId);
+            return PluginReturnValue.FINISH;
+        } catch (SQLException | BatchAssignmentException e) {
+            log.error("Unable to assign process {} to a batch", step.getProzess().getId(), e);
             return PluginReturnValue.ERROR;
         }
-        return PluginReturnValue.FINISH;
+    }
+
+    /**
+     * immutable page of available batches, published as a whole
+     */
+    private record BatchListState(List<MiniBatch> batches, int numberOfBatches, int page, Map<Integer, Integer> scores,
+            BatchProgress currentBatchProgress) implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final BatchListState EMPTY = new BatchListState(List.of(), 0, 0, Map.of(), null);
     }
 }
@@ -0,0 +1,184 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.goobi.beans.Batch;
+import org.goobi.beans.Institution;
+import org.goobi.beans.JournalEntry;
+import org.goobi.beans.User;
+import org.goobi.production.properties.DisplayProperty;
+
+import de.intranda.goobi.plugins.BatchAssignmentManager.BatchProcessCount;
+import de.intranda.goobi.plugins.BatchAssignmentManager.BatchProgress;
+import de.intranda.goobi.plugins.BatchAssignmentManager.ManifestRow;
+import de.intranda.goobi.plugins.BatchAssignmentManager.WaitStep;
+
+/**
+ * Data access of the batch assignment. The plugin reads and writes batches only through this interface, so the logic can be measured and tested
+ * with an in-memory implementation instead of the database of Goobi workflow.
+ */
+public interface BatchDataSource {
+
+    /**
+     * @see BatchAssignmentManager#getAvailableBatchIds(String, String, String, Collection, int, int)
+     */
+    List<Integer> getAvailableBatchIds(String batchWaitStep, String processCriteria, String search, Collection<String> propertyNames, int start,
+            int count);
+
+    /**
+     * @see BatchAssignmentManager#countAvailableBatches(String, String, String, Collection)
+     */
+    int countAvailableBatches(String batchWaitStep, String processCriteria, String search, Collection<String> propertyNames);
+
+    /**
+     * @see BatchAssignmentManager#getBatchNames(Collection)
+     */
+    Map<Integer, String> getBatchNames(Collection<Integer> batchIds);
+
+    /**
+     * @see BatchAssignmentManager#getProcessCounts(Collection, Institution)
+     */
+    Map<Integer, BatchProcessCount> getProcessCounts(Collection<Integer> batchIds, Institution institution);
+
+    /**
+     * @see BatchAssignmentManager#getBatchStartDates(Collection)
+     */
+    Map<Integer, Date> getBatchStartDates(Collection<Integer> batchIds);
+
+    /**
+     * @see BatchAssignmentManager#getBatchProgress(Collection, String, Institution)
+     */
+    Map<Integer, BatchProgress> getBatchProgress(Collection<Integer> batchIds, String batchWaitStep, Institution institution);
+
+    /**
+     * @see BatchAssignmentManager#getPropertyValues(int, Collection)
+     */
+    Map<String, String> getPropertyValues(int processId, Collection<String> propertyNames);
+
+    /**
+     * @see BatchAssignmentManager#getPropertyValues(Collection, Collection)
+     */
+    Map<Integer, Map<String, String>> getPropertyValues(Collection<Integer> processIds, Collection<String> propertyNames);
+
+    /**
+     * @see BatchAssignmentManager#getBatchPropertyValues(Collection, Collection)
+     */
+    Map<Integer, Map<String, String>> getBatchPropertyValues(Collection<Integer> batchIds, Collection<String> propertyNames);
+
+    /**
+     * @see BatchAssignmentManager#saveBatchPropertyValues(int, Map)
+     */
+    void saveBatchPropertyValues(int batchId, Map<String, String> propertyValues) throws SQLException;
+
+    /**
+     * @see BatchAssignmentManager#getBatchIdsOfProcesses(Collection)
+     */
+    Map<Integer, Integer> getBatchIdsOfProcesses(Collection<Integer> processIds);
+
+    /**
+     * @see BatchAssignmentManager#getManifestRows(int, Institution, int, int)
+     */
+    List<ManifestRow> getManifestRows(int batchId, Institution institution, int afterProcessId, int count) throws SQLException;
+
+    /**
+     * get the properties of a process as they are shown in the user interface
+     *
+     * @param processId id of the process
+     * @return list of properties, empty if the process does not exist
+     */
+    List<DisplayProperty> getDisplayProperties(int processId);
+
+    /**
+     * get a batch
+     *
+     * @param batchId id of the batch
+     * @return the batch or null
+     */
+    Batch getBatch(int batchId);
+
+    /**
+     * @see BatchAssignmentManager#createBatch(String, Date)
+     */
+    int createBatch(String batchName, Date startDate) throws SQLException;
+
+    /**
+     * @see BatchAssignmentManager#assignToBatch(int, int, String, int, Map, Map, JournalEntry)
+     */
+    void assignToBatch(int processId, int batchId, String batchWaitStep, int maxSize, Map<String, String> propertyValues,
+            Map<String, String> batchValues, JournalEntry entry) throws SQLException, BatchAssignmentException;
+
+    /**
+     * @see BatchAssignmentManager#isBatchClosed(int, String)
+     */
+    boolean isBatchClosed(int batchId, String batchWaitStep) throws SQLException;
+
+    /**
+     * @see BatchAssignmentManager#getOpenWaitSteps(int, String)
+     */
+    List<WaitStep> getOpenWaitSteps(int batchId, String batchWaitStep) throws SQLException;
+
+    /**
+     * close the wait step of a process as the user would do and add the journal entry
+     *
+     * @param waitStep the wait step
+     * @param user the user who closes the step, null for automatic locks
+     * @param entry the journal entry of the process
+     * @throws SQLException if the step doesn't exist
+     */
+    void closeWaitStep(WaitStep waitStep, User user, JournalEntry entry) throws SQLException;
+
+    /**
+     * @see BatchAssignmentManager#getExpiredEmptyBatchIds(Date, Collection, boolean, int)
+     */
+    List<Integer> getExpiredEmptyBatchIds(Date startedBefore, Collection<String> propertyNames, boolean withoutStoredValues, int count);
+
+    /**
+     * @see BatchAssignmentManager#deleteEmptyBatch(int)
+     */
+    boolean deleteEmptyBatch(int batchId) throws SQLException;
+
+    /**
+     * @see BatchAssignmentManager#getProcessIdsOfBatch(int, Institution)
+     */
+    List<Integer> getProcessIdsOfBatch(int batchId);
+
+    /**
+     * @see BatchAssignmentManager#getProcessIdsOfBatch(int, Institution)
+     */
+    List<Integer> getProcessIdsOfBatch(int batchId, Institution institution);
+
+    /**
+     * @see BatchAssignmentManager#moveProcesses(int, int, Collection, String, int, Map, JournalEntry)
+     */
+    int moveProcesses(int fromBatchId, int toBatchId, Collection<Integer> processIds, String batchWaitStep, int maxSize,
+            Map<String, String> propertyValues, JournalEntry entry) throws SQLException, BatchAssignmentException;
+
+    /**
+     * @see BatchAssignmentManager#mergeBatches(int, int, String, int, Map, JournalEntry)
+     */
+    int mergeBatches(int sourceBatchId, int targetBatchId, String batchWaitStep, int maxSize, Map<String, String> propertyValues,
+            JournalEntry entry) throws SQLException, BatchAssignmentException;
+}
@@ -0,0 +1,248 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.goobi.beans.Institution;
+
+import de.sub.goobi.config.ConfigurationHelper;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Generates the batch dockets in the background and keeps them on disk. A docket is identified by the batch, the processes of the batch and the
+ * docket template, so a cached file is only used as long as none of them changed. Outdated dockets of a batch are deleted when a new one is
+ * written, dockets that were not replaced are deleted after a few days. The processes are read through the data source, the poll of the state uses
+ * the processes that were read last until the batch is invalidated.
+ */
+@Log4j2
+public class BatchDocketCache {
+
+    private static final String DOCKET_TEMPLATE = "docket_multipage.xsl";
+
+    private static final long MAX_AGE_MILLIS = TimeUnit.DAYS.toMillis(7);
+
+    // running generations, the key is the file name of the docket
+    private static final Map<String, Future<?>> JOBS = new ConcurrentHashMap<>();
+
+    // processes of the batches whose state was read, the key is the file prefix of batch and institution
+    private static final Map<String, List<Integer>> PROCESS_IDS = new ConcurrentHashMap<>();
+
+    private BatchDocketCache() {
+    }
+
+    /**
+     * State of the docket of a batch
+     */
+    public enum DocketState {
+        NONE,
+        IN_PREPARATION,
+        AVAILABLE
+    }
+
+    /**
+     * get the state of the docket of the batch, the processes of the batch are read only once until the batch is invalidated
+     *
+     * @param dataSource data source to read the processes of the batch
+     * @param batchId id of the batch
+     * @param institution institution of the current user, can be null
+     * @return the state of the docket
+     */
+    public static DocketState getState(BatchDataSource dataSource, int batchId, Institution institution) {
+        List<Integer> processIds =
+                PROCESS_IDS.computeIfAbsent(getFilePrefix(batchId, institution), k -> dataSource.getProcessIdsOfBatch(batchId, institution));
+        if (processIds.isEmpty()) {
+            return DocketState.NONE;
+        }
+        Path file = getDocketFile(batchId, institution, processIds);
+        Future<?> job = JOBS.get(file.getFileName().toString());
+        if (job != null && !job.isDone()) {
+            return DocketState.IN_PREPARATION;
+        }
+        return Files.isRegularFile(file) ? DocketState.AVAILABLE : DocketState.NONE;
+    }
+
+    /**
+     * get the cached docket of the batch, the processes are read again so an outdated docket is never returned
+     *
+     * @param dataSource data source to read the processes of the batch
+     * @param batchId id of the batch
+     * @param institution institution of the current user, can be null
+     * @return the docket file or null, if it does not exist yet
+     */
+    public static Path getDocket(BatchDataSource dataSource, int batchId, Institution institution) {
+        List<Integer> processIds = readProcessIds(dataSource, batchId, institution);
+        if (processIds.isEmpty()) {
+            return null;
+        }
+        Path file = getDocketFile(batchId, institution, processIds);
+        return Files.isRegularFile(file) ? file : null;
+    }
+
+    /**
+     * start the generation of the docket in the background, if it is not cached or generated already
+     *
+     * @param dataSource data source to read the processes of the batch
+     * @param batchId id of the batch
+     * @param institution institution of the current user, can be null
+     * @return true if the docket is generated now, false if the batch doesn't contain any process
+     */
+    public static boolean generate(BatchDataSource dataSource, int batchId, Institution institution) {
+        List<Integer> processIds = readProcessIds(dataSource, batchId, institution);
+        if (processIds.isEmpty()) {
+            return false;
+        }
+        Path file = getDocketFile(batchId, institution, processIds);
+        if (Files.isRegularFile(file)) {
+            return true;
+        }
+        JOBS.values().removeIf(Future::isDone);
+        JOBS.compute(file.getFileName().toString(), (name, job) -> {
+            if (job != null && !job.isDone()) {
+                return job;
+            }
+            return BackgroundExecutor.submit(() -> createDocket(processIds, file, getFilePrefix(batchId, institution)));
+        });
+        return true;
+    }
+
+    /**
+     * delete all cached dockets of the batch and forget its processes
+     *
+     * @param batchId id of the batch
+     */
+    public static void invalidate(Integer batchId) {
+        if (batchId == null) {
+            return;
+        }
+        String prefix = "batch_" + batchId + "_";
+        PROCESS_IDS.keySet().removeIf(key -> key.startsWith(prefix));
+        Path folder = getCacheFolder();
+        if (!Files.isDirectory(folder)) {
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(folder, prefix + "*.pdf")) {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException e) {
+            log.error("Unable to delete cached dockets of batch {}", batchId, e);
+        }
+    }
+
+    private static void createDocket(List<Integer> processIds, Path file, String filePrefix) {
+        Path xsltfile = Paths.get(ConfigurationHelper.getInstance().getXsltFolder(), DOCKET_TEMPLATE);
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        long start = System.nanoTime();
+        try {
+            Files.createDirectories(file.getParent());
+            try (OutputStream out = Files.newOutputStream(tempFile)) {
+                DocketRenderer.render(processIds, xsltfile, out);
+            }
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            deleteOutdatedDockets(file, filePrefix);
+        } catch (IOException e) {
+            log.error("IOException while exporting run note", e);
+            try {
+                Files.deleteIfExists(tempFile);
+            } catch (IOException e1) {
+                log.error(e1);
+            }
+        } finally {
+            BatchAssignmentMetrics.getInstance().recordTime(BatchAssignmentMetrics.RENDER_DOCKET, start);
+        }
+    }
+
+    /**
+     * delete the other dockets of the batch and institution, they belong to an older state of the batch or template, and all dockets that are older
+     * than the maximum age
+     */
+    private static void deleteOutdatedDockets(Path current, String filePrefix) {
+        long oldest = System.currentTimeMillis() - MAX_AGE_MILLIS;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(current.getParent(), "batch_*.pdf")) {
+            for (Path file : files) {
+                if (file.equals(current)) {
+                    continue;
+                }
+                if (file.getFileName().toString().startsWith(filePrefix) || Files.getLastModifiedTime(file).toMillis() < oldest) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        } catch (IOException e) {
+            log.error("Unable to delete outdated dockets", e);
+        }
+    }
+
+    /**
+     * read the processes of the batch and remember them for the poll of the state
+     */
+    private static List<Integer> readProcessIds(BatchDataSource dataSource, int batchId, Institution institution) {
+        List<Integer> processIds = dataSource.getProcessIdsOfBatch(batchId, institution);
+        PROCESS_IDS.put(getFilePrefix(batchId, institution), processIds);
+        return processIds;
+    }
+
+    private static Path getDocketFile(int batchId, Institution institution, List<Integer> processIds) {
+        Path xsltfile = Paths.get(ConfigurationHelper.getInstance().getXsltFolder(), DOCKET_TEMPLATE);
+        StringBuilder key = new StringBuilder();
+        key.append(batchId).append('|').append(processIds).append('|').append(xsltfile);
+        try {
+            key.append('|').append(Files.getLastModifiedTime(xsltfile).toMillis());
+        } catch (IOException e) {
+            log.warn("Unable to read the modification date of {}", xsltfile);
+        }
+        return getCacheFolder().resolve(getFilePrefix(batchId, institution) + hash(key.toString()) + ".pdf");
+    }
+
+    /**
+     * the dockets of each batch and institution share a prefix, the dockets of all institutions are deleted by {@link #invalidate(Integer)}
+     */
+    private static String getFilePrefix(int batchId, Institution institution) {
+        return "batch_" + batchId + "_" + (institution == null ? "all" : String.valueOf(institution.getId())) + "_";
+    }
+
+    private static Path getCacheFolder() {
+        return Paths.get(ConfigurationHelper.getInstance().getTemporaryFolder(), "batch_dockets");
+    }
+
+    private static String hash(String value) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(value.hashCode());
+        }
+    }
+}
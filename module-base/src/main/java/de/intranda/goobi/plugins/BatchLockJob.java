@@ -0,0 +1,239 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+import java.sql.SQLException;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.goobi.beans.JournalEntry;
+import org.goobi.beans.JournalEntry.EntryType;
+import org.goobi.beans.User;
+import org.goobi.production.enums.LogType;
+
+import de.intranda.goobi.plugins.BatchAssignmentManager.WaitStep;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Closes the wait steps of all processes of a batch in the background. The steps are closed on a bounded thread pool of the lock jobs, no thread
+ * waits for the others, the job is finished by the last closed step. The progress and the failures can be requested while the job is running. A
+ * new job for the same batch only handles the wait steps that are still open, so a job that failed for some processes can simply be started
+ * again. Finished jobs are kept for a while to show their result.
+ */
+@Log4j2
+public class BatchLockJob implements Runnable {
+
+    private static final int THREADS = 4;
+
+    private static final long FINISHED_JOB_TIME_TO_LIVE = TimeUnit.MINUTES.toMillis(15);
+
+    private static final ExecutorService WORKERS = Executors.newFixedThreadPool(THREADS, r -> {
+        Thread t = new Thread(r, "batch-assignment-lock");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // running and recently finished jobs, the last job of each batch is kept to show the result
+    private static final Map<Integer, BatchLockJob> JOBS = new ConcurrentHashMap<>();
+
+    private final BatchDataSource dataSource;
+    @Getter
+    private final int batchId;
+    private final String batchWaitStep;
+    // released when the job is finished
+    private volatile User user;
+
+    @Getter
+    private volatile int numberOfSteps;
+    private final AtomicInteger closedSteps = new AtomicInteger();
+    // wait steps that are neither closed nor failed yet
+    private final AtomicInteger remainingSteps = new AtomicInteger();
+    // process id and error message of the steps that could not be closed
+    private final Map<Integer, String> failures = new ConcurrentHashMap<>();
+    @Getter
+    private volatile boolean finished;
+    private volatile long finishedAt;
+
+    private BatchLockJob(BatchDataSource dataSource, int batchId, String batchWaitStep, User user) {
+        this.dataSource = dataSource;
+        this.batchId = batchId;
+        this.batchWaitStep = batchWaitStep;
+        this.user = user;
+    }
+
+    /**
+     * start closing the wait steps of the batch, if a job for the batch is running already, this job is returned
+     *
+     * @param dataSource access to the wait steps
+     * @param batchId id of the batch
+     * @param batchWaitStep title of the wait step
+     * @param user the user who closes the steps
+     * @return the running job
+     */
+    public static BatchLockJob start(BatchDataSource dataSource, int batchId, String batchWaitStep, User user) {
+        evictFinishedJobs();
+        return JOBS.compute(batchId, (id, job) -> {
+            if (job != null && !job.isFinished()) {
+                return job;
+            }
+            BatchLockJob newJob = new BatchLockJob(dataSource, batchId, batchWaitStep, user);
+            try {
+                WORKERS.execute(newJob);
+            } catch (RejectedExecutionException e) {
+                newJob.failures.put(0, "the application is shut down");
+                newJob.finish();
+            }
+            return newJob;
+        });
+    }
+
+    /**
+     * check if a job is closing the wait steps of the batch right now
+     *
+     * @param batchId id of the batch, can be null
+     * @return true if the job is running
+     */
+    public static boolean isRunning(Integer batchId) {
+        BatchLockJob job = getJob(batchId);
+        return job != null && !job.isFinished();
+    }
+
+    /**
+     * stop the threads that close the steps, called when the plugin is unloaded
+     */
+    static void shutdown() {
+        WORKERS.shutdownNow();
+    }
+
+    /**
+     * get the last job of a batch
+     *
+     * @param batchId id of the batch
+     * @return the job or null, if the batch was not locked yet or the job finished a while ago
+     */
+    public static BatchLockJob getJob(Integer batchId) {
+        if (batchId == null) {
+            return null;
+        }
+        evictFinishedJobs();
+        return JOBS.get(batchId);
+    }
+
+    private static void evictFinishedJobs() {
+        long now = System.currentTimeMillis();
+        JOBS.values().removeIf(job -> job.isFinished() && now - job.finishedAt > FINISHED_JOB_TIME_TO_LIVE);
+    }
+
+    @Override
+    public void run() {
+        List<WaitStep> waitSteps;
+        try {
+            waitSteps = dataSource.getOpenWaitSteps(batchId, batchWaitStep);
+        } catch (SQLException | RuntimeException e) {
+            log.error("Unable to read the wait steps of batch {}", batchId, e);
+            failures.put(0, String.valueOf(e.getMessage()));
+            finish();
+            return;
+        }
+        numberOfSteps = waitSteps.size();
+        if (waitSteps.isEmpty()) {
+            finish();
+            return;
+        }
+        remainingSteps.set(waitSteps.size());
+        for (WaitStep waitStep : waitSteps) {
+            try {
+                WORKERS.execute(() -> closeStep(waitStep));
+            } catch (RejectedExecutionException e) {
+                // the application is shut down, the step stays open and is closed by a new job
+                failures.put(waitStep.processId(), "the application is shut down");
+                stepDone();
+            }
+        }
+    }
+
+    private void closeStep(WaitStep waitStep) {
+        try {
+            if (Thread.currentThread().isInterrupted()) {
+                // the pool is shut down, the step stays open and is closed by a new job
+                failures.put(waitStep.processId(), "interrupted");
+                return;
+            }
+            String userName = user == null ? BatchAssignmentService.AUTOMATIC_USER : user.getNachVorname();
+            dataSource.closeWaitStep(waitStep, user, new JournalEntry(waitStep.processId(), new Date(), userName, LogType.DEBUG,
+                    "closed step " + batchWaitStep + " while locking batch " + batchId, EntryType.PROCESS));
+            closedSteps.incrementAndGet();
+        } catch (Exception e) {
+            log.error("Unable to close step {} of process {}", waitStep.stepId(), waitStep.processId(), e);
+            failures.put(waitStep.processId(), String.valueOf(e.getMessage()));
+        } finally {
+            stepDone();
+        }
+    }
+
+    private void stepDone() {
+        if (remainingSteps.decrementAndGet() == 0) {
+            finish();
+        }
+    }
+
+    private void finish() {
+        user = null;
+        finishedAt = System.currentTimeMillis();
+        finished = true;
+    }
+
+    public int getClosedSteps() {
+        return closedSteps.get();
+    }
+
+    public int getNumberOfFailures() {
+        return failures.size();
+    }
+
+    public Map<Integer, String> getFailures() {
+        return Map.copyOf(failures);
+    }
+
+    /**
+     * check if all wait steps were closed
+     */
+    public boolean isSuccessful() {
+        return finished && failures.isEmpty();
+    }
+
+    /**
+     * progress of the job in percent
+     */
+    public int getProgress() {
+        if (numberOfSteps == 0) {
+            return finished ? 100 : 0;
+        }
+        return (getClosedSteps() + getNumberOfFailures()) * 100 / numberOfSteps;
+    }
+}
@@ -0,0 +1,245 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import de.intranda.goobi.plugins.BatchAssignmentManager.BatchProcessCount;
+import de.intranda.goobi.plugins.BatchAssignmentManager.BatchProgress;
+import de.sub.goobi.config.ConfigurationHelper;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Locks open batches automatically once they reached the configured number of processes or the configured age. A full batch is locked only after
+ * all of its processes arrived at the wait step. The scheduler checks the wait steps of all configurations that were registered by a plugin
+ * instance, the configurations are read again with each run, so that changes of the configuration file apply without a restart. The rules apply
+ * to the batches of the project of each configuration.
+ *
+ * The scheduler doesn't coordinate with other nodes of a cluster, each node would lock the same batches. The automatic lock may only be enabled
+ * if a single node runs the plugin.
+ */
+@Log4j2
+public class BatchLockScheduler {
+
+    private static final long INTERVAL_MINUTES = 1;
+
+    private static final BatchLockScheduler INSTANCE = new BatchLockScheduler(GoobiBatchDataSource.INSTANCE);
+
+    private final BatchDataSource dataSource;
+
+    // configuration key to the project and the current configuration of the plugin instances
+    private final Map<String, Registration> configurations = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService scheduler;
+
+    BatchLockScheduler(BatchDataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    public static BatchLockScheduler getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * watch the open batches of the wait step of the configuration, the scheduler is started with the first configuration that locks batches
+     *
+     * @param configurationKey key of the configuration
+     * @param projectId id of the project the configuration belongs to
+     * @param configuration supplies the current configuration, it is called with each run
+     */
+    public synchronized void register(String configurationKey, int projectId, Supplier<BatchAssignmentConfiguration> configuration) {
+        configurations.put(configurationKey, new Registration(projectId, configuration));
+        if (scheduler == null && configuration.get().isAutomaticLock()) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "batch-assignment-lock-scheduler");
+                t.setDaemon(true);
+                return t;
+            });
+            scheduler.scheduleWithFixedDelay(this::checkAllBatches, INTERVAL_MINUTES, INTERVAL_MINUTES, TimeUnit.MINUTES);
+        }
+    }
+
+    /**
+     * stop the scheduler, called when the plugin is unloaded
+     */
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * read the registered configurations again and create the lock rules of the wait steps
+     *
+     * @return project and wait step to lock rule
+     */
+    Map<RuleKey, LockRule> getRules() {
+        List<ProjectConfiguration> current = new ArrayList<>();
+        // ordered by the key, so the same configuration wins with each run
+        for (Map.Entry<String, Registration> entry : new TreeMap<>(configurations).entrySet()) {
+            try {
+                current.add(new ProjectConfiguration(entry.getValue().projectId(), entry.getValue().configuration().get()));
+            } catch (RuntimeException e) {
+                log.error("Unable to read the configuration {}", entry.getKey(), e);
+            }
+        }
+        return createRules(current);
+    }
+
+    /**
+     * create the lock rules of the configurations that lock batches automatically
+     *
+     * @param configurations the current configurations with their project
+     * @return project and wait step to lock rule
+     */
+    static Map<RuleKey, LockRule> createRules(List<ProjectConfiguration> configurations) {
+        Map<RuleKey, LockRule> answer = new HashMap<>();
+        for (ProjectConfiguration current : configurations) {
+            BatchAssignmentConfiguration configuration = current.configuration();
+            if (configuration.isAutomaticLock()) {
+                // several steps of a project can wait in the same step, the first configuration is used
+                answer.putIfAbsent(new RuleKey(current.projectId(), configuration.getBatchWaitStep()),
+                        new LockRule(configuration.getLockMaxProcesses(), configuration.getLockMaxAgeMinutes()));
+            }
+        }
+        return answer;
+    }
+
+    private void checkAllBatches() {
+        for (Map.Entry<RuleKey, LockRule> entry : getRules().entrySet()) {
+            try {
+                for (Integer batchId : findBatchesToLock(entry.getKey(), entry.getValue())) {
+                    lockBatch(batchId, entry.getKey().batchWaitStep());
+                }
+            } catch (RuntimeException e) {
+                // keep the scheduler running
+                log.error("Unable to check the batches of wait step {} in project {}", entry.getKey().batchWaitStep(), entry.getKey().projectId(), e);
+            }
+        }
+    }
+
+    private void lockBatch(Integer batchId, String batchWaitStep) {
+        log.info("Lock batch {} automatically", batchId);
+        try {
+            BatchLocks.withBatches(List.of(batchId), () -> BatchLockJob.start(dataSource, batchId, batchWaitStep, null));
+        } catch (BatchAssignmentException e) {
+            // the batch is changed right now, it is checked again with the next run
+            log.debug("Unable to lock batch {}: {}", batchId, e.getReason());
+            return;
+        } catch (SQLException e) {
+            log.error(e);
+            return;
+        }
+        OpenBatchRegistry.getInstance().batchLocked(batchId);
+        BatchPropertyIndex.getInstance().remove(batchId);
+    }
+
+    /**
+     * find the open batches of the project that are full or too old
+     *
+     * @param key project and wait step
+     * @param rule the lock rule of the wait step
+     * @return ids of the batches to lock
+     */
+    List<Integer> findBatchesToLock(RuleKey key, LockRule rule) {
+        String batchWaitStep = key.batchWaitStep();
+        List<Integer> answer = new ArrayList<>();
+        List<Integer> openBatches = dataSource.getAvailableBatchIds(batchWaitStep, BatchAssignmentService.getProjectCriteria(key.projectId()), null,
+                List.of(), 0, Integer.MAX_VALUE);
+        Map<Integer, BatchProcessCount> counts = dataSource.getProcessCounts(openBatches, null);
+        Map<Integer, Date> startDates = rule.maxAgeMinutes() > 0 ? dataSource.getBatchStartDates(openBatches) : Map.of();
+
+        int maxSize = ConfigurationHelper.getInstance().getBatchMaxSize();
+        int maxProcesses = rule.maxProcesses() > 0 ? Math.min(rule.maxProcesses(), maxSize) : maxSize;
+        long oldestStart = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(rule.maxAgeMinutes());
+
+        // the progress is only needed for the full batches
+        List<Integer> fullBatches = counts.values()
+                .stream()
+                .filter(c -> c.numberOfProcesses() >= maxProcesses)
+                .map(BatchProcessCount::batchId)
+                .toList();
+        Map<Integer, BatchProgress> progress = dataSource.getBatchProgress(fullBatches, batchWaitStep, null);
+
+        for (Integer batchId : openBatches) {
+            BatchProcessCount count = counts.get(batchId);
+            if (count == null) {
+                // empty batches are never locked
+                continue;
+            }
+            Date startDate = startDates.get(batchId);
+            BatchProgress p = progress.get(batchId);
+            boolean full = count.numberOfProcesses() >= maxProcesses && (p == null || p.processesUpstream() == 0);
+            boolean expired = startDate != null && rule.maxAgeMinutes() > 0 && startDate.getTime() < oldestStart;
+            BatchLockJob job = BatchLockJob.getJob(batchId);
+            if ((full || expired) && (job == null || job.isFinished()) && hasOpenWaitSteps(batchId, batchWaitStep)) {
+                answer.add(batchId);
+            }
+        }
+        return answer;
+    }
+
+    private boolean hasOpenWaitSteps(Integer batchId, String batchWaitStep) {
+        try {
+            // without a process at the wait step there is nothing to lock, the batch would be locked again with each run
+            return !dataSource.getOpenWaitSteps(batchId, batchWaitStep).isEmpty();
+        } catch (SQLException e) {
+            log.error(e);
+            return false;
+        }
+    }
+
+    private record Registration(int projectId, Supplier<BatchAssignmentConfiguration> configuration) {
+    }
+
+    /**
+     * a configuration together with the project it belongs to
+     */
+    record ProjectConfiguration(int projectId, BatchAssignmentConfiguration configuration) {
+    }
+
+    /**
+     * the batches of a lock rule, the same wait step can be configured differently in each project
+     */
+    record RuleKey(int projectId, String batchWaitStep) {
+    }
+
+    /**
+     * automatic lock configuration of a wait step
+     *
+     * @param maxProcesses lock a batch once it contains this number of processes, limited by the maximum batch size, 0 to use the maximum batch
+     *            size
+     * @param maxAgeMinutes lock a batch once it is older than this number of minutes, 0 to disable
+     */
+    record LockRule(int maxProcesses, long maxAgeMinutes) {
+    }
+}
@@ -0,0 +1,111 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import de.intranda.goobi.plugins.BatchAssignmentException.Reason;
+
+/**
+ * Striped locks for the changes of batches. Operations on different batches run in parallel, operations on the same batch wait for each other. If
+ * a batch stays locked for too long, the operation gives up with {@link Reason#BUSY}, so the user can try again.
+ */
+public class BatchLocks {
+
+    private static final int STRIPES = 64;
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private static final ReentrantLock[] LOCKS = new ReentrantLock[STRIPES];
+
+    static {
+        for (int i = 0; i < STRIPES; i++) {
+            LOCKS[i] = new ReentrantLock();
+        }
+    }
+
+    private BatchLocks() {
+    }
+
+    @FunctionalInterface
+    public interface BatchOperation<T> {
+        T run() throws SQLException, BatchAssignmentException;
+    }
+
+    /**
+     * run the operation while the given batches are locked, the locks are always acquired in the same order to avoid dead locks
+     *
+     * @param batchIds the batches to lock, null values are ignored
+     * @param operation the operation to run
+     * @return the result of the operation
+     * @throws BatchAssignmentException if the batches could not be locked in time or if the operation failed for a batch
+     * @throws SQLException if the operation failed
+     */
+    public static <T> T withBatches(Collection<Integer> batchIds, BatchOperation<T> operation) throws BatchAssignmentException, SQLException {
+        TreeSet<Integer> stripes = new TreeSet<>();
+        for (Integer batchId : batchIds) {
+            if (batchId != null) {
+                stripes.add(Math.floorMod(batchId, STRIPES));
+            }
+        }
+        List<ReentrantLock> acquired = new ArrayList<>();
+        try {
+            for (Integer stripe : stripes) {
+                ReentrantLock lock = LOCKS[stripe];
+                if (!lock.tryLock(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    throw new BatchAssignmentException(Reason.BUSY, firstBatchOfStripe(batchIds, stripe));
+                }
+                acquired.add(lock);
+            }
+            return operation.run();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BatchAssignmentException(Reason.BUSY, firstBatchOfStripe(batchIds, stripes.isEmpty() ? 0 : stripes.first()));
+        } finally {
+            for (ReentrantLock lock : acquired) {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * check that the wait steps of the batch are not being closed right now. Once they are closed, the database transactions of the assignment
+     * reject the batch, as processes can neither join nor leave a batch whose wait steps are closed.
+     *
+     * @param batchId id of the batch, can be null
+     * @throws BatchAssignmentException if the batch is being locked
+     */
+    public static void checkNotLocked(Integer batchId) throws BatchAssignmentException {
+        if (BatchLockJob.isRunning(batchId)) {
+            throw new BatchAssignmentException(Reason.BATCH_CLOSED, batchId);
+        }
+    }
+
+    private static int firstBatchOfStripe(Collection<Integer> batchIds, int stripe) {
+        return batchIds.stream().filter(Objects::nonNull).filter(id -> Math.floorMod(id, STRIPES) == stripe).findFirst().orElse(0);
+    }
+}
@@ -0,0 +1,201 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.goobi.beans.Institution;
+
+import com.google.gson.stream.JsonWriter;
+
+import de.intranda.goobi.plugins.BatchAssignmentManager.ManifestRow;
+import de.sub.goobi.helper.enums.StepStatus;
+import lombok.Getter;
+
+/**
+ * Machine readable list of the processes of a batch with their configured properties and their current step. The processes are read page by page
+ * and each page is written immediately, so the memory usage does not depend on the size of the batch.
+ */
+public class BatchManifestWriter {
+
+    // number of processes read with one query
+    static final int PAGE_SIZE = 500;
+
+    private static final String[] COLUMNS = { "processId", "title", "currentStep", "currentStepStatus" };
+
+    public enum Format {
+        CSV("text/csv", "csv"),
+        JSON("application/json", "json");
+
+        @Getter
+        private final String contentType;
+        @Getter
+        private final String fileExtension;
+
+        Format(String contentType, String fileExtension) {
+            this.contentType = contentType;
+            this.fileExtension = fileExtension;
+        }
+    }
+
+    private final BatchDataSource dataSource;
+    private final List<String> propertyNames;
+    private final int pageSize;
+
+    public BatchManifestWriter(BatchDataSource dataSource, List<String> propertyNames) {
+        this(dataSource, propertyNames, PAGE_SIZE);
+    }
+
+    BatchManifestWriter(BatchDataSource dataSource, List<String> propertyNames, int pageSize) {
+        this.dataSource = dataSource;
+        this.propertyNames = propertyNames;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * write the manifest of the batch, the stream is flushed after each page but not closed
+     *
+     * @param batchId id of the batch
+     * @param institution institution of the user, only processes of this institution are listed, can be null
+     * @param format the output format
+     * @param out the stream to write to
+     * @return number of written processes
+     * @throws IOException if the manifest can't be written
+     * @throws SQLException if the processes can't be read
+     */
+    public int write(int batchId, Institution institution, Format format, OutputStream out) throws IOException, SQLException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        // the json writer is not closed, it would close the stream
+        JsonWriter json = null;
+        if (format == Format.CSV) {
+            writeCsvHeader(writer);
+        } else {
+            json = new JsonWriter(writer);
+            json.beginObject();
+            json.name("batchId").value(batchId);
+            json.name("processes").beginArray();
+        }
+        int written = 0;
+        int lastProcessId = 0;
+        List<ManifestRow> page = dataSource.getManifestRows(batchId, institution, lastProcessId, pageSize);
+        while (!page.isEmpty()) {
+            List<Integer> processIds = page.stream().map(ManifestRow::processId).toList();
+            Map<Integer, Map<String, String>> values = dataSource.getPropertyValues(processIds, propertyNames);
+            for (ManifestRow row : page) {
+                Map<String, String> processValues = values.getOrDefault(row.processId(), Map.of());
+                if (format == Format.CSV) {
+                    writeCsvRow(writer, row, processValues);
+                } else {
+                    writeJsonRow(json, row, processValues);
+                }
+                written++;
+                lastProcessId = row.processId();
+            }
+            // the first processes are sent while the next page is read
+            if (json != null) {
+                json.flush();
+            }
+            writer.flush();
+            page = dataSource.getManifestRows(batchId, institution, lastProcessId, pageSize);
+        }
+        if (json != null) {
+            json.endArray();
+            json.endObject();
+            json.flush();
+        }
+        writer.flush();
+        return written;
+    }
+
+    private void writeCsvHeader(Writer writer) throws IOException {
+        List<String> header = new ArrayList<>(List.of(COLUMNS));
+        header.addAll(propertyNames);
+        writeCsvLine(writer, header);
+    }
+
+    private void writeCsvRow(Writer writer, ManifestRow row, Map<String, String> processValues) throws IOException {
+        List<String> line = new ArrayList<>();
+        line.add(String.valueOf(row.processId()));
+        line.add(row.title());
+        line.add(row.currentStep());
+        line.add(getStatusName(row));
+        for (String name : propertyNames) {
+            line.add(processValues.get(name));
+        }
+        writeCsvLine(writer, line);
+    }
+
+    private static void writeCsvLine(Writer writer, List<String> values) throws IOException {
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writer.write(escapeCsv(values.get(i)));
+        }
+        writer.write("\r\n");
+    }
+
+    private void writeJsonRow(JsonWriter json, ManifestRow row, Map<String, String> processValues) throws IOException {
+        json.beginObject();
+        json.name("processId").value(row.processId());
+        json.name("title").value(row.title());
+        json.name("currentStep").value(row.currentStep());
+        json.name("currentStepStatus").value(getStatusName(row));
+        json.name("properties").beginObject();
+        for (String name : propertyNames) {
+            if (processValues.containsKey(name)) {
+                json.name(name).value(processValues.get(name));
+            }
+        }
+        json.endObject();
+        json.endObject();
+    }
+
+    private static String getStatusName(ManifestRow row) {
+        if (row.currentStepStatus() == null) {
+            return null;
+        }
+        StepStatus status = StepStatus.getStatusFromValue(row.currentStepStatus());
+        return status == null ? String.valueOf(row.currentStepStatus()) : status.name();
+    }
+
+    /**
+     * quote the value if necessary, values that spreadsheet programs would read as formula are prefixed with an apostrophe
+     */
+    static String escapeCsv(String value) {
+        if (value == null || value.isEmpty()) {
+            return "";
+        }
+        String cell = "=+-@\t\r".indexOf(value.charAt(0)) < 0 ? value : "'" + value;
+        if (cell.indexOf(',') < 0 && cell.indexOf('"') < 0 && cell.indexOf('\n') < 0 && cell.indexOf('\r') < 0) {
+            return cell;
+        }
+        return "\"" + cell.replace("\"", "\"\"") + "\"";
+    }
+}
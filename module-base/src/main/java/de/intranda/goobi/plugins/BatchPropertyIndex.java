@@ -0,0 +1,193 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Inverted index from the configured property values to the open batches with these values. The index is kept per wait step and is used to rank
+ * the open batches by the number of property values they share with the current process.
+ */
+public class BatchPropertyIndex {
+
+    private static final BatchPropertyIndex INSTANCE = new BatchPropertyIndex();
+
+    private final Map<String, StepIndex> indexes = new ConcurrentHashMap<>();
+
+    BatchPropertyIndex() {
+    }
+
+    public static BatchPropertyIndex getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * rank the given batches by the number of property values they share with the process
+     *
+     * @param batchWaitStep title of the wait step
+     * @param batchIds the batches to rank, in their default order
+     * @param processValues values of the configured properties of the process
+     * @param loader loads the property values of batches that are not indexed yet
+     * @return map with the batch id as key and the number of matching property values as value
+     */
+    public Map<Integer, Integer> score(String batchWaitStep, Collection<Integer> batchIds, Map<String, String> processValues,
+            Function<List<Integer>, Map<Integer, Map<String, String>>> loader) {
+        StepIndex index = getIndex(batchWaitStep);
+        List<Integer> missing = index.getMissing(batchIds);
+        if (!missing.isEmpty()) {
+            Map<Integer, Map<String, String>> loaded = loader.apply(missing);
+            for (Integer id : missing) {
+                index.put(id, loaded.getOrDefault(id, Map.of()));
+            }
+        }
+        return index.score(batchIds, processValues);
+    }
+
+    /**
+     * sort the batches by the score, batches with the same score keep their order
+     *
+     * @param batchIds the batches to sort
+     * @param scores the scores of the batches
+     * @param matchingOnly true to remove the batches without any matching property value
+     * @return the sorted list
+     */
+    public static List<Integer> sortByScore(List<Integer> batchIds, Map<Integer, Integer> scores, boolean matchingOnly) {
+        return batchIds.stream()
+                .filter(id -> !matchingOnly || scores.getOrDefault(id, 0) > 0)
+                .sorted(Comparator.comparingInt((Integer id) -> scores.getOrDefault(id, 0)).reversed())
+                .toList();
+    }
+
+    /**
+     * store the property values of a batch, e.g. after it was created
+     *
+     * @param batchWaitStep title of the wait step
+     * @param batchId id of the batch
+     * @param values values of the configured properties
+     */
+    public void update(String batchWaitStep, Integer batchId, Map<String, String> values) {
+        getIndex(batchWaitStep).put(batchId, values);
+    }
+
+    /**
+     * remove a batch from the index, e.g. after it was locked, an open batch is loaded again with the next request
+     *
+     * @param batchId id of the batch
+     */
+    public void remove(Integer batchId) {
+        if (batchId == null) {
+            return;
+        }
+        for (StepIndex index : indexes.values()) {
+            index.remove(batchId);
+        }
+    }
+
+    /**
+     * remove all batches from the index
+     */
+    public void clear() {
+        indexes.clear();
+    }
+
+    private StepIndex getIndex(String batchWaitStep) {
+        return indexes.computeIfAbsent(batchWaitStep, k -> new StepIndex());
+    }
+
+    private static class StepIndex {
+
+        // property name and value to the batches with this value
+        private final Map<PropertyValue, Set<Integer>> postings = new HashMap<>();
+
+        // batch to its property values
+        private final Map<Integer, Map<String, String>> batches = new HashMap<>();
+
+        synchronized List<Integer> getMissing(Collection<Integer> batchIds) {
+            List<Integer> missing = new ArrayList<>();
+            for (Integer id : batchIds) {
+                if (!batches.containsKey(id)) {
+                    missing.add(id);
+                }
+            }
+            return missing;
+        }
+
+        synchronized void put(Integer batchId, Map<String, String> values) {
+            remove(batchId);
+            Map<String, String> indexed = new HashMap<>();
+            for (Map.Entry<String, String> entry : values.entrySet()) {
+                // empty values never count as a match
+                if (StringUtils.isNotBlank(entry.getValue())) {
+                    indexed.put(entry.getKey(), entry.getValue());
+                    postings.computeIfAbsent(new PropertyValue(entry.getKey(), entry.getValue()), k -> new HashSet<>()).add(batchId);
+                }
+            }
+            batches.put(batchId, indexed);
+        }
+
+        synchronized void remove(Integer batchId) {
+            Map<String, String> values = batches.remove(batchId);
+            if (values == null) {
+                return;
+            }
+            for (Map.Entry<String, String> entry : values.entrySet()) {
+                PropertyValue key = new PropertyValue(entry.getKey(), entry.getValue());
+                Set<Integer> ids = postings.get(key);
+                if (ids != null) {
+                    ids.remove(batchId);
+                    if (ids.isEmpty()) {
+                        postings.remove(key);
+                    }
+                }
+            }
+        }
+
+        synchronized Map<Integer, Integer> score(Collection<Integer> batchIds, Map<String, String> processValues) {
+            Set<Integer> candidates = new HashSet<>(batchIds);
+            Map<Integer, Integer> scores = new HashMap<>();
+            for (Map.Entry<String, String> entry : processValues.entrySet()) {
+                Set<Integer> ids = postings.get(new PropertyValue(entry.getKey(), entry.getValue()));
+                if (ids == null) {
+                    continue;
+                }
+                for (Integer id : ids) {
+                    if (candidates.contains(id)) {
+                        scores.merge(id, 1, Integer::sum);
+                    }
+                }
+            }
+            return scores;
+        }
+    }
+
+    private record PropertyValue(String name, String value) {
+    }
+}
@@ -0,0 +1,152 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+
+import jakarta.faces.model.SelectItem;
+
+import org.apache.commons.lang3.StringUtils;
+import org.goobi.production.properties.DisplayProperty;
+import org.goobi.production.properties.Type;
+
+import lombok.Value;
+
+/**
+ * Display ready copy of a property of a listed batch. Only the data shown in the list of batches is kept, the labels of vocabulary records are
+ * resolved when the summary is created.
+ */
+@Value
+public class BatchPropertySummary implements Serializable {
+    private static final long serialVersionUID = 4470184655870366127L;
+
+    // separator of the selected values of multi select properties, as used by DisplayProperty
+    private static final String MULTI_VALUE_SEPARATOR = "; ";
+
+    private String name;
+    // name of the property type, e.g. text or vocabularyreference
+    private String type;
+    // stored value, e.g. the link target or the uri of the vocabulary record
+    private String value;
+    // value as shown to the user
+    private String displayValue;
+    // selected values of multi select properties
+    private List<Entry> entries;
+
+    /**
+     * create the summary of a property
+     *
+     * @param property the property of the representative process
+     * @return the summary
+     */
+    public static BatchPropertySummary of(DisplayProperty property) {
+        String typeName = property.getType() == null ? "null" : property.getType().getName();
+        List<Entry> entries = new ArrayList<>();
+        if (isMultiSelect(property.getType()) && property.getValueList() != null) {
+            Map<String, String> labels = getLabels(property.getPossibleValues());
+            for (String selected : property.getValueList()) {
+                entries.add(new Entry(labels.getOrDefault(selected, selected), selected));
+            }
+        }
+        return new BatchPropertySummary(property.getName(), typeName, property.getValue(), property.getReadValue(), List.copyOf(entries));
+    }
+
+    /**
+     * create the summary of a value stored with the batch. The type is taken from the same property of the current process, the labels of
+     * vocabulary records are read from the cache, as the possible values of the current process may not contain the stored records.
+     *
+     * @param name name of the property
+     * @param value the stored value
+     * @param template the property of the current process, can be null
+     * @param vocabularyCache cache for the labels of vocabulary records
+     * @return the summary
+     */
+    public static BatchPropertySummary of(String name, String value, DisplayProperty template, VocabularyFilterCache vocabularyCache) {
+        Type type = template == null ? Type.TEXT : template.getType();
+        String typeName = type == null ? "null" : type.getName();
+        Map<String, String> labels = getLabels(template == null ? null : template.getPossibleValues());
+        UnaryOperator<String> label = isVocabulary(type) ? selected -> vocabularyCache.getLabel(selected).orElse(selected)
+                : selected -> labels.getOrDefault(selected, selected);
+        List<Entry> entries = new ArrayList<>();
+        if (isMultiSelect(type)) {
+            for (String selected : getSelectedValues(value)) {
+                entries.add(new Entry(label.apply(selected), selected));
+            }
+        }
+        String displayValue = StringUtils.isBlank(value) || isMultiSelect(type) ? value : label.apply(value);
+        return new BatchPropertySummary(name, typeName, value, displayValue, List.copyOf(entries));
+    }
+
+    /**
+     * split a stored value into the selected values of a multi select property
+     *
+     * @param value the stored value, can be null
+     * @return the selected values, a single value for other properties
+     */
+    static List<String> getSelectedValues(String value) {
+        return StringUtils.isBlank(value) ? List.of() : List.of(value.split(MULTI_VALUE_SEPARATOR));
+    }
+
+    static boolean isVocabulary(Type type) {
+        return Type.VOCABULARYREFERENCE.equals(type) || Type.VOCABULARYMULTIREFERENCE.equals(type);
+    }
+
+    private static boolean isMultiSelect(Type type) {
+        return Type.LISTMULTISELECT.equals(type) || Type.VOCABULARYMULTIREFERENCE.equals(type);
+    }
+
+    /**
+     * the possible values contain the labels of the selected vocabulary records
+     */
+    private static Map<String, String> getLabels(List<SelectItem> possibleValues) {
+        if (possibleValues == null) {
+            return Map.of();
+        }
+        return possibleValues.stream()
+                .filter(s -> s.getValue() != null && s.getLabel() != null)
+                .collect(Collectors.toMap(s -> String.valueOf(s.getValue()), SelectItem::getLabel, (a, b) -> a));
+    }
+
+    /**
+     * create the summaries of the properties
+     *
+     * @param properties the properties of the representative process
+     * @return list of summaries in the same order
+     */
+    public static List<BatchPropertySummary> of(List<DisplayProperty> properties) {
+        return properties.stream().map(p -> of(p)).toList();
+    }
+
+    /**
+     * A selected value of a multi select property
+     */
+    @Value
+    public static class Entry implements Serializable {
+        private static final long serialVersionUID = -2216409530389735386L;
+
+        private String label;
+        private String value;
+    }
+}
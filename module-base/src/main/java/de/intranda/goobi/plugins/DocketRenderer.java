@@ -0,0 +1,179 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.fop.apps.Fop;
+import org.apache.fop.apps.FopFactory;
+import org.apache.xmlgraphics.util.MimeConstants;
+import org.goobi.beans.Process;
+import org.jdom2.Document;
+import org.jdom2.JDOMException;
+import org.jdom2.output.SAXOutputter;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+import de.sub.goobi.persistence.managers.ProcessManager;
+import io.goobi.workflow.xslt.XsltPreparatorDocket;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Renders the docket of a list of processes. The compiled docket templates are kept until the template file changes on disk, the xml input for
+ * the template is created while the transformation reads it, one process at a time. The xslt processor still builds its own tree of the whole
+ * input, so the memory usage grows with the number of processes, but the processes and their xml documents are not kept. FOP uses the same
+ * configuration file as the other pdf exports of Goobi workflow.
+ */
+@Log4j2
+public class DocketRenderer {
+
+    private static final String NAMESPACE = "http://www.goobi.io/logfile";
+
+    // configuration of FOP in the xslt folder, as used by the other pdf exports
+    private static final String FOP_CONFIGURATION = "config.xml";
+
+    private static final Map<Path, CompiledTemplate> TEMPLATES = new ConcurrentHashMap<>();
+    private static final Map<Path, ConfiguredFopFactory> FOP_FACTORIES = new ConcurrentHashMap<>();
+
+    private DocketRenderer() {
+    }
+
+    /**
+     * render the docket of the given processes as pdf
+     *
+     * @param processIds ids of the processes, the processes are loaded one by one
+     * @param xsltfile the docket template
+     * @param out stream to write the pdf into
+     * @throws IOException if the template can't be read or the pdf can't be created
+     */
+    public static void render(List<Integer> processIds, Path xsltfile, OutputStream out) throws IOException {
+        try {
+            Templates templates = getTemplates(xsltfile);
+            FopFactory fopFactory = getFopFactory(xsltfile.getParent());
+            Fop fop = fopFactory.newFop(MimeConstants.MIME_PDF, out);
+            SAXSource source = new SAXSource(new ProcessListReader(processIds), new InputSource());
+            templates.newTransformer().transform(source, new SAXResult(fop.getDefaultHandler()));
+        } catch (TransformerException | SAXException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * get the compiled template, the template is compiled again if the file was changed since it was compiled the last time
+     *
+     * @param xsltfile the template file
+     * @return the compiled template
+     */
+    static Templates getTemplates(Path xsltfile) throws IOException, TransformerException {
+        long lastModified = Files.getLastModifiedTime(xsltfile).toMillis();
+        CompiledTemplate compiled = TEMPLATES.get(xsltfile);
+        if (compiled == null || compiled.lastModified() != lastModified) {
+            log.debug("compile docket template {}", xsltfile);
+            Templates templates = TransformerFactory.newInstance().newTemplates(new StreamSource(xsltfile.toFile()));
+            compiled = new CompiledTemplate(templates, lastModified);
+            TEMPLATES.put(xsltfile, compiled);
+        }
+        return compiled.templates();
+    }
+
+    private record CompiledTemplate(Templates templates, long lastModified) {
+    }
+
+    /**
+     * get the FOP factory of the xslt folder, the factory is created again if the configuration file was changed, added or removed
+     *
+     * @param folder the xslt folder
+     * @return the FOP factory with the configuration of the folder
+     */
+    static FopFactory getFopFactory(Path folder) throws IOException, SAXException {
+        Path configFile = folder.resolve(FOP_CONFIGURATION);
+        long lastModified = Files.isRegularFile(configFile) ? Files.getLastModifiedTime(configFile).toMillis() : 0;
+        ConfiguredFopFactory configured = FOP_FACTORIES.get(folder);
+        if (configured == null || configured.lastModified() != lastModified) {
+            log.debug("configure FOP with {}", lastModified == 0 ? folder : configFile);
+            FopFactory fopFactory = lastModified == 0 ? FopFactory.newInstance(folder.toUri()) : FopFactory.newInstance(configFile.toFile());
+            configured = new ConfiguredFopFactory(fopFactory, lastModified);
+            FOP_FACTORIES.put(folder, configured);
+        }
+        return configured.fopFactory();
+    }
+
+    private record ConfiguredFopFactory(FopFactory fopFactory, long lastModified) {
+    }
+
+    /**
+     * Creates the sax events of the docket input. Each process is loaded, converted and passed to the transformation before the next process is
+     * loaded.
+     */
+    private static class ProcessListReader extends XMLFilterImpl {
+
+        private final List<Integer> processIds;
+
+        ProcessListReader(List<Integer> processIds) {
+            this.processIds = processIds;
+        }
+
+        @Override
+        public void parse(InputSource input) throws SAXException {
+            XsltPreparatorDocket preparator = new XsltPreparatorDocket();
+            getContentHandler().startDocument();
+            getContentHandler().startPrefixMapping("", NAMESPACE);
+            getContentHandler().startElement(NAMESPACE, "processes", "processes", new AttributesImpl());
+            SAXOutputter outputter = new SAXOutputter(getContentHandler());
+            for (Integer id : processIds) {
+                long start = System.nanoTime();
+                Process process = ProcessManager.getProcessById(id);
+                BatchAssignmentMetrics.getInstance().recordTime(BatchAssignmentMetrics.LOAD_PROCESS, start);
+                if (process == null) {
+                    continue;
+                }
+                Document doc = preparator.createDocument(process, true, true);
+                try {
+                    outputter.outputFragment(doc.getRootElement().detach());
+                } catch (JDOMException e) {
+                    throw new SAXException(e);
+                }
+            }
+            getContentHandler().endElement(NAMESPACE, "processes", "processes");
+            getContentHandler().endPrefixMapping("");
+            getContentHandler().endDocument();
+        }
+
+        @Override
+        public void parse(String systemId) throws SAXException {
+            parse(new InputSource(systemId));
+        }
+    }
+}
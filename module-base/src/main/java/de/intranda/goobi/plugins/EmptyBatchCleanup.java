@@ -0,0 +1,135 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+import java.sql.SQLException;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Deletes batches that don't contain any process and that were started longer ago than the configured number of days. Such batches are left
+ * behind when all processes of a batch are moved to other batches. Only batches with stored values of the configured properties are deleted, so
+ * the batches of other plugins and users are kept. Installations with batches that were created before the values were stored can delete all
+ * expired empty batches instead. The configurations are read again with each run, so that changes apply without a restart.
+ */
+@Log4j2
+public class EmptyBatchCleanup {
+
+    private static final long INTERVAL_MINUTES = 60;
+
+    // number of batches deleted per configuration and run, the remaining batches are deleted with the next runs
+    private static final int MAX_BATCHES_PER_RUN = 500;
+
+    private static final EmptyBatchCleanup INSTANCE = new EmptyBatchCleanup(GoobiBatchDataSource.INSTANCE);
+
+    private final BatchDataSource dataSource;
+
+    // configuration key to the current configuration of the plugin instances
+    private final Map<String, Supplier<BatchAssignmentConfiguration>> configurations = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService scheduler;
+
+    EmptyBatchCleanup(BatchDataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    public static EmptyBatchCleanup getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * delete the empty batches of the configuration, the cleanup is started with the first configuration that deletes batches
+     *
+     * @param configurationKey key of the configuration
+     * @param configuration supplies the current configuration, it is called with each run
+     */
+    public synchronized void register(String configurationKey, Supplier<BatchAssignmentConfiguration> configuration) {
+        configurations.put(configurationKey, configuration);
+        if (scheduler == null && configuration.get().getEmptyBatchMaxAgeDays() > 0) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "batch-assignment-empty-batch-cleanup");
+                t.setDaemon(true);
+                return t;
+            });
+            scheduler.scheduleWithFixedDelay(this::deleteExpiredBatches, INTERVAL_MINUTES, INTERVAL_MINUTES, TimeUnit.MINUTES);
+        }
+    }
+
+    /**
+     * stop the cleanup, called when the plugin is unloaded
+     */
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * delete the expired empty batches of all registered configurations
+     */
+    void deleteExpiredBatches() {
+        for (Map.Entry<String, Supplier<BatchAssignmentConfiguration>> entry : configurations.entrySet()) {
+            try {
+                BatchAssignmentConfiguration configuration = entry.getValue().get();
+                if (configuration.getEmptyBatchMaxAgeDays() <= 0) {
+                    continue;
+                }
+                Date startedBefore = new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(configuration.getEmptyBatchMaxAgeDays()));
+                List<Integer> batchIds = dataSource.getExpiredEmptyBatchIds(startedBefore, configuration.getPropertyNames(),
+                        configuration.isEmptyBatchWithoutValues(), MAX_BATCHES_PER_RUN);
+                for (Integer batchId : batchIds) {
+                    deleteBatch(batchId);
+                }
+            } catch (RuntimeException e) {
+                // keep the scheduler running
+                log.error("Unable to delete the empty batches of configuration {}", entry.getKey(), e);
+            }
+        }
+    }
+
+    private void deleteBatch(Integer batchId) {
+        try {
+            // a process may be added to the batch right now
+            if (!BatchLocks.withBatches(List.of(batchId), () -> dataSource.deleteEmptyBatch(batchId))) {
+                return;
+            }
+        } catch (BatchAssignmentException e) {
+            // the batch is changed right now, it is checked again with the next run
+            log.debug("Unable to delete batch {}: {}", batchId, e.getReason());
+            return;
+        } catch (SQLException e) {
+            log.error(e);
+            return;
+        }
+        log.info("Deleted empty batch {}", batchId);
+        OpenBatchRegistry.getInstance().batchDeleted(batchId);
+        BatchPropertyIndex.getInstance().remove(batchId);
+        BatchDocketCache.invalidate(batchId);
+    }
+}
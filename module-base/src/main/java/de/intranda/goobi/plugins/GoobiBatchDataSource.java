@@ -0,0 +1,186 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.goobi.beans.Batch;
+import org.goobi.beans.Institution;
+import org.goobi.beans.JournalEntry;
+import org.goobi.beans.Process;
+import org.goobi.beans.Step;
+import org.goobi.beans.User;
+import org.goobi.production.properties.DisplayProperty;
+import org.goobi.production.properties.PropertyParser;
+
+import de.intranda.goobi.plugins.BatchAssignmentManager.BatchProcessCount;
+import de.intranda.goobi.plugins.BatchAssignmentManager.BatchProgress;
+import de.intranda.goobi.plugins.BatchAssignmentManager.ManifestRow;
+import de.intranda.goobi.plugins.BatchAssignmentManager.WaitStep;
+import de.sub.goobi.helper.CloseStepHelper;
+import de.sub.goobi.persistence.managers.ProcessManager;
+import de.sub.goobi.persistence.managers.StepManager;
+
+/**
+ * Data access with the database of Goobi workflow
+ */
+public enum GoobiBatchDataSource implements BatchDataSource {
+
+    INSTANCE;
+
+    @Override
+    public List<Integer> getAvailableBatchIds(String batchWaitStep, String processCriteria, String search, Collection<String> propertyNames,
+            int start, int count) {
+        return BatchAssignmentManager.getAvailableBatchIds(batchWaitStep, processCriteria, search, propertyNames, start, count);
+    }
+
+    @Override
+    public int countAvailableBatches(String batchWaitStep, String processCriteria, String search, Collection<String> propertyNames) {
+        return BatchAssignmentManager.countAvailableBatches(batchWaitStep, processCriteria, search, propertyNames);
+    }
+
+    @Override
+    public Map<Integer, String> getBatchNames(Collection<Integer> batchIds) {
+        return BatchAssignmentManager.getBatchNames(batchIds);
+    }
+
+    @Override
+    public Map<Integer, BatchProcessCount> getProcessCounts(Collection<Integer> batchIds, Institution institution) {
+        return BatchAssignmentManager.getProcessCounts(batchIds, institution);
+    }
+
+    @Override
+    public Map<Integer, Date> getBatchStartDates(Collection<Integer> batchIds) {
+        return BatchAssignmentManager.getBatchStartDates(batchIds);
+    }
+
+    @Override
+    public Map<Integer, BatchProgress> getBatchProgress(Collection<Integer> batchIds, String batchWaitStep, Institution institution) {
+        return BatchAssignmentManager.getBatchProgress(batchIds, batchWaitStep, institution);
+    }
+
+    @Override
+    public Map<String, String> getPropertyValues(int processId, Collection<String> propertyNames) {
+        return BatchAssignmentManager.getPropertyValues(processId, propertyNames);
+    }
+
+    @Override
+    public Map<Integer, Map<String, String>> getPropertyValues(Collection<Integer> processIds, Collection<String> propertyNames) {
+        return BatchAssignmentManager.getPropertyValues(processIds, propertyNames);
+    }
+
+    @Override
+    public Map<Integer, Map<String, String>> getBatchPropertyValues(Collection<Integer> batchIds, Collection<String> propertyNames) {
+        return BatchAssignmentManager.getBatchPropertyValues(batchIds, propertyNames);
+    }
+
+    @Override
+    public void saveBatchPropertyValues(int batchId, Map<String, String> propertyValues) throws SQLException {
+        BatchAssignmentManager.saveBatchPropertyValues(batchId, propertyValues);
+    }
+
+    @Override
+    public Map<Integer, Integer> getBatchIdsOfProcesses(Collection<Integer> processIds) {
+        return BatchAssignmentManager.getBatchIdsOfProcesses(processIds);
+    }
+
+    @Override
+    public List<ManifestRow> getManifestRows(int batchId, Institution institution, int afterProcessId, int count) throws SQLException {
+        return BatchAssignmentManager.getManifestRows(batchId, institution, afterProcessId, count);
+    }
+
+    @Override
+    public List<DisplayProperty> getDisplayProperties(int processId) {
+        Process p = ProcessManager.getProcessById(processId);
+        return p == null ? List.of() : PropertyParser.getInstance().getPropertiesForProcess(p);
+    }
+
+    @Override
+    public Batch getBatch(int batchId) {
+        return ProcessManager.getBatchById(batchId);
+    }
+
+    @Override
+    public int createBatch(String batchName, Date startDate) throws SQLException {
+        return BatchAssignmentManager.createBatch(batchName, startDate);
+    }
+
+    @Override
+    public void assignToBatch(int processId, int batchId, String batchWaitStep, int maxSize, Map<String, String> propertyValues,
+            Map<String, String> batchValues, JournalEntry entry) throws SQLException, BatchAssignmentException {
+        BatchAssignmentManager.assignToBatch(processId, batchId, batchWaitStep, maxSize, propertyValues, batchValues, entry);
+    }
+
+    @Override
+    public boolean isBatchClosed(int batchId, String batchWaitStep) throws SQLException {
+        return BatchAssignmentManager.isBatchClosed(batchId, batchWaitStep);
+    }
+
+    @Override
+    public List<WaitStep> getOpenWaitSteps(int batchId, String batchWaitStep) throws SQLException {
+        return BatchAssignmentManager.getOpenWaitSteps(batchId, batchWaitStep);
+    }
+
+    @Override
+    public void closeWaitStep(WaitStep waitStep, User user, JournalEntry entry) throws SQLException {
+        Step step = StepManager.getStepById(waitStep.stepId());
+        if (step == null) {
+            throw new SQLException("Step " + waitStep.stepId() + " does not exist");
+        }
+        CloseStepHelper.closeStep(step, user);
+        JournalWriter.getInstance().add(entry);
+    }
+
+    @Override
+    public List<Integer> getExpiredEmptyBatchIds(Date startedBefore, Collection<String> propertyNames, boolean withoutStoredValues, int count) {
+        return BatchAssignmentManager.getExpiredEmptyBatchIds(startedBefore, propertyNames, withoutStoredValues, count);
+    }
+
+    @Override
+    public boolean deleteEmptyBatch(int batchId) throws SQLException {
+        return BatchAssignmentManager.deleteEmptyBatch(batchId);
+    }
+
+    @Override
+    public List<Integer> getProcessIdsOfBatch(int batchId) {
+        return BatchAssignmentManager.getProcessIdsOfBatch(batchId, null);
+    }
+
+    @Override
+    public List<Integer> getProcessIdsOfBatch(int batchId, Institution institution) {
+        return BatchAssignmentManager.getProcessIdsOfBatch(batchId, institution);
+    }
+
+    @Override
+    public int moveProcesses(int fromBatchId, int toBatchId, Collection<Integer> processIds, String batchWaitStep, int maxSize,
+            Map<String, String> propertyValues, JournalEntry entry) throws SQLException, BatchAssignmentException {
+        return BatchAssignmentManager.moveProcesses(fromBatchId, toBatchId, processIds, batchWaitStep, maxSize, propertyValues, entry);
+    }
+
+    @Override
+    public int mergeBatches(int sourceBatchId, int targetBatchId, String batchWaitStep, int maxSize, Map<String, String> propertyValues,
+            JournalEntry entry) throws SQLException, BatchAssignmentException {
+        return BatchAssignmentManager.mergeBatches(sourceBatchId, targetBatchId, batchWaitStep, maxSize, propertyValues, entry);
+    }
+}
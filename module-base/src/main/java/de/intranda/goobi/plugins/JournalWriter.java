@@ -0,0 +1,200 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.goobi.beans.JournalEntry;
+
+import de.sub.goobi.persistence.managers.JournalManager;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Writes journal entries in the background. The entries are collected in a bounded queue and inserted in batches by a single thread, so the
+ * jobs that lock a batch don't wait for the database for each closed wait step. Assignments and new batches write their entries within their own
+ * transaction instead. The thread is only started by {@link BatchAssignmentLifecycle}, which writes
+ * the remaining entries when the application is shut down, until then and after the shutdown the entries are written directly. If the queue is
+ * full, the entry is written directly as well. Entries of a failed batch insert are written one by one with the journal of Goobi workflow.
+ */
+@Log4j2
+public class JournalWriter {
+
+    private static final int CAPACITY = 10000;
+    private static final int BATCH_SIZE = 200;
+
+    private static final JournalWriter INSTANCE = new JournalWriter(BatchAssignmentManager::saveJournalEntries, JournalManager::saveJournalEntry,
+            CAPACITY, BATCH_SIZE);
+
+    private final JournalSink sink;
+    // writes single entries if the batch insert failed
+    private final EntrySink fallback;
+    private final int batchSize;
+    private final BlockingQueue<JournalEntry> queue;
+    // entries that were added but not written yet
+    private final AtomicInteger pending = new AtomicInteger();
+    // null until the background writing is started
+    private volatile Thread writer;
+    private volatile boolean closed;
+
+    JournalWriter(JournalSink sink, EntrySink fallback, int capacity, int batchSize) {
+        this.sink = sink;
+        this.fallback = fallback;
+        this.batchSize = batchSize;
+        queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    public static JournalWriter getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * start the background writing, the caller must close the writer when the application is shut down
+     */
+    public synchronized void start() {
+        if (writer != null || closed) {
+            return;
+        }
+        Thread thread = new Thread(this::writeContinuously, "batch-assignment-journal");
+        thread.setDaemon(true);
+        thread.start();
+        writer = thread;
+    }
+
+    /**
+     * write the entry in the background
+     *
+     * @param entry the journal entry
+     */
+    public void add(JournalEntry entry) {
+        pending.incrementAndGet();
+        boolean queued;
+        // close() sets the flag under the same monitor, so no entry is queued after it drained the queue
+        synchronized (this) {
+            queued = !closed && writer != null && queue.offer(entry);
+        }
+        if (!queued) {
+            // don't lose entries, the caller waits for the database instead
+            write(List.of(entry));
+        }
+    }
+
+    /**
+     * write all entries that are still in the queue and wait until the entries taken by the background thread are written
+     *
+     * @param timeoutMillis maximum time to wait for the background thread
+     * @return true if all entries were written
+     */
+    public boolean flush(long timeoutMillis) {
+        List<JournalEntry> entries = new ArrayList<>();
+        while (queue.drainTo(entries, batchSize) > 0) {
+            write(entries);
+            entries.clear();
+        }
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (pending.get() > 0 && System.nanoTime() < end) {
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return pending.get() == 0;
+    }
+
+    /**
+     * write the remaining entries and stop the background thread, later entries are written directly
+     *
+     * @param timeoutMillis maximum time to wait for the background thread
+     * @return true if all entries were written
+     */
+    public boolean close(long timeoutMillis) {
+        Thread thread;
+        synchronized (this) {
+            closed = true;
+            thread = writer;
+        }
+        boolean written = flush(timeoutMillis);
+        if (thread != null) {
+            thread.interrupt();
+        }
+        return written;
+    }
+
+    public int getPendingEntries() {
+        return pending.get();
+    }
+
+    private void writeContinuously() {
+        List<JournalEntry> entries = new ArrayList<>(batchSize);
+        while (true) {
+            try {
+                entries.add(queue.take());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            queue.drainTo(entries, batchSize - 1);
+            write(entries);
+            entries.clear();
+        }
+    }
+
+    private void write(List<JournalEntry> entries) {
+        try {
+            sink.write(entries);
+        } catch (SQLException | RuntimeException e) {
+            log.warn("Unable to write {} journal entries at once, write them one by one", entries.size(), e);
+            entries.forEach(this::writeSingle);
+        } finally {
+            pending.addAndGet(-entries.size());
+        }
+    }
+
+    private void writeSingle(JournalEntry entry) {
+        try {
+            fallback.write(entry);
+        } catch (SQLException | RuntimeException e) {
+            log.error("Unable to write the journal entry of object {}: {}", entry.getObjectId(), entry.getContent(), e);
+        }
+    }
+
+    /**
+     * Target of the journal entries
+     */
+    @FunctionalInterface
+    interface JournalSink {
+        void write(List<JournalEntry> entries) throws SQLException;
+    }
+
+    /**
+     * Target of single journal entries
+     */
+    @FunctionalInterface
+    interface EntrySink {
+        void write(JournalEntry entry) throws SQLException;
+    }
+}
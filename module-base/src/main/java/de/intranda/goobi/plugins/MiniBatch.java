@@ -3,17 +3,43 @@ package de.intranda.goobi.plugins;
 import java.io.Serializable;
 import java.util.List;
 
-import org.goobi.production.properties.DisplayProperty;
+import lombok.Value;
 
-import lombok.Getter;
-import lombok.Setter;
-
-@Getter
-@Setter
+/**
+ * Summary of a batch as it is shown in the list of batches. The summaries are shared between the sessions by the {@link OpenBatchRegistry}, so
+ * they can't be changed, changes create a copy.
+ */
+@Value
 public class MiniBatch implements Serializable {
     private static final long serialVersionUID = -7474189753500106239L;
     private Integer batchId;
     private String batchName;
     private int numberOfProcesses;
-    private List<DisplayProperty> properties;
+    // processes that reached the wait step and processes that are still in the steps before it
+    private int processesAtWaitStep;
+    private int processesUpstream;
+    // summaries of the values of the configured properties that are stored with the batch
+    private List<BatchPropertySummary> properties;
+
+    public MiniBatch(Integer batchId, String batchName, int numberOfProcesses, int processesAtWaitStep, int processesUpstream,
+            List<BatchPropertySummary> properties) {
+        this.batchId = batchId;
+        this.batchName = batchName;
+        this.numberOfProcesses = numberOfProcesses;
+        this.processesAtWaitStep = processesAtWaitStep;
+        this.processesUpstream = processesUpstream;
+        this.properties = List.copyOf(properties);
+    }
+
+    /**
+     * create a copy of this batch with a different number of processes. Added or removed processes are at the assignment step, so the difference
+     * is applied to the processes before the wait step.
+     *
+     * @param number new number of processes
+     * @return copy of the batch
+     */
+    public MiniBatch withNumberOfProcesses(int number) {
+        int upstream = Math.max(0, processesUpstream + number - numberOfProcesses);
+        return new MiniBatch(batchId, batchName, Math.max(0, number), processesAtWaitStep, upstream, properties);
+    }
 }
@@ -0,0 +1,287 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Node wide registry of the batches that are open for the assignment. The list of open batches is kept per wait step and visibility key, users with
+ * the same visibility restrictions share the same list and the same batch summaries. The plugin instances update the registry in place whenever
+ * they assign processes, create new batches or lock a batch, changes from outside of the plugin are picked up when an entry expires. The lists and
+ * summaries are loaded outside of the synchronization, a loaded entry is only kept if no change happened while it was loaded.
+ */
+public class OpenBatchRegistry {
+
+    /**
+     * visibility key of users without restrictions, they see all processes of a batch
+     */
+    public static final String UNRESTRICTED = "|";
+
+    private static final long DEFAULT_TIME_TO_LIVE = TimeUnit.MINUTES.toMillis(5);
+
+    private static final OpenBatchRegistry INSTANCE = new OpenBatchRegistry(DEFAULT_TIME_TO_LIVE);
+
+    // list of open batch ids for each wait step and visibility key
+    private final Map<RegistryKey, BatchList> batchLists = new ConcurrentHashMap<>();
+
+    // summaries of the batches for each wait step and visibility key
+    private final Map<RegistryKey, Map<Integer, MiniBatch>> summaries = new ConcurrentHashMap<>();
+
+    private final long timeToLive;
+
+    // incremented with every change, entries that were loaded while the version changed may be outdated
+    private final AtomicLong version = new AtomicLong();
+
+    OpenBatchRegistry(long timeToLive) {
+        this.timeToLive = timeToLive;
+    }
+
+    public static OpenBatchRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * get the ids of all open batches of the wait step, newest first
+     *
+     * @param batchWaitStep title of the wait step
+     * @param visibilityKey key for the restrictions of the current user, users with the same key see the same batches
+     * @param loader used to load the list from the database if it is not known yet or expired
+     * @return unmodifiable list of batch ids
+     */
+    public List<Integer> getBatchIds(String batchWaitStep, String visibilityKey, Supplier<List<Integer>> loader) {
+        RegistryKey key = new RegistryKey(batchWaitStep, visibilityKey);
+        long now = System.currentTimeMillis();
+        BatchList list = batchLists.get(key);
+        if (list == null || now - list.loaded > timeToLive) {
+            long loadVersion = version.get();
+            list = new BatchList(loader.get(), now);
+            synchronized (this) {
+                // a list loaded during a change may contain a batch that was locked in the meantime, it is only used for this request
+                if (version.get() == loadVersion) {
+                    batchLists.put(key, list);
+                    // the summaries may be outdated as well
+                    summaries.remove(key);
+                }
+            }
+        }
+        return list.ids;
+    }
+
+    /**
+     * get the summaries of the given batches, missing summaries are created with the loader and kept for the following requests
+     *
+     * @param batchWaitStep title of the wait step
+     * @param visibilityKey key for the restrictions of the current user
+     * @param batchIds ids of the batches
+     * @param loader creates the summaries for the batch ids that are not known yet
+     * @return summaries in the order of the given ids
+     */
+    public List<MiniBatch> getSummaries(String batchWaitStep, String visibilityKey, List<Integer> batchIds,
+            Function<List<Integer>, Map<Integer, MiniBatch>> loader) {
+        Map<Integer, MiniBatch> known = getSummaryMap(new RegistryKey(batchWaitStep, visibilityKey));
+        Map<Integer, MiniBatch> requested = new HashMap<>();
+        for (Integer id : batchIds) {
+            MiniBatch mb = known.get(id);
+            if (mb != null) {
+                requested.put(id, mb);
+            }
+        }
+        List<Integer> missing = batchIds.stream().filter(id -> !requested.containsKey(id)).toList();
+        if (!missing.isEmpty()) {
+            long loadVersion = version.get();
+            Map<Integer, MiniBatch> loaded = loader.apply(missing);
+            requested.putAll(loaded);
+            synchronized (this) {
+                // summaries loaded during a change may contain outdated counts, they are only used for this request
+                if (version.get() == loadVersion) {
+                    known.putAll(loaded);
+                }
+            }
+        }
+        List<MiniBatch> answer = new ArrayList<>();
+        for (Integer id : batchIds) {
+            MiniBatch mb = requested.get(id);
+            if (mb != null) {
+                answer.add(mb);
+            }
+        }
+        return answer;
+    }
+
+    /**
+     * a new batch was created, it is added to the list of the user who created it, the lists of other users of the wait step are reloaded
+     *
+     * @param batchWaitStep title of the wait step
+     * @param visibilityKey key for the restrictions of the user who created the batch
+     * @param summary summary of the new batch
+     */
+    public synchronized void batchCreated(String batchWaitStep, String visibilityKey, MiniBatch summary) {
+        version.incrementAndGet();
+        RegistryKey ownKey = new RegistryKey(batchWaitStep, visibilityKey);
+        getSummaryMap(ownKey).put(summary.getBatchId(), summary);
+        for (RegistryKey key : new ArrayList<>(batchLists.keySet())) {
+            if (key.equals(ownKey)) {
+                batchLists.computeIfPresent(key, (k, list) -> list.prepend(summary.getBatchId()));
+            } else if (key.batchWaitStep().equals(batchWaitStep)) {
+                batchLists.remove(key);
+            }
+        }
+    }
+
+    /**
+     * a process was moved from one batch to another batch by a user without restrictions
+     *
+     * @param previousBatchId id of the batch the process was assigned to before, can be null
+     * @param newBatchId id of the batch the process is assigned to now
+     */
+    public void processMoved(Integer previousBatchId, Integer newBatchId) {
+        processMoved(previousBatchId, newBatchId, UNRESTRICTED);
+    }
+
+    /**
+     * a process was moved from one batch to another batch. The counts of users without restrictions and of users with the restrictions of the user
+     * who moved the process are updated in place, they see the moved process. Other users may not see it, so their summaries of both batches are
+     * loaded again with the next request
+     *
+     * @param previousBatchId id of the batch the process was assigned to before, can be null
+     * @param newBatchId id of the batch the process is assigned to now
+     * @param visibilityKey key for the restrictions of the user who moved the process
+     */
+    public synchronized void processMoved(Integer previousBatchId, Integer newBatchId, String visibilityKey) {
+        if (previousBatchId != null && previousBatchId.equals(newBatchId)) {
+            return;
+        }
+        version.incrementAndGet();
+        for (Map.Entry<RegistryKey, Map<Integer, MiniBatch>> entry : summaries.entrySet()) {
+            Map<Integer, MiniBatch> map = entry.getValue();
+            String key = entry.getKey().visibilityKey();
+            if (!UNRESTRICTED.equals(key) && !key.equals(visibilityKey)) {
+                if (previousBatchId != null) {
+                    map.remove(previousBatchId);
+                }
+                map.remove(newBatchId);
+                continue;
+            }
+            if (previousBatchId != null) {
+                map.computeIfPresent(previousBatchId, (id, mb) -> mb.withNumberOfProcesses(mb.getNumberOfProcesses() - 1));
+            }
+            map.computeIfPresent(newBatchId, (id, mb) -> mb.withNumberOfProcesses(mb.getNumberOfProcesses() + 1));
+        }
+    }
+
+    /**
+     * the batch was locked and is not available for further assignments
+     *
+     * @param batchId id of the locked batch
+     */
+    public void batchLocked(Integer batchId) {
+        removeBatch(batchId);
+    }
+
+    /**
+     * the empty batch was deleted
+     *
+     * @param batchId id of the deleted batch
+     */
+    public void batchDeleted(Integer batchId) {
+        removeBatch(batchId);
+    }
+
+    /**
+     * forget the summaries of the given batches, they are loaded again with the next request
+     *
+     * @param batchIds ids of the batches
+     */
+    public synchronized void invalidate(Collection<Integer> batchIds) {
+        version.incrementAndGet();
+        for (Map<Integer, MiniBatch> map : summaries.values()) {
+            map.keySet().removeAll(batchIds);
+        }
+    }
+
+    /**
+     * forget the lists of open batches of the wait step, they are loaded again with the next request
+     *
+     * @param batchWaitStep title of the wait step
+     */
+    public synchronized void invalidateBatchLists(String batchWaitStep) {
+        version.incrementAndGet();
+        batchLists.keySet().removeIf(key -> key.batchWaitStep().equals(batchWaitStep));
+    }
+
+    /**
+     * remove all entries
+     */
+    public synchronized void clear() {
+        version.incrementAndGet();
+        batchLists.clear();
+        summaries.clear();
+    }
+
+    private synchronized void removeBatch(Integer batchId) {
+        version.incrementAndGet();
+        for (Map<Integer, MiniBatch> map : summaries.values()) {
+            map.remove(batchId);
+        }
+        batchLists.replaceAll((key, list) -> list.remove(batchId));
+    }
+
+    private Map<Integer, MiniBatch> getSummaryMap(RegistryKey key) {
+        return summaries.computeIfAbsent(key, k -> new ConcurrentHashMap<>());
+    }
+
+    private record RegistryKey(String batchWaitStep, String visibilityKey) {
+    }
+
+    private static class BatchList {
+        private final List<Integer> ids;
+        private final long loaded;
+
+        BatchList(List<Integer> ids, long loaded) {
+            this.ids = ids.stream().distinct().toList();
+            this.loaded = loaded;
+        }
+
+        BatchList prepend(Integer batchId) {
+            List<Integer> list = new ArrayList<>();
+            list.add(batchId);
+            list.addAll(ids);
+            return new BatchList(list, loaded);
+        }
+
+        BatchList remove(Integer batchId) {
+            if (!ids.contains(batchId)) {
+                return this;
+            }
+            List<Integer> list = new ArrayList<>(ids);
+            list.remove(batchId);
+            return new BatchList(list, loaded);
+        }
+    }
+}
@@ -1,8 +1,8 @@
 package de.intranda.goobi.plugins;
 
-import lombok.Data;
+import lombok.Value;
 
-@Data
+@Value
 public class PropertyDefinition {
     private String name;
     private String vocabularyFilterField;
@@ -0,0 +1,256 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import io.goobi.workflow.api.vocabulary.VocabularyAPIManager;
+import io.goobi.workflow.api.vocabulary.helper.ExtendedVocabularyRecord;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Cache for the field values of vocabulary records that are used to filter the possible values of a property and for the main values that are
+ * shown as labels of the records. The cache is shared between all sessions, entries expire after a fixed time and the number of entries is
+ * limited, the least recently used entry is removed first.
+ */
+@Log4j2
+public class VocabularyFilterCache {
+
+    private static final long DEFAULT_TIME_TO_LIVE = TimeUnit.MINUTES.toMillis(15);
+    private static final int DEFAULT_MAXIMUM_SIZE = 10000;
+    private static final int PREFETCH_THREADS = 4;
+
+    private static final VocabularyFilterCache INSTANCE = new VocabularyFilterCache(VocabularyFilterCache::loadFieldValue,
+            VocabularyFilterCache::loadMainValue, DEFAULT_TIME_TO_LIVE, DEFAULT_MAXIMUM_SIZE);
+
+    private static final ExecutorService PREFETCH_EXECUTOR = Executors.newFixedThreadPool(PREFETCH_THREADS, r -> {
+        Thread t = new Thread(r, "batch-assignment-vocabulary-prefetch");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Map<CacheKey, CacheEntry> entries;
+    private final BiFunction<Long, String, Optional<String>> fieldLoader;
+    private final Function<Long, Optional<String>> labelLoader;
+    private final long timeToLive;
+
+    VocabularyFilterCache(BiFunction<Long, String, Optional<String>> fieldLoader, Function<Long, Optional<String>> labelLoader, long timeToLive,
+            int maximumSize) {
+        this.fieldLoader = fieldLoader;
+        this.labelLoader = labelLoader;
+        this.timeToLive = timeToLive;
+        // access order, so the eldest entry is the least recently used one and each insert removes at most one entry
+        entries = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<CacheKey, CacheEntry> eldest) {
+                return size() > maximumSize;
+            }
+        });
+    }
+
+    public static VocabularyFilterCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * check if the given field of the vocabulary record contains the expected value
+     *
+     * @param recordId id of the vocabulary record
+     * @param fieldName name of the field definition to check
+     * @param expectedValue value the field must contain
+     * @return true if the record matches the filter
+     */
+    public boolean matches(String recordId, String fieldName, String expectedValue) {
+        Long id = parseRecordId(recordId);
+        if (id == null) {
+            return false;
+        }
+        Optional<String> value = getValue(CacheKey.field(id, fieldName));
+        if (value.isEmpty()) {
+            log.warn("Vocabulary record doesn't contain filter field: {}", fieldName);
+            return false;
+        }
+        return value.get().equals(expectedValue);
+    }
+
+    /**
+     * load all records that are not cached yet in parallel, so that the following calls to {@link #matches(String, String, String)} can be
+     * answered from the cache
+     *
+     * @param recordIds ids of the vocabulary records
+     * @param fieldName name of the field definition to load
+     */
+    public void prefetch(Collection<String> recordIds, String fieldName) {
+        prefetch(recordIds, id -> CacheKey.field(id, fieldName));
+    }
+
+    private void prefetch(Collection<String> recordIds, Function<Long, CacheKey> keyOfRecord) {
+        List<Future<?>> jobs = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (String recordId : recordIds) {
+            Long id = parseRecordId(recordId);
+            if (id == null) {
+                continue;
+            }
+            CacheKey key = keyOfRecord.apply(id);
+            CacheEntry entry = entries.get(key);
+            if (entry == null || entry.isExpired(now, timeToLive)) {
+                jobs.add(PREFETCH_EXECUTOR.submit(() -> getValue(key)));
+            }
+        }
+        for (Future<?> job : jobs) {
+            try {
+                job.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                log.warn("Unable to prefetch vocabulary record", e.getCause());
+            }
+        }
+    }
+
+    /**
+     * get the label of a vocabulary record, independent of the possible values of the property in the current process
+     *
+     * @param recordId id of the vocabulary record
+     * @return the main value of the record or an empty optional, if the record can't be read
+     */
+    public Optional<String> getLabel(String recordId) {
+        Long id = parseRecordId(recordId);
+        if (id == null) {
+            return Optional.empty();
+        }
+        try {
+            return getValue(CacheKey.label(id));
+        } catch (RuntimeException e) {
+            log.warn("Unable to read vocabulary record {}", recordId, e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * load the labels of all records that are not cached yet in parallel
+     *
+     * @param recordIds ids of the vocabulary records
+     */
+    public void prefetchLabels(Collection<String> recordIds) {
+        prefetch(recordIds, CacheKey::label);
+    }
+
+    /**
+     * stop the threads that load the records in the background, called when the plugin is unloaded
+     */
+    static void shutdown() {
+        PREFETCH_EXECUTOR.shutdownNow();
+    }
+
+    /**
+     * remove all cached entries
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    private Optional<String> getValue(CacheKey key) {
+        long now = System.currentTimeMillis();
+        CacheEntry entry = entries.get(key);
+        if (entry != null && !entry.isExpired(now, timeToLive)) {
+            return entry.value();
+        }
+        Optional<String> value = key.kind() == Kind.LABEL ? labelLoader.apply(key.recordId()) : fieldLoader.apply(key.recordId(), key.fieldName());
+        entries.put(key, new CacheEntry(value, now));
+        return value;
+    }
+
+    private static Long parseRecordId(String recordId) {
+        try {
+            return Long.parseLong(recordId);
+        } catch (NumberFormatException e) {
+            log.error("Unable to parse vocabulary recordId: {}", recordId);
+            return null;
+        }
+    }
+
+    private static Optional<String> loadFieldValue(Long id, String fieldName) {
+        long start = System.nanoTime();
+        try {
+            ExtendedVocabularyRecord rec = VocabularyAPIManager.getInstance().vocabularyRecords().get(id);
+            return rec.getFieldValueForDefinitionName(fieldName);
+        } finally {
+            BatchAssignmentMetrics.getInstance().recordTime(BatchAssignmentMetrics.VOCABULARY_LOOKUP, start);
+        }
+    }
+
+    private static Optional<String> loadMainValue(Long id) {
+        long start = System.nanoTime();
+        try {
+            ExtendedVocabularyRecord rec = VocabularyAPIManager.getInstance().vocabularyRecords().get(id);
+            return Optional.ofNullable(rec.getMainValue());
+        } finally {
+            BatchAssignmentMetrics.getInstance().recordTime(BatchAssignmentMetrics.VOCABULARY_LOOKUP, start);
+        }
+    }
+
+    /**
+     * Kind of the cached value of a record
+     */
+    private enum Kind {
+        // the value of a field definition, used by the filter
+        FIELD,
+        // the main value of the record, shown as its label
+        LABEL
+    }
+
+    private record CacheKey(long recordId, Kind kind, String fieldName) {
+        static CacheKey field(long recordId, String fieldName) {
+            return new CacheKey(recordId, Kind.FIELD, fieldName);
+        }
+
+        static CacheKey label(long recordId) {
+            return new CacheKey(recordId, Kind.LABEL, null);
+        }
+    }
+
+    private record CacheEntry(Optional<String> value, long loaded) {
+        boolean isExpired(long now, long timeToLive) {
+            return now - loaded > timeToLive;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.configuration.HierarchicalConfiguration;
+import org.apache.commons.configuration.XMLConfiguration;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BatchAssignmentConfigurationTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testParse() throws Exception {
+        Path file = writeConfiguration("<batchWaitStep>wait</batchWaitStep><batchListPageSize>0</batchListPageSize>"
+                + "<automaticLock maxProcesses=\"50\" maxAgeMinutes=\"60\" /><emptyBatchCleanup maxAgeDays=\"30\" />"
+                + "<property vocabularyPropertyFilterField=\"Working\" vocabularyPropertyFilterValue=\"Yes\">Scanner</property>"
+                + "<property>Opening angle</property>");
+        BatchAssignmentConfiguration configuration = BatchAssignmentConfiguration.parse(load(file));
+
+        assertEquals("wait", configuration.getBatchWaitStep());
+        assertEquals(1, configuration.getBatchPageSize());
+        assertFalse(configuration.isAutomaticAssignment());
+        assertTrue(configuration.isAutomaticLock());
+        assertEquals(50, configuration.getLockMaxProcesses());
+        assertEquals(60, configuration.getLockMaxAgeMinutes());
+        assertEquals(30, configuration.getEmptyBatchMaxAgeDays());
+        assertFalse(configuration.isEmptyBatchWithoutValues());
+        assertEquals(List.of("Scanner", "Opening angle"), configuration.getPropertyNames());
+        assertEquals("Working", configuration.getPropertyDefinition("Scanner").getVocabularyFilterField());
+        assertNull(configuration.getPropertyDefinition("Opening angle").getVocabularyFilterValue());
+        assertTrue(configuration.isPropertyConfigured("Opening angle"));
+        assertFalse(configuration.isPropertyConfigured("Shelfmark"));
+    }
+
+    @Test
+    public void testFirstDefinitionWins() {
+        BatchAssignmentConfiguration configuration = new BatchAssignmentConfiguration("wait", 20, false, false, 0, 0, 0,
+                List.of(new PropertyDefinition("Scanner", "Working", "Yes"), new PropertyDefinition("Scanner", null, null)));
+        assertEquals(List.of("Scanner"), configuration.getPropertyNames());
+        assertEquals("Yes", configuration.getPropertyDefinition("Scanner").getVocabularyFilterValue());
+    }
+
+    @Test
+    public void testReloadAfterChange() throws Exception {
+        Path file = writeConfiguration("<batchWaitStep>wait</batchWaitStep>");
+        AtomicInteger loads = new AtomicInteger();
+        String key = "test|" + file;
+
+        BatchAssignmentConfiguration first = BatchAssignmentConfiguration.get(key, file, () -> {
+            loads.incrementAndGet();
+            return load(file);
+        });
+        BatchAssignmentConfiguration second = BatchAssignmentConfiguration.get(key, file, () -> {
+            loads.incrementAndGet();
+            return load(file);
+        });
+        assertSame(first, second);
+        assertEquals(1, loads.get());
+
+        Files.writeString(file, Files.readString(file).replace("wait", "done"));
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 10000));
+        BatchAssignmentConfiguration third = BatchAssignmentConfiguration.get(key, file, () -> {
+            loads.incrementAndGet();
+            return load(file);
+        });
+        assertEquals(2, loads.get());
+        assertEquals("done", third.getBatchWaitStep());
+    }
+
+    private Path writeConfiguration(String content) throws IOException {
+        Path file = folder.newFile("plugin_test.xml").toPath();
+        Files.writeString(file, "<config_plugin><config><project>*</project><step>*</step>" + content + "</config></config_plugin>");
+        return file;
+    }
+
+    private static HierarchicalConfiguration load(Path file) {
+        try {
+            return new XMLConfiguration(file.toFile()).configurationAt("config");
+        } catch (ConfigurationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
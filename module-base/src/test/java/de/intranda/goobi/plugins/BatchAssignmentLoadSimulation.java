@@ -0,0 +1,274 @@
+package de.intranda.goobi.plugins;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.goobi.beans.GoobiProperty;
+import org.goobi.beans.Process;
+import org.goobi.beans.Processproperty;
+import org.goobi.beans.Step;
+
+import de.intranda.goobi.plugins.BatchAssignmentException.Reason;
+import de.sub.goobi.config.ConfigurationHelper;
+import lombok.Getter;
+
+/**
+ * Load simulation with many operators that list, create, assign and lock batches at the same time. Each operator drives its own instance of the
+ * plugin against a shared in-memory data source, the shared caches and locks of the plugin are used as in production. After the run the final
+ * state is checked for oversized batches, processes added to a batch after it was locked and processes that left a locked batch.
+ *
+ * Run with <code>java -cp module-benchmark/target/benchmarks.jar de.intranda.goobi.plugins.BatchAssignmentLoadSimulation [operators] [seconds]</code>
+ * after <code>mvn -P benchmark package</code>.
+ */
+public class BatchAssignmentLoadSimulation {
+
+    static final String LIST = "list";
+    static final String ASSIGN = "assign";
+    static final String LOCK = "lock";
+
+    private static final String WAIT_STEP = "wait for batch";
+
+    private static final List<PropertyDefinition> DEFINITIONS = List.of(new PropertyDefinition("Scanner", null, null),
+            new PropertyDefinition("Opening angle", null, null));
+
+    private final int operators;
+    private final long durationMillis;
+
+    // chance that an operator creates a new batch instead of using a listed one
+    private final double newBatchRatio;
+    // chance that an operator locks the batch after the assignment
+    private final double lockRatio;
+
+    private final InMemoryBatchDataSource dataSource = new InMemoryBatchDataSource();
+    // locks the batches as the plugin does, with a lock job that closes the wait steps in the background
+    private final BatchAssignmentService service = new BatchAssignmentService(
+            new BatchAssignmentConfiguration(WAIT_STEP, 20, false, false, 0, 0, 0, DEFINITIONS), dataSource);
+    private final VocabularyFilterCache vocabularyCache = new VocabularyFilterCache((id, field) -> Optional.empty(), id -> Optional.empty(),
+            TimeUnit.HOURS.toMillis(1), 100);
+
+    private final Map<String, MetricsHistogram> latencies = new ConcurrentHashMap<>();
+    private final Map<Reason, LongAdder> rejections = new ConcurrentHashMap<>();
+    private final LongAdder operations = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    // members of each batch at the moment it was locked
+    private final Map<Integer, Set<Integer>> lockedMembers = new ConcurrentHashMap<>();
+
+    public BatchAssignmentLoadSimulation(int operators, long durationMillis, double newBatchRatio, double lockRatio) {
+        this.operators = operators;
+        this.durationMillis = durationMillis;
+        this.newBatchRatio = newBatchRatio;
+        this.lockRatio = lockRatio;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int operators = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+        Report report = new BatchAssignmentLoadSimulation(operators, TimeUnit.SECONDS.toMillis(seconds), 0.05, 0.02).run();
+        System.out.println(report); //NOSONAR
+        if (!report.getViolations().isEmpty()) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * run all operators until the duration is over and check the final state
+     *
+     * @return the measured values and the found violations
+     * @throws InterruptedException if the simulation was interrupted
+     */
+    public Report run() throws InterruptedException {
+        OpenBatchRegistry.getInstance().clear();
+        BatchPropertyIndex.getInstance().clear();
+        int maxSize = ConfigurationHelper.getInstance().getBatchMaxSize();
+
+        ExecutorService executor = Executors.newFixedThreadPool(operators);
+        CountDownLatch start = new CountDownLatch(1);
+        long begin = System.nanoTime();
+        long deadline = begin + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+        for (int i = 0; i < operators; i++) {
+            int operator = i;
+            executor.execute(() -> {
+                try {
+                    start.await();
+                    while (System.nanoTime() < deadline) {
+                        runOperation(operator);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        if (!executor.awaitTermination(durationMillis + TimeUnit.MINUTES.toMillis(1), TimeUnit.MILLISECONDS)) {
+            executor.shutdownNow();
+        }
+        long elapsed = System.nanoTime() - begin;
+        return new Report(operators, elapsed, operations.sum(), errors.sum(), latencies, rejections, checkInvariants(maxSize));
+    }
+
+    /**
+     * one operator opens the plugin for a new process, assigns it to a listed or a new batch and sometimes locks the batch
+     */
+    private void runOperation(int operator) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Map<String, String> values = Map.of("Scanner", "scanner " + random.nextInt(5), "Opening angle", String.valueOf(random.nextInt(3) * 90));
+        Process process = createProcess(values);
+        Step step = new Step();
+        step.setTitel("assign batch");
+        step.setProzess(process);
+
+        BatchAssignmentStepPlugin plugin = new BatchAssignmentStepPlugin();
+        plugin.configure(step, WAIT_STEP, 20, DEFINITIONS, dataSource, vocabularyCache);
+        plugin.setProperties(plugin.filterProperties(dataSource.getDisplayProperties(process.getId())));
+
+        long begin = System.nanoTime();
+        plugin.collectAvailableBatches();
+        record(LIST, begin);
+
+        MiniBatch target;
+        List<MiniBatch> listed = plugin.getBatches();
+        if (listed.isEmpty() || random.nextDouble() < newBatchRatio) {
+            target = new MiniBatch(dataSource.createBatch("operator " + operator), null, 0, 0, 0, List.of());
+            OpenBatchRegistry.getInstance().invalidateBatchLists(WAIT_STEP);
+        } else {
+            target = listed.get(random.nextInt(listed.size()));
+        }
+
+        begin = System.nanoTime();
+        try {
+            plugin.assignToBatch(target, "operator " + operator);
+        } catch (BatchAssignmentException e) {
+            rejections.computeIfAbsent(e.getReason(), k -> new LongAdder()).increment();
+            return;
+        } catch (SQLException | RuntimeException e) {
+            errors.increment();
+            return;
+        } finally {
+            record(ASSIGN, begin);
+        }
+
+        if (random.nextDouble() < lockRatio) {
+            begin = System.nanoTime();
+            try {
+                lockBatch(target.getBatchId());
+            } catch (BatchAssignmentException e) {
+                rejections.computeIfAbsent(e.getReason(), k -> new LongAdder()).increment();
+            } catch (SQLException | RuntimeException e) {
+                errors.increment();
+            } finally {
+                record(LOCK, begin);
+            }
+        }
+    }
+
+    private Process createProcess(Map<String, String> values) {
+        Process process = new Process();
+        process.setId(dataSource.createProcess(null, values));
+        List<GoobiProperty> properties = new ArrayList<>();
+        for (Map.Entry<String, String> value : values.entrySet()) {
+            Processproperty property = new Processproperty();
+            property.setTitel(value.getKey());
+            property.setWert(value.getValue());
+            property.setProzess(process);
+            properties.add(property);
+        }
+        process.setEigenschaften(properties);
+        return process;
+    }
+
+    /**
+     * lock the batch with the service, the lock job closes the wait steps of the in-memory data source in the background
+     */
+    private void lockBatch(int batchId) throws SQLException, BatchAssignmentException {
+        service.lockBatch(batchId, null);
+        // no process can join or leave the batch while the job is running or after it closed the wait steps, the first lock counts
+        lockedMembers.putIfAbsent(batchId, new HashSet<>(dataSource.getProcessIdsOfBatch(batchId)));
+    }
+
+    private void record(String name, long startNanos) {
+        operations.increment();
+        latencies.computeIfAbsent(name, k -> new MetricsHistogram()).record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos));
+    }
+
+    private List<String> checkInvariants(int maxSize) {
+        List<String> violations = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> size : new TreeMap<>(dataSource.getBatchSizes()).entrySet()) {
+            if (size.getValue() > maxSize) {
+                violations.add("batch " + size.getKey() + " contains " + size.getValue() + " processes");
+            }
+        }
+        for (Map.Entry<Integer, Set<Integer>> locked : new TreeMap<>(lockedMembers).entrySet()) {
+            Set<Integer> members = new HashSet<>(dataSource.getProcessIdsOfBatch(locked.getKey()));
+            for (Integer processId : members) {
+                if (!locked.getValue().contains(processId)) {
+                    violations.add("process " + processId + " was added to batch " + locked.getKey() + " after it was locked");
+                }
+            }
+            for (Integer processId : locked.getValue()) {
+                if (!members.contains(processId)) {
+                    violations.add("process " + processId + " of locked batch " + locked.getKey() + " is part of batch "
+                            + dataSource.getBatchOfProcess(processId) + " as well");
+                }
+            }
+        }
+        return violations;
+    }
+
+    /**
+     * Result of a simulation, latencies are measured in microseconds
+     */
+    @Getter
+    public static class Report {
+        private final int operators;
+        private final long elapsedNanos;
+        private final long operations;
+        private final long errors;
+        private final Map<String, BatchAssignmentMetrics.Statistics> latencies = new TreeMap<>();
+        private final Map<Reason, Long> rejections = new EnumMap<>(Reason.class);
+        private final List<String> violations;
+
+        Report(int operators, long elapsedNanos, long operations, long errors, Map<String, MetricsHistogram> latencies,
+                Map<Reason, LongAdder> rejections, List<String> violations) {
+            this.operators = operators;
+            this.elapsedNanos = elapsedNanos;
+            this.operations = operations;
+            this.errors = errors;
+            latencies.forEach((name, histogram) -> this.latencies.put(name, new BatchAssignmentMetrics.Statistics(histogram)));
+            rejections.forEach((reason, count) -> this.rejections.put(reason, count.sum()));
+            this.violations = violations;
+        }
+
+        public double getThroughput() {
+            return elapsedNanos == 0 ? 0 : operations * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("%d operators, %d operations in %.1f s, %.0f operations/s, %d errors%n", operators, operations,
+                    elapsedNanos / 1e9, getThroughput(), errors));
+            latencies.forEach((name, s) -> sb.append(String.format("%-8s count %8d  mean %8.0f  p50 %8d  p95 %8d  p99 %8d  max %8d us%n", name,
+                    s.getCount(), s.getMean(), s.getP50(), s.getP95(), s.getP99(), s.getMax())));
+            rejections.forEach((reason, count) -> sb.append(String.format("rejected %-12s %d%n", reason, count)));
+            sb.append(violations.size()).append(" invariant violations").append(System.lineSeparator());
+            violations.stream().limit(20).forEach(v -> sb.append("  ").append(v).append(System.lineSeparator()));
+            return sb.toString();
+        }
+    }
+}
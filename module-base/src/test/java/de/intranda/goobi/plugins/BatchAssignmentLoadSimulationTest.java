@@ -0,0 +1,51 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.easymock.EasyMock;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.powermock.api.easymock.PowerMock;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import de.intranda.goobi.plugins.BatchAssignmentLoadSimulation.Report;
+import de.sub.goobi.config.ConfigurationHelper;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({ ConfigurationHelper.class })
+@PowerMockIgnore({ "javax.management.*", "javax.xml.*", "org.xml.*", "org.w3c.*", "javax.net.ssl.*", "jdk.internal.reflect.*" })
+public class BatchAssignmentLoadSimulationTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setUp() throws Exception {
+        PowerMock.mockStatic(ConfigurationHelper.class);
+        ConfigurationHelper configurationHelper = EasyMock.createMock(ConfigurationHelper.class);
+        EasyMock.expect(ConfigurationHelper.getInstance()).andReturn(configurationHelper).anyTimes();
+        // small batches, so many operators compete for the last free places
+        EasyMock.expect(configurationHelper.getBatchMaxSize()).andReturn(5).anyTimes();
+        EasyMock.expect(configurationHelper.getTemporaryFolder()).andReturn(folder.getRoot().getAbsolutePath()).anyTimes();
+        EasyMock.replay(configurationHelper);
+        PowerMock.replay(ConfigurationHelper.class);
+    }
+
+    @Test
+    public void testConcurrentOperatorsKeepInvariants() throws Exception {
+        Report report = new BatchAssignmentLoadSimulation(16, 1000, 0.1, 0.1).run();
+
+        assertEquals(List.of(), report.getViolations());
+        assertEquals(0, report.getErrors());
+        assertTrue(report.getOperations() > 0);
+        assertTrue(report.getLatencies().containsKey(BatchAssignmentLoadSimulation.ASSIGN));
+    }
+}
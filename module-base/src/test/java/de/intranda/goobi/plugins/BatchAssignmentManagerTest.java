@@ -0,0 +1,192 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.goobi.beans.Institution;
+import org.junit.Test;
+
+import de.intranda.goobi.plugins.BatchAssignmentException.Reason;
+import de.intranda.goobi.plugins.BatchAssignmentManager.PropertyChanges;
+import de.intranda.goobi.plugins.BatchAssignmentManager.SqlQuery;
+import de.sub.goobi.helper.enums.StepStatus;
+
+public class BatchAssignmentManagerTest {
+
+    private static long countPlaceholders(String sql) {
+        return sql.chars().filter(c -> c == '?').count();
+    }
+
+    private static void assertPlaceholders(SqlQuery query) {
+        assertEquals(query.sql(), countPlaceholders(query.sql()), query.parameter().size());
+    }
+
+    private static Reason checkTargetBatch(boolean exists, int otherProcesses, int maxSize, boolean closed) {
+        try {
+            BatchAssignmentManager.checkTargetBatch(5, exists, otherProcesses, maxSize, closed);
+            return null;
+        } catch (BatchAssignmentException e) {
+            assertEquals(5, e.getBatchId());
+            return e.getReason();
+        }
+    }
+
+    @Test
+    public void testAvailableBatchPage() {
+        SqlQuery query = BatchAssignmentManager.createAvailableBatchQuery("wait", "", null, List.of("Scanner"), 40, 20);
+        assertPlaceholders(query);
+        assertTrue(query.sql().endsWith("ORDER BY batches.id DESC LIMIT ?, ?"));
+        // the offset comes before the number of rows
+        List<Object> parameter = query.parameter();
+        assertEquals(40, parameter.get(parameter.size() - 2));
+        assertEquals(20, parameter.get(parameter.size() - 1));
+        assertEquals(List.of("wait", StepStatus.DONE.getValue(), BatchAssignmentManager.MAX_EMPTY_BATCHES, 40, 20), parameter);
+        assertFalse(query.sql().contains("LIKE"));
+    }
+
+    @Test
+    public void testAvailableBatchSearch() {
+        SqlQuery query = BatchAssignmentManager.createAvailableBatchQuery("wait", "prozesse.ProjekteID = 3", " 12 ", List.of("Scanner", "Format"),
+                0, 10);
+        assertPlaceholders(query);
+        assertTrue(query.sql().contains("AND prozesse.ProjekteID = 3 "));
+        assertEquals(List.of("wait", StepStatus.DONE.getValue(), BatchAssignmentManager.MAX_EMPTY_BATCHES, "%12%", 12, "Scanner", "Format", "%12%",
+                0, 10), query.parameter());
+
+        // a search term that is not a number doesn't search the batch id
+        query = BatchAssignmentManager.createAvailableBatchQuery("wait", "", "Book", List.of(), 0, 10);
+        assertPlaceholders(query);
+        assertFalse(query.sql().contains("batches.id = ?"));
+        assertFalse(query.sql().contains("properties"));
+        assertEquals(List.of("wait", StepStatus.DONE.getValue(), BatchAssignmentManager.MAX_EMPTY_BATCHES, "%Book%", 0, 10), query.parameter());
+    }
+
+    @Test
+    public void testCountUsesSameCondition() {
+        SqlQuery page = BatchAssignmentManager.createAvailableBatchQuery("wait", "", "Book", List.of("Scanner"), 20, 10);
+        SqlQuery count = BatchAssignmentManager.createAvailableBatchCountQuery("wait", "", "Book", List.of("Scanner"));
+        assertPlaceholders(count);
+        assertFalse(count.sql().contains("LIMIT ?, ?"));
+        String condition = count.sql().substring(count.sql().indexOf(" WHERE "));
+        assertTrue(page.sql().contains(condition + " ORDER BY"));
+        assertEquals(count.parameter(), page.parameter().subList(0, page.parameter().size() - 2));
+    }
+
+    @Test
+    public void testTargetBatchSize() {
+        // the process that joins the batch is not counted, so the batch may contain maxSize - 1 other processes
+        assertEquals(null, checkTargetBatch(true, 0, 3, false));
+        assertEquals(null, checkTargetBatch(true, 2, 3, false));
+        assertEquals(Reason.BATCH_FULL, checkTargetBatch(true, 3, 3, false));
+        assertEquals(Reason.BATCH_FULL, checkTargetBatch(true, 4, 3, false));
+    }
+
+    @Test
+    public void testTargetBatchClosed() {
+        assertEquals(Reason.BATCH_CLOSED, checkTargetBatch(false, 0, 3, false));
+        assertEquals(Reason.BATCH_CLOSED, checkTargetBatch(true, 1, 3, true));
+        // a full batch is reported as full, even if it is closed as well
+        assertEquals(Reason.BATCH_FULL, checkTargetBatch(true, 3, 3, true));
+    }
+
+    @Test
+    public void testPreviousBatchClosed() throws Exception {
+        BatchAssignmentManager.checkPreviousBatch(4, false);
+        try {
+            BatchAssignmentManager.checkPreviousBatch(4, true);
+            fail();
+        } catch (BatchAssignmentException e) {
+            assertEquals(Reason.BATCH_CLOSED, e.getReason());
+            assertEquals(4, e.getBatchId());
+        }
+    }
+
+    @Test
+    public void testPropertyChanges() {
+        Map<String, String> values = new LinkedHashMap<>();
+        values.put("Scanner", "A");
+        values.put("Format", "Book");
+        values.put("Location", "B");
+        Timestamp now = new Timestamp(1000);
+        PropertyChanges changes = BatchAssignmentManager.createPropertyChanges(7, values, List.of("Format"), now);
+
+        assertEquals(1, changes.updates().size());
+        assertArrayEquals(new Object[] { "Book", 7, "Format" }, changes.updates().get(0));
+        assertEquals(2, changes.inserts().size());
+        assertArrayEquals(new Object[] { "Scanner", "A", 7, now }, changes.inserts().get(0));
+        assertArrayEquals(new Object[] { "Location", "B", 7, now }, changes.inserts().get(1));
+
+        assertEquals(countPlaceholders(BatchAssignmentManager.UPDATE_PROCESS_PROPERTY), changes.updates().get(0).length);
+        assertEquals(countPlaceholders(BatchAssignmentManager.INSERT_PROCESS_PROPERTY), changes.inserts().get(0).length);
+    }
+
+    @Test
+    public void testNoPropertyChanges() {
+        PropertyChanges changes = BatchAssignmentManager.createPropertyChanges(7, Map.of(), List.of("Format"), new Timestamp(1000));
+        assertTrue(changes.updates().isEmpty());
+        assertTrue(changes.inserts().isEmpty());
+    }
+
+    @Test
+    public void testBatchProgress() {
+        SqlQuery query = BatchAssignmentManager.createBatchProgressQuery(List.of(4, 7), "wait", null);
+        assertPlaceholders(query);
+        // the first sum counts the processes at the wait step, the second one the processes before it
+        assertEquals(List.of(StepStatus.LOCKED.getValue(), StepStatus.LOCKED.getValue(), "wait"), query.parameter());
+        assertTrue(query.sql().contains("SUM(CASE WHEN schritte.Bearbeitungsstatus <> ? THEN 1 ELSE 0 END), "
+                + "SUM(CASE WHEN schritte.Bearbeitungsstatus = ? THEN 1 ELSE 0 END)"));
+        assertTrue(query.sql().contains("prozesse.batchID IN (4, 7) "));
+        assertTrue(query.sql().endsWith("GROUP BY prozesse.batchID"));
+        assertFalse(query.sql().contains("projekte"));
+    }
+
+    @Test
+    public void testBatchProgressOfInstitution() {
+        Institution institution = new Institution();
+        institution.setId(3);
+        SqlQuery query = BatchAssignmentManager.createBatchProgressQuery(List.of(4), "wait", institution);
+        assertPlaceholders(query);
+        assertEquals(List.of(StepStatus.LOCKED.getValue(), StepStatus.LOCKED.getValue(), "wait", 3), query.parameter());
+        assertTrue(query.sql().contains("LEFT JOIN projekte ON prozesse.ProjekteID = projekte.ProjekteID WHERE"));
+        assertTrue(query.sql().contains("AND projekte.institution_id = ? GROUP BY"));
+    }
+
+    @Test
+    public void testProcessCountOfInstitution() {
+        Institution institution = new Institution();
+        institution.setId(3);
+        SqlQuery query = BatchAssignmentManager.createProcessCountQuery(List.of(4, 7), institution);
+        assertPlaceholders(query);
+        assertEquals(List.of(3), query.parameter());
+        assertTrue(query.sql().contains("prozesse.batchID IN (4, 7) "));
+        assertTrue(query.sql().contains("AND projekte.institution_id = ? GROUP BY"));
+
+        assertEquals(List.of(), BatchAssignmentManager.createProcessCountQuery(List.of(4), null).parameter());
+    }
+
+    @Test
+    public void testExpiredEmptyBatchQuery() {
+        Date startedBefore = new Date();
+        SqlQuery query = BatchAssignmentManager.createExpiredEmptyBatchQuery(startedBefore, List.of("Scanner", "Shelf"), false, 10);
+        assertPlaceholders(query);
+        assertEquals(List.of(new Timestamp(startedBefore.getTime()), "Scanner", "Shelf", 10), query.parameter());
+        assertTrue(query.sql().contains("properties.property_name IN (?, ?)"));
+
+        // without configured properties no batch is known to be created by the plugin
+        assertNull(BatchAssignmentManager.createExpiredEmptyBatchQuery(startedBefore, List.of(), false, 10));
+
+        query = BatchAssignmentManager.createExpiredEmptyBatchQuery(startedBefore, List.of(), true, 10);
+        assertPlaceholders(query);
+        assertFalse(query.sql().contains("properties"));
+    }
+}
@@ -157,6 +157,7 @@ public class BatchAssignmentPluginTest {
     public Process getProcess() {
         Project project = new Project();
         project.setTitel("BatchAssignmentProject");
+        project.setId(1);
 
         Process process = new Process();
         process.setTitel("00469418X");
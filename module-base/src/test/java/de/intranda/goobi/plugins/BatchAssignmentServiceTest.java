@@ -0,0 +1,359 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.easymock.EasyMock;
+import org.goobi.beans.GoobiProperty;
+import org.goobi.beans.Process;
+import org.goobi.beans.Processproperty;
+import org.goobi.beans.Project;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.powermock.api.easymock.PowerMock;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import de.intranda.goobi.plugins.BatchAssignmentException.Reason;
+import de.intranda.goobi.plugins.BatchAssignmentService.AssignmentResult;
+import de.sub.goobi.config.ConfigurationHelper;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({ ConfigurationHelper.class })
+@PowerMockIgnore({ "javax.management.*", "javax.xml.*", "org.xml.*", "org.w3c.*", "javax.net.ssl.*", "jdk.internal.reflect.*" })
+public class BatchAssignmentServiceTest {
+
+    private static final int MAX_SIZE = 3;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private InMemoryBatchDataSource dataSource;
+    private BatchAssignmentService service;
+
+    private static Process createProcessObject(int processId, String scanner) {
+        Process process = new Process();
+        process.setId(processId);
+        Processproperty property = new Processproperty();
+        property.setTitel("Scanner");
+        property.setWert(scanner);
+        property.setProzess(process);
+        List<GoobiProperty> properties = new ArrayList<>();
+        properties.add(property);
+        process.setEigenschaften(properties);
+        return process;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        PowerMock.mockStatic(ConfigurationHelper.class);
+        ConfigurationHelper configurationHelper = EasyMock.createMock(ConfigurationHelper.class);
+        EasyMock.expect(ConfigurationHelper.getInstance()).andReturn(configurationHelper).anyTimes();
+        EasyMock.expect(configurationHelper.getBatchMaxSize()).andReturn(MAX_SIZE).anyTimes();
+        EasyMock.expect(configurationHelper.getTemporaryFolder()).andReturn(folder.getRoot().getAbsolutePath()).anyTimes();
+        EasyMock.replay(configurationHelper);
+        PowerMock.replay(ConfigurationHelper.class);
+
+        dataSource = new InMemoryBatchDataSource();
+        BatchAssignmentConfiguration configuration = new BatchAssignmentConfiguration("wait for batch", 10, false, false, 0, 0, 0,
+                List.of(new PropertyDefinition("Scanner", null, null)));
+        service = new BatchAssignmentService(configuration, dataSource);
+        OpenBatchRegistry.getInstance().clear();
+        BatchPropertyIndex.getInstance().clear();
+    }
+
+    @Test
+    public void testAssignProcessesCopiesProperties() throws Exception {
+        int batchId = dataSource.createBatch("batch");
+        int first = dataSource.createProcess(batchId, Map.of("Scanner", "A"));
+        int second = dataSource.createProcess(null, Map.of("Scanner", "B"));
+        int third = dataSource.createProcess(null, Map.of());
+
+        AssignmentResult result = service.assignProcesses(List.of(second, third), batchId, "user");
+
+        assertEquals(List.of(second, third), result.assigned());
+        assertTrue(result.rejected().isEmpty());
+        assertEquals(Integer.valueOf(batchId), dataSource.getBatchOfProcess(second));
+        assertEquals(Map.of("Scanner", "A"), dataSource.getPropertyValues(third, List.of("Scanner")));
+        assertEquals(Map.of("Scanner", "A"), dataSource.getPropertyValues(first, List.of("Scanner")));
+        assertEquals(2, dataSource.getJournalSize());
+    }
+
+    @Test
+    public void testFullBatchRejectsRemainingProcesses() throws Exception {
+        int batchId = dataSource.createBatch("batch");
+        dataSource.createProcess(batchId, Map.of());
+        List<Integer> processIds = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            processIds.add(dataSource.createProcess(null, Map.of()));
+        }
+
+        AssignmentResult result = service.assignProcesses(processIds, batchId, "user");
+
+        assertEquals(processIds.subList(0, MAX_SIZE - 1), result.assigned());
+        assertEquals(Map.of(processIds.get(2), Reason.BATCH_FULL, processIds.get(3), Reason.BATCH_FULL), result.rejected());
+        assertEquals(Integer.valueOf(MAX_SIZE), dataSource.getBatchSizes().get(batchId));
+    }
+
+    @Test
+    public void testUnknownProcessesAreReported() throws Exception {
+        int batchId = dataSource.createBatch("batch");
+        int processId = dataSource.createProcess(null, Map.of());
+
+        AssignmentResult result = service.assignProcesses(List.of(processId, 4711), batchId, "user");
+
+        assertEquals(List.of(processId), result.assigned());
+        assertEquals(List.of(4711), result.notFound());
+    }
+
+    @Test
+    public void testCreateBatchUsesValuesOfFirstProcess() throws Exception {
+        int first = dataSource.createProcess(null, Map.of("Scanner", "A"));
+        int second = dataSource.createProcess(null, Map.of("Scanner", "B"));
+
+        AssignmentResult result = service.createBatch(List.of(first, second), "new batch", "user");
+
+        assertEquals(List.of(first, second), result.assigned());
+        assertEquals(result.batchId(), dataSource.getBatchOfProcess(second));
+        assertEquals(Map.of("Scanner", "A"), dataSource.getPropertyValues(second, List.of("Scanner")));
+        assertEquals(Map.of(result.batchId(), Map.of("Scanner", "A")),
+                dataSource.getBatchPropertyValues(List.of(result.batchId()), List.of("Scanner")));
+    }
+
+    @Test
+    public void testCreateBatchForProcessStoresValues() throws Exception {
+        int processId = dataSource.createProcess(null, Map.of("Scanner", "A"));
+        // the value was changed in the user interface
+        Process process = createProcessObject(processId, "B");
+
+        int batchId = service.createBatch(process, "new batch", "user").getBatchId();
+
+        assertEquals(Integer.valueOf(batchId), dataSource.getBatchOfProcess(processId));
+        assertEquals(batchId, process.getBatch().getBatchId().intValue());
+        assertEquals(Map.of("Scanner", "B"), dataSource.getPropertyValues(processId, List.of("Scanner")));
+        assertEquals(Map.of(batchId, Map.of("Scanner", "B")), dataSource.getBatchPropertyValues(List.of(batchId), List.of("Scanner")));
+        assertEquals(1, dataSource.getJournalSize());
+    }
+
+    @Test
+    public void testFailedCreateBatchDeletesNewBatch() throws Exception {
+        int batchId = dataSource.createBatch("batch");
+        int processId = dataSource.createProcess(batchId, Map.of("Scanner", "A"));
+        dataSource.lockBatch(batchId);
+        // the process object doesn't know about the batch that was closed on another node
+        Process process = createProcessObject(processId, "A");
+
+        try {
+            service.createBatch(process, "new batch", "user");
+            fail("the batch was created");
+        } catch (BatchAssignmentException e) {
+            assertEquals(Reason.BATCH_CLOSED, e.getReason());
+        }
+        assertNull(dataSource.getBatch(batchId + 1));
+        assertNull(process.getBatch());
+        assertEquals(0, dataSource.getJournalSize());
+    }
+
+    @Test
+    public void testAutomaticAssignmentWithEmptyProperty() throws Exception {
+        BatchAssignmentConfiguration configuration = new BatchAssignmentConfiguration("wait for batch", 10, true, false, 0, 0, 0,
+                List.of(new PropertyDefinition("Scanner", null, null), new PropertyDefinition("Format", null, null)));
+        BatchAssignmentService twoProperties = new BatchAssignmentService(configuration, dataSource);
+        Process first = new Process();
+        first.setId(dataSource.createProcess(null, Map.of("Scanner", "A", "Format", "")));
+        Process second = new Process();
+        second.setId(dataSource.createProcess(null, Map.of("Scanner", "A", "Format", " ")));
+
+        Integer batchId = twoProperties.assignAutomatically(first);
+
+        assertEquals(Map.of(batchId, Map.of("Scanner", "A")), dataSource.getBatchPropertyValues(List.of(batchId), List.of("Scanner", "Format")));
+        assertEquals(batchId, twoProperties.assignAutomatically(second));
+        assertEquals(Integer.valueOf(2), dataSource.getBatchSizes().get(batchId));
+    }
+
+    @Test
+    public void testAutomaticAssignmentIsLimitedToProject() {
+        Process process = new Process();
+        assertEquals("", BatchAssignmentService.getProjectCriteria(process));
+        Project project = new Project();
+        project.setId(3);
+        process.setProjekt(project);
+        assertEquals("prozesse.ProjekteID = 3", BatchAssignmentService.getProjectCriteria(process));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCreateBatchWithoutProcesses() throws Exception {
+        service.createBatch(List.of(), "new batch", "user");
+    }
+
+    @Test
+    public void testCreateBatchWithoutAssignedProcessIsDeleted() throws Exception {
+        int batchId = dataSource.createBatch("batch");
+        int processId = dataSource.createProcess(batchId, Map.of("Scanner", "A"));
+        dataSource.lockBatch(batchId);
+
+        AssignmentResult result = service.createBatch(List.of(processId, 4711), "new batch", "user");
+
+        assertNull(result.batchId());
+        assertEquals(Map.of(processId, Reason.BATCH_CLOSED), result.rejected());
+        assertEquals(List.of(4711), result.notFound());
+        assertNull(dataSource.getBatch(batchId + 1));
+        assertEquals(0, dataSource.getJournalSize());
+    }
+
+    @Test
+    public void testStoredValuesAreUsedInsteadOfFirstProcess() throws Exception {
+        int batchId = dataSource.createBatch("batch");
+        dataSource.saveBatchPropertyValues(batchId, Map.of("Scanner", "A"));
+        // the first process was changed after the batch was created
+        dataSource.createProcess(batchId, Map.of("Scanner", "B"));
+        int processId = dataSource.createProcess(null, Map.of());
+
+        service.assignProcesses(List.of(processId), batchId, "user");
+
+        assertEquals(Map.of("Scanner", "A"), dataSource.getPropertyValues(processId, List.of("Scanner")));
+    }
+
+    @Test
+    public void testFirstProcessDefinesValuesOfEmptyBatch() throws Exception {
+        int batchId = dataSource.createBatch("batch");
+        int first = dataSource.createProcess(null, Map.of("Scanner", "A"));
+        int second = dataSource.createProcess(null, Map.of("Scanner", "B"));
+
+        service.assignProcesses(List.of(first, second), batchId, "user");
+
+        assertEquals(Map.of(batchId, Map.of("Scanner", "A")), dataSource.getBatchPropertyValues(List.of(batchId), List.of("Scanner")));
+        assertEquals(Map.of(batchId, Map.of("Scanner", "A")), service.getBatchPropertyValues(List.of(batchId)));
+    }
+
+    @Test
+    public void testMoveProcessesWithSingleJournalEntry() throws Exception {
+        int source = dataSource.createBatch("source");
+        int target = dataSource.createBatch("target");
+        dataSource.createProcess(target, Map.of("Scanner", "A"));
+        int first = dataSource.createProcess(source, Map.of("Scanner", "B"));
+        int second = dataSource.createProcess(source, Map.of());
+        int other = dataSource.createProcess(null, Map.of());
+
+        int moved = service.moveProcesses(List.of(first, second, other), source, target, "user");
+
+        assertEquals(2, moved);
+        assertEquals(Integer.valueOf(target), dataSource.getBatchOfProcess(second));
+        assertNull(dataSource.getBatchOfProcess(other));
+        assertEquals(Map.of("Scanner", "A"), dataSource.getPropertyValues(first, List.of("Scanner")));
+        assertEquals(Map.of("Scanner", "A"), dataSource.getPropertyValues(second, List.of("Scanner")));
+        assertEquals(1, dataSource.getJournalSize());
+    }
+
+    @Test(expected = BatchAssignmentException.class)
+    public void testMoveIntoFullBatchFails() throws Exception {
+        int source = dataSource.createBatch("source");
+        int target = dataSource.createBatch("target");
+        dataSource.createProcess(target, Map.of());
+        dataSource.createProcess(target, Map.of());
+        int first = dataSource.createProcess(source, Map.of());
+        int second = dataSource.createProcess(source, Map.of());
+
+        try {
+            service.moveProcesses(List.of(first, second), source, target, "user");
+        } finally {
+            // nothing was moved
+            assertEquals(Integer.valueOf(source), dataSource.getBatchOfProcess(first));
+            assertEquals(Integer.valueOf(source), dataSource.getBatchOfProcess(second));
+        }
+    }
+
+    @Test
+    public void testSplitBatch() throws Exception {
+        int batchId = dataSource.createBatch("batch");
+        List<Integer> processIds = new ArrayList<>();
+        for (int i = 0; i < MAX_SIZE; i++) {
+            processIds.add(dataSource.createProcess(batchId, Map.of("Scanner", "A")));
+        }
+
+        Integer newBatchId = service.splitBatch(batchId, 1, "second half", "user");
+
+        assertEquals(Integer.valueOf(1), dataSource.getBatchSizes().get(batchId));
+        assertEquals(Integer.valueOf(MAX_SIZE - 1), dataSource.getBatchSizes().get(newBatchId));
+        assertEquals(Integer.valueOf(batchId), dataSource.getBatchOfProcess(processIds.get(0)));
+        assertNull(service.splitBatch(batchId, 1, "nothing left", "user"));
+    }
+
+    @Test
+    public void testFailedSplitDeletesNewBatch() throws Exception {
+        int batchId = dataSource.createBatch("batch");
+        dataSource.createProcess(batchId, Map.of("Scanner", "A"));
+        dataSource.createProcess(batchId, Map.of("Scanner", "A"));
+        // the wait steps of the batch were closed in the meantime
+        dataSource.lockBatch(batchId);
+
+        try {
+            service.splitBatch(batchId, 1, "second half", "user");
+            fail("the batch was split");
+        } catch (BatchAssignmentException e) {
+            assertEquals(Reason.BATCH_CLOSED, e.getReason());
+        }
+        // the new batch would have the next id
+        assertNull(dataSource.getBatch(batchId + 1));
+        assertEquals(Integer.valueOf(2), dataSource.getBatchSizes().get(batchId));
+    }
+
+    @Test
+    public void testMergeKeepsValuesOfBothBatches() throws Exception {
+        List<String> propertyNames = List.of("Scanner", "Format");
+        BatchAssignmentConfiguration configuration = new BatchAssignmentConfiguration("wait for batch", 10, false, false, 0, 0, 0,
+                List.of(new PropertyDefinition("Scanner", null, null), new PropertyDefinition("Format", null, null)));
+        BatchAssignmentService twoProperties = new BatchAssignmentService(configuration, dataSource);
+        int source = dataSource.createBatch("source");
+        int target = dataSource.createBatch("target");
+        int sourceProcess = dataSource.createProcess(source, Map.of("Scanner", "A", "Format", "Book"));
+        dataSource.createProcess(target, Map.of("Scanner", "A"));
+        dataSource.saveBatchPropertyValues(source, Map.of("Scanner", "A", "Format", "Book"));
+        dataSource.saveBatchPropertyValues(target, Map.of("Scanner", "A"));
+
+        assertEquals(1, twoProperties.mergeBatches(source, target, "user"));
+
+        assertEquals(Map.of("Scanner", "A", "Format", "Book"), dataSource.getBatchPropertyValues(List.of(target), propertyNames).get(target));
+        assertEquals(Map.of("Scanner", "A", "Format", "Book"), dataSource.getPropertyValues(sourceProcess, propertyNames));
+    }
+
+    @Test
+    public void testMergeBatches() throws Exception {
+        int source = dataSource.createBatch("source");
+        int target = dataSource.createBatch("target");
+        int sourceProcess = dataSource.createProcess(source, Map.of());
+        dataSource.createProcess(target, Map.of("Scanner", "A"));
+
+        assertEquals(1, service.mergeBatches(source, target, "user"));
+
+        assertEquals(Integer.valueOf(target), dataSource.getBatchOfProcess(sourceProcess));
+        assertEquals(Map.of("Scanner", "A"), dataSource.getPropertyValues(sourceProcess, List.of("Scanner")));
+        assertNull(dataSource.getBatch(source));
+    }
+
+    @Test
+    public void testMergeOfIncompatibleBatchesFails() throws Exception {
+        int source = dataSource.createBatch("source");
+        int target = dataSource.createBatch("target");
+        dataSource.createProcess(source, Map.of("Scanner", "B"));
+        dataSource.createProcess(target, Map.of("Scanner", "A"));
+
+        try {
+            service.mergeBatches(source, target, "user");
+            fail("the batches were merged");
+        } catch (BatchAssignmentException e) {
+            assertEquals(Reason.INCOMPATIBLE, e.getReason());
+            assertEquals(Integer.valueOf(1), dataSource.getBatchSizes().get(source));
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Map;
+
+import org.easymock.EasyMock;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.powermock.api.easymock.PowerMock;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import de.intranda.goobi.plugins.BatchDocketCache.DocketState;
+import de.sub.goobi.config.ConfigurationHelper;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({ ConfigurationHelper.class })
+@PowerMockIgnore({ "javax.management.*", "javax.xml.*", "org.xml.*", "org.w3c.*", "javax.net.ssl.*", "jdk.internal.reflect.*" })
+public class BatchDocketCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private InMemoryBatchDataSource dataSource;
+    private int batchId;
+
+    @Before
+    public void setUp() throws Exception {
+        String tempFolder = folder.newFolder("temp").toString();
+        String xsltFolder = folder.newFolder("xslt").toString();
+        PowerMock.mockStatic(ConfigurationHelper.class);
+        ConfigurationHelper configurationHelper = EasyMock.createMock(ConfigurationHelper.class);
+        EasyMock.expect(ConfigurationHelper.getInstance()).andReturn(configurationHelper).anyTimes();
+        EasyMock.expect(configurationHelper.getTemporaryFolder()).andReturn(tempFolder).anyTimes();
+        EasyMock.expect(configurationHelper.getXsltFolder()).andReturn(xsltFolder).anyTimes();
+        EasyMock.replay(configurationHelper);
+        PowerMock.replay(ConfigurationHelper.class);
+
+        dataSource = new InMemoryBatchDataSource();
+        batchId = dataSource.createBatch("batch");
+        dataSource.createProcess(batchId, Map.of());
+        dataSource.createProcess(batchId, Map.of());
+        // the processes of previous tests are still cached for the same batch id
+        BatchDocketCache.invalidate(batchId);
+    }
+
+    @Test
+    public void testPollReadsProcessesOnce() {
+        assertEquals(DocketState.NONE, BatchDocketCache.getState(dataSource, batchId, null));
+        assertEquals(DocketState.NONE, BatchDocketCache.getState(dataSource, batchId, null));
+        assertEquals(1, dataSource.getProcessIdQueries());
+
+        BatchDocketCache.invalidate(batchId);
+        assertEquals(DocketState.NONE, BatchDocketCache.getState(dataSource, batchId, null));
+        assertEquals(2, dataSource.getProcessIdQueries());
+    }
+
+    @Test
+    public void testDownloadReadsProcessesAgain() {
+        BatchDocketCache.getState(dataSource, batchId, null);
+        assertNull(BatchDocketCache.getDocket(dataSource, batchId, null));
+        assertEquals(2, dataSource.getProcessIdQueries());
+
+        // the state uses the processes read by the download
+        BatchDocketCache.getState(dataSource, batchId, null);
+        assertEquals(2, dataSource.getProcessIdQueries());
+    }
+
+    @Test
+    public void testEmptyBatch() {
+        assertEquals(DocketState.NONE, BatchDocketCache.getState(dataSource, dataSource.createBatch("empty"), null));
+    }
+}
@@ -0,0 +1,98 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.api.easymock.PowerMock;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import de.intranda.goobi.plugins.BatchLockScheduler.LockRule;
+import de.intranda.goobi.plugins.BatchLockScheduler.ProjectConfiguration;
+import de.intranda.goobi.plugins.BatchLockScheduler.RuleKey;
+import de.sub.goobi.config.ConfigurationHelper;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({ ConfigurationHelper.class })
+@PowerMockIgnore({ "javax.management.*", "javax.xml.*", "org.xml.*", "org.w3c.*", "javax.net.ssl.*", "jdk.internal.reflect.*" })
+public class BatchLockSchedulerTest {
+
+    private InMemoryBatchDataSource dataSource;
+    private BatchLockScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        PowerMock.mockStatic(ConfigurationHelper.class);
+        ConfigurationHelper configurationHelper = EasyMock.createMock(ConfigurationHelper.class);
+        EasyMock.expect(ConfigurationHelper.getInstance()).andReturn(configurationHelper).anyTimes();
+        EasyMock.expect(configurationHelper.getBatchMaxSize()).andReturn(10).anyTimes();
+        EasyMock.replay(configurationHelper);
+        PowerMock.replay(ConfigurationHelper.class);
+
+        dataSource = new InMemoryBatchDataSource();
+        scheduler = new BatchLockScheduler(dataSource);
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.stop();
+    }
+
+    private static BatchAssignmentConfiguration configuration(String batchWaitStep, boolean automaticLock, int maxProcesses) {
+        return new BatchAssignmentConfiguration(batchWaitStep, 20, false, automaticLock, maxProcesses, 60, 0, List.of());
+    }
+
+    @Test
+    public void testOnlyConfigurationsWithAutomaticLock() {
+        Map<RuleKey, LockRule> rules = BatchLockScheduler.createRules(
+                List.of(new ProjectConfiguration(1, configuration("wait", true, 0)), new ProjectConfiguration(1, configuration("other", false, 10))));
+        assertEquals(Map.of(new RuleKey(1, "wait"), new LockRule(0, 60)), rules);
+    }
+
+    @Test
+    public void testSameWaitStepInTwoProjects() {
+        Map<RuleKey, LockRule> rules = BatchLockScheduler.createRules(
+                List.of(new ProjectConfiguration(1, configuration("wait", true, 5)), new ProjectConfiguration(2, configuration("wait", true, 10))));
+        assertEquals(Map.of(new RuleKey(1, "wait"), new LockRule(5, 60), new RuleKey(2, "wait"), new LockRule(10, 60)), rules);
+    }
+
+    @Test
+    public void testRulesFollowConfiguration() {
+        RuleKey key = new RuleKey(1, "scheduler-test");
+        AtomicReference<BatchAssignmentConfiguration> current = new AtomicReference<>(configuration("scheduler-test", true, 10));
+        scheduler.register("test|scheduler", 1, current::get);
+        assertEquals(new LockRule(10, 60), scheduler.getRules().get(key));
+
+        // a changed configuration replaces the rule
+        current.set(configuration("scheduler-test", true, 5));
+        assertEquals(new LockRule(5, 60), scheduler.getRules().get(key));
+
+        // without the automatic lock the batches of the wait step are not locked anymore
+        current.set(configuration("scheduler-test", false, 5));
+        assertFalse(scheduler.getRules().containsKey(key));
+    }
+
+    @Test
+    public void testFullBatchIsLockedOnceAllProcessesArrived() {
+        int full = dataSource.createBatch("full");
+        int arriving = dataSource.createBatch("arriving");
+        int small = dataSource.createBatch("small");
+        for (int i = 0; i < 3; i++) {
+            dataSource.setAtWaitStep(dataSource.createProcess(full, Map.of()));
+            dataSource.createProcess(arriving, Map.of());
+        }
+        dataSource.setAtWaitStep(dataSource.createProcess(small, Map.of()));
+
+        assertEquals(List.of(full), scheduler.findBatchesToLock(new RuleKey(1, "wait"), new LockRule(3, 0)));
+    }
+}
@@ -0,0 +1,47 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class BatchLocksTest {
+
+    @Test
+    public void testSameBatchIsSerialized() throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> tasks = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            // half of the tasks move a process from the same batch, all of them lock batch 7
+            Integer previous = i % 2 == 0 ? 7 : null;
+            tasks.add(executor.submit(() -> BatchLocks.withBatches(Arrays.asList(previous, 7), () -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                for (int j = 0; j < 1000; j++) {
+                    Thread.yield();
+                }
+                running.decrementAndGet();
+                return null;
+            })));
+        }
+        for (Future<?> task : tasks) {
+            task.get();
+        }
+        executor.shutdown();
+        assertEquals(1, maxRunning.get());
+    }
+
+    @Test
+    public void testReturnValue() throws Exception {
+        // 3 and 67 share the same stripe
+        assertEquals("done", BatchLocks.withBatches(Arrays.asList(3, 67, null), () -> "done"));
+    }
+}
@@ -0,0 +1,108 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.intranda.goobi.plugins.BatchManifestWriter.Format;
+
+public class BatchManifestWriterTest {
+
+    private InMemoryBatchDataSource dataSource;
+    private int batchId;
+
+    @Before
+    public void setUp() {
+        dataSource = new InMemoryBatchDataSource();
+        batchId = dataSource.createBatch("batch");
+        dataSource.createProcess(batchId, Map.of("Scanner", "A, left"));
+        dataSource.createProcess(null, Map.of("Scanner", "B"));
+        dataSource.createProcess(batchId, Map.of("Scanner", "say \"cheese\""));
+        dataSource.createProcess(batchId, Map.of());
+    }
+
+    @Test
+    public void testCsvIsWrittenInPages() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int written = new BatchManifestWriter(dataSource, List.of("Scanner"), 2).write(batchId, null, Format.CSV, out);
+
+        assertEquals(3, written);
+        String[] lines = out.toString(StandardCharsets.UTF_8).split("\r\n");
+        assertEquals(4, lines.length);
+        assertEquals("processId,title,currentStep,currentStepStatus,Scanner", lines[0]);
+        assertEquals("1,process 1,,,\"A, left\"", lines[1]);
+        assertEquals("3,process 3,,,\"say \"\"cheese\"\"\"", lines[2]);
+        assertEquals("4,process 4,,,", lines[3]);
+    }
+
+    @Test
+    public void testJson() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new BatchManifestWriter(dataSource, List.of("Scanner"), 2).write(batchId, null, Format.JSON, out);
+
+        String json = out.toString(StandardCharsets.UTF_8);
+        assertTrue(json.startsWith("{\"batchId\":" + batchId + ",\"processes\":[{\"processId\":1,"));
+        assertTrue(json.contains("\"properties\":{\"Scanner\":\"say \\\"cheese\\\"\"}"));
+        assertTrue(json.endsWith("\"properties\":{}}]}"));
+    }
+
+    @Test
+    public void testPageEndsWithinParallelSteps() throws Exception {
+        int parallel = dataSource.createBatch("parallel");
+        int first = dataSource.createProcess(parallel, Map.of());
+        int second = dataSource.createProcess(parallel, Map.of());
+        int third = dataSource.createProcess(parallel, Map.of());
+        dataSource.setCurrentSteps(first, "Scan");
+        // the first page contains the first process and the first of the three rows of the second process
+        dataSource.setCurrentSteps(second, "Check", "Export", "Archive");
+        dataSource.setCurrentSteps(third, "Scan");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int written = new BatchManifestWriter(dataSource, List.of(), 2).write(parallel, null, Format.CSV, out);
+
+        assertEquals(3, written);
+        String[] lines = out.toString(StandardCharsets.UTF_8).split("\r\n");
+        assertEquals(4, lines.length);
+        assertEquals(first + ",process " + first + ",Scan,OPEN", lines[1]);
+        assertEquals(second + ",process " + second + ",Check,OPEN", lines[2]);
+        assertEquals(third + ",process " + third + ",Scan,OPEN", lines[3]);
+    }
+
+    @Test
+    public void testEmptyBatch() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int written = new BatchManifestWriter(dataSource, List.of(), 2).write(dataSource.createBatch("empty"), null, Format.JSON, out);
+
+        assertEquals(0, written);
+        assertEquals("{\"batchId\":2,\"processes\":[]}", out.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testJsonEscaping() throws Exception {
+        int escaped = dataSource.createBatch("escaped");
+        dataSource.createProcess(escaped, Map.of("Scanner", "a\\b\n\u0001"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new BatchManifestWriter(dataSource, List.of("Scanner"), 2).write(escaped, null, Format.JSON, out);
+
+        String json = out.toString(StandardCharsets.UTF_8);
+        assertTrue(json.contains("\"currentStep\":null"));
+        assertTrue(json.contains("\"Scanner\":\"a\\\\b\\n\\u0001\""));
+    }
+
+    @Test
+    public void testCsvFormulaIsNeutralized() {
+        assertEquals("'=SUM(A1:A2)", BatchManifestWriter.escapeCsv("=SUM(A1:A2)"));
+        assertEquals("'+1", BatchManifestWriter.escapeCsv("+1"));
+        assertEquals("'-1", BatchManifestWriter.escapeCsv("-1"));
+        assertEquals("\"'@cmd,x\"", BatchManifestWriter.escapeCsv("@cmd,x"));
+        assertEquals("a=b", BatchManifestWriter.escapeCsv("a=b"));
+        assertEquals("", BatchManifestWriter.escapeCsv(""));
+    }
+}
@@ -0,0 +1,64 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class BatchPropertyIndexTest {
+
+    private static Map<Integer, Map<String, String>> load(List<Integer> ids) {
+        Map<Integer, Map<String, String>> map = new HashMap<>();
+        for (Integer id : ids) {
+            map.put(id, Map.of("scanner", id % 2 == 0 ? "A" : "B", "angle", id <= 2 ? "180" : "90"));
+        }
+        return map;
+    }
+
+    @Test
+    public void testRanking() {
+        BatchPropertyIndex index = new BatchPropertyIndex();
+        List<Integer> ids = Arrays.asList(4, 3, 2, 1);
+        Map<Integer, Integer> scores = index.score("wait", ids, Map.of("scanner", "A", "angle", "180"), BatchPropertyIndexTest::load);
+        assertEquals(2, scores.get(2).intValue());
+        assertEquals(1, scores.get(4).intValue());
+        assertEquals(1, scores.get(1).intValue());
+        assertTrue(!scores.containsKey(3));
+
+        // best matches first, equal scores keep their order
+        assertEquals(Arrays.asList(2, 4, 1, 3), BatchPropertyIndex.sortByScore(ids, scores, false));
+        assertEquals(Arrays.asList(2, 4, 1), BatchPropertyIndex.sortByScore(ids, scores, true));
+    }
+
+    @Test
+    public void testBatchesAreLoadedOnce() {
+        BatchPropertyIndex index = new BatchPropertyIndex();
+        AtomicInteger loaded = new AtomicInteger();
+        for (int i = 0; i < 3; i++) {
+            index.score("wait", Arrays.asList(2, 1), Map.of("scanner", "A"), ids -> {
+                loaded.addAndGet(ids.size());
+                return load(ids);
+            });
+        }
+        assertEquals(2, loaded.get());
+    }
+
+    @Test
+    public void testUpdates() {
+        BatchPropertyIndex index = new BatchPropertyIndex();
+        index.update("wait", 5, Map.of("scanner", "C"));
+        Map<Integer, Integer> scores = index.score("wait", Arrays.asList(5), Map.of("scanner", "C"), ids -> Map.of());
+        assertEquals(1, scores.get(5).intValue());
+
+        // a locked batch is loaded again if it is requested
+        index.remove(5);
+        scores = index.score("wait", Arrays.asList(5), Map.of("scanner", "C"), ids -> Map.of());
+        assertTrue(scores.isEmpty());
+    }
+}
@@ -0,0 +1,121 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.powermock.api.easymock.PowerMock;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import de.sub.goobi.config.ConfigurationHelper;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({ ConfigurationHelper.class })
+@PowerMockIgnore({ "javax.management.*", "javax.xml.*", "org.xml.*", "org.w3c.*", "javax.net.ssl.*", "jdk.internal.reflect.*" })
+public class EmptyBatchCleanupTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private InMemoryBatchDataSource dataSource;
+    private EmptyBatchCleanup cleanup;
+    private AtomicReference<BatchAssignmentConfiguration> configuration;
+
+    @Before
+    public void setUp() throws Exception {
+        PowerMock.mockStatic(ConfigurationHelper.class);
+        ConfigurationHelper configurationHelper = EasyMock.createMock(ConfigurationHelper.class);
+        EasyMock.expect(ConfigurationHelper.getInstance()).andReturn(configurationHelper).anyTimes();
+        EasyMock.expect(configurationHelper.getTemporaryFolder()).andReturn(folder.getRoot().getAbsolutePath()).anyTimes();
+        EasyMock.replay(configurationHelper);
+        PowerMock.replay(ConfigurationHelper.class);
+
+        dataSource = new InMemoryBatchDataSource();
+        cleanup = new EmptyBatchCleanup(dataSource);
+        configuration = new AtomicReference<>(configuration(30));
+        cleanup.register("test|cleanup", configuration::get);
+    }
+
+    @After
+    public void tearDown() {
+        cleanup.stop();
+    }
+
+    private static BatchAssignmentConfiguration configuration(long emptyBatchMaxAgeDays) {
+        return new BatchAssignmentConfiguration("wait", 20, false, false, 0, 0, emptyBatchMaxAgeDays,
+                List.of(new PropertyDefinition("Scanner", null, null)));
+    }
+
+    private int createBatch(int ageDays, Map<String, String> values) throws Exception {
+        int batchId = dataSource.createBatch("batch", new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(ageDays)));
+        dataSource.saveBatchPropertyValues(batchId, values);
+        return batchId;
+    }
+
+    @Test
+    public void testOnlyExpiredBatchesOfThePluginAreDeleted() throws Exception {
+        int expired = createBatch(40, Map.of("Scanner", "A"));
+        int young = createBatch(10, Map.of("Scanner", "A"));
+        // empty batches of other plugins and users don't have values of the configured properties
+        int foreign = dataSource.createBatch("foreign", new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(40)));
+        int otherProperty = createBatch(40, Map.of("Shelfmark", "B"));
+        int filled = createBatch(40, Map.of("Scanner", "A"));
+        dataSource.createProcess(filled, Map.of("Scanner", "A"));
+
+        cleanup.deleteExpiredBatches();
+
+        assertNull(dataSource.getBatch(expired));
+        assertNotNull(dataSource.getBatch(young));
+        assertNotNull(dataSource.getBatch(foreign));
+        assertNotNull(dataSource.getBatch(otherProperty));
+        assertNotNull(dataSource.getBatch(filled));
+    }
+
+    @Test
+    public void testChangedConfigurationApplies() throws Exception {
+        int batchId = createBatch(40, Map.of("Scanner", "A"));
+
+        // a longer period keeps the batch
+        configuration.set(configuration(60));
+        cleanup.deleteExpiredBatches();
+        assertNotNull(dataSource.getBatch(batchId));
+
+        // without the cleanup the batch is kept
+        configuration.set(configuration(0));
+        cleanup.deleteExpiredBatches();
+        assertNotNull(dataSource.getBatch(batchId));
+
+        configuration.set(configuration(20));
+        cleanup.deleteExpiredBatches();
+        assertNull(dataSource.getBatch(batchId));
+    }
+
+    @Test
+    public void testBatchesWithoutStoredValuesAreDeletedOnRequest() throws Exception {
+        // batches created before the values were stored
+        int old = dataSource.createBatch("old", new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(40)));
+        int young = dataSource.createBatch("young", new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(10)));
+
+        cleanup.deleteExpiredBatches();
+        assertNotNull(dataSource.getBatch(old));
+
+        configuration.set(new BatchAssignmentConfiguration("wait", 20, false, false, 0, 0, 30, true, List.of()));
+        cleanup.deleteExpiredBatches();
+        assertNull(dataSource.getBatch(old));
+        assertNotNull(dataSource.getBatch(young));
+    }
+}
@@ -0,0 +1,422 @@
+package de.intranda.goobi.plugins;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.apache.commons.lang3.StringUtils;
+import org.goobi.beans.Batch;
+import org.goobi.beans.Institution;
+import org.goobi.beans.JournalEntry;
+import org.goobi.beans.User;
+import org.goobi.production.properties.DisplayProperty;
+import org.goobi.production.properties.Type;
+
+import de.intranda.goobi.plugins.BatchAssignmentException.Reason;
+import de.intranda.goobi.plugins.BatchAssignmentManager.BatchProcessCount;
+import de.intranda.goobi.plugins.BatchAssignmentManager.BatchProgress;
+import de.intranda.goobi.plugins.BatchAssignmentManager.ManifestRow;
+import de.intranda.goobi.plugins.BatchAssignmentManager.WaitStep;
+import de.sub.goobi.helper.enums.StepStatus;
+
+/**
+ * In-memory stand-in for the database of Goobi workflow. All batches belong to the same wait step, a locked batch is treated like a batch whose
+ * wait steps are closed. The assignment applies the same checks as the database transaction.
+ */
+public class InMemoryBatchDataSource implements BatchDataSource {
+
+    private final AtomicInteger batchCounter = new AtomicInteger();
+    private final AtomicInteger processCounter = new AtomicInteger();
+
+    private final Map<Integer, String> batchNames = new HashMap<>();
+    private final Map<Integer, Date> startDates = new HashMap<>();
+    private final Set<Integer> lockedBatches = new HashSet<>();
+    private final Map<Integer, Integer> batchOfProcess = new HashMap<>();
+    private final Map<Integer, TreeSet<Integer>> processesOfBatch = new HashMap<>();
+    private final Map<Integer, Map<String, String>> propertiesOfProcess = new HashMap<>();
+    private final Map<Integer, Map<String, String>> propertiesOfBatch = new HashMap<>();
+    // current steps of the processes, parallel steps result in several steps
+    private final Map<Integer, List<String>> currentSteps = new HashMap<>();
+    // processes whose wait step is closed, their batch is closed as well
+    private final Set<Integer> closedWaitSteps = new HashSet<>();
+    // processes whose wait step is no longer locked, all other processes are still in the steps before it
+    private final Set<Integer> processesAtWaitStep = new HashSet<>();
+    private final List<JournalEntry> journal = new ArrayList<>();
+    // number of reads of the processes of a batch for an institution
+    private int processIdQueries;
+
+    public synchronized int createBatch(String name) {
+        return createBatch(name, new Date());
+    }
+
+    public synchronized int createProcess(Integer batchId, Map<String, String> values) {
+        int id = processCounter.incrementAndGet();
+        if (batchId != null) {
+            setBatch(id, batchId);
+        }
+        propertiesOfProcess.put(id, new HashMap<>(values));
+        return id;
+    }
+
+    public synchronized void lockBatch(int batchId) {
+        lockedBatches.add(batchId);
+    }
+
+    public synchronized void setCurrentSteps(int processId, String... steps) {
+        currentSteps.put(processId, List.of(steps));
+    }
+
+    public synchronized void setAtWaitStep(int processId) {
+        processesAtWaitStep.add(processId);
+    }
+
+    public synchronized Integer getBatchOfProcess(int processId) {
+        return batchOfProcess.get(processId);
+    }
+
+    public synchronized Map<Integer, Integer> getBatchSizes() {
+        Map<Integer, Integer> sizes = new HashMap<>();
+        processesOfBatch.forEach((id, processes) -> sizes.put(id, processes.size()));
+        return sizes;
+    }
+
+    private void setBatch(int processId, int batchId) {
+        Integer previous = batchOfProcess.put(processId, batchId);
+        if (previous != null) {
+            TreeSet<Integer> processes = processesOfBatch.get(previous);
+            processes.remove(processId);
+            if (processes.isEmpty()) {
+                processesOfBatch.remove(previous);
+            }
+        }
+        processesOfBatch.computeIfAbsent(batchId, k -> new TreeSet<>()).add(processId);
+    }
+
+    private Set<Integer> getProcesses(int batchId) {
+        return processesOfBatch.getOrDefault(batchId, new TreeSet<>());
+    }
+
+    public synchronized int getJournalSize() {
+        return journal.size();
+    }
+
+    public synchronized int getProcessIdQueries() {
+        return processIdQueries;
+    }
+
+    @Override
+    public synchronized List<Integer> getAvailableBatchIds(String batchWaitStep, String processCriteria, String search,
+            Collection<String> propertyNames, int start, int count) {
+        List<Integer> ids = findAvailableBatches(search);
+        return ids.subList(Math.min(start, ids.size()), (int) Math.min(ids.size(), (long) start + count));
+    }
+
+    @Override
+    public synchronized int countAvailableBatches(String batchWaitStep, String processCriteria, String search, Collection<String> propertyNames) {
+        return findAvailableBatches(search).size();
+    }
+
+    private List<Integer> findAvailableBatches(String search) {
+        // only the newest empty batches are offered, as in the database query
+        Set<Integer> filled = processesOfBatch.keySet();
+        Set<Integer> newestEmpty = batchNames.keySet()
+                .stream()
+                .filter(id -> !filled.contains(id))
+                .sorted(Comparator.reverseOrder())
+                .limit(BatchAssignmentManager.MAX_EMPTY_BATCHES)
+                .collect(Collectors.toSet());
+        return batchNames.keySet()
+                .stream()
+                .filter(id -> !lockedBatches.contains(id))
+                .filter(id -> filled.contains(id) || newestEmpty.contains(id))
+                .filter(id -> StringUtils.isBlank(search) || matches(id, search))
+                .sorted(Comparator.reverseOrder())
+                .toList();
+    }
+
+    private boolean matches(int batchId, String search) {
+        if (String.valueOf(batchId).equals(search) || StringUtils.containsIgnoreCase(batchNames.get(batchId), search)) {
+            return true;
+        }
+        return getProcesses(batchId).stream()
+                .anyMatch(id -> propertiesOfProcess.get(id).values().stream().anyMatch(v -> StringUtils.containsIgnoreCase(v, search)));
+    }
+
+    @Override
+    public synchronized Map<Integer, String> getBatchNames(Collection<Integer> batchIds) {
+        Map<Integer, String> answer = new HashMap<>();
+        batchIds.forEach(id -> answer.put(id, batchNames.get(id)));
+        return answer;
+    }
+
+    @Override
+    public synchronized Map<Integer, BatchProcessCount> getProcessCounts(Collection<Integer> batchIds, Institution institution) {
+        Map<Integer, BatchProcessCount> answer = new HashMap<>();
+        for (Integer id : batchIds) {
+            TreeSet<Integer> processes = processesOfBatch.get(id);
+            if (processes != null) {
+                answer.put(id, new BatchProcessCount(id, processes.size(), processes.first()));
+            }
+        }
+        return answer;
+    }
+
+    @Override
+    public synchronized Map<Integer, Date> getBatchStartDates(Collection<Integer> batchIds) {
+        Map<Integer, Date> answer = new HashMap<>();
+        for (Integer id : batchIds) {
+            if (startDates.containsKey(id)) {
+                answer.put(id, startDates.get(id));
+            }
+        }
+        return answer;
+    }
+
+    @Override
+    public synchronized Map<Integer, BatchProgress> getBatchProgress(Collection<Integer> batchIds, String batchWaitStep, Institution institution) {
+        Map<Integer, BatchProgress> answer = new HashMap<>();
+        for (Integer id : batchIds) {
+            TreeSet<Integer> processes = processesOfBatch.get(id);
+            if (processes != null) {
+                int atWaitStep = (int) processes.stream().filter(processesAtWaitStep::contains).count();
+                answer.put(id, new BatchProgress(id, atWaitStep, processes.size() - atWaitStep));
+            }
+        }
+        return answer;
+    }
+
+    @Override
+    public synchronized Map<String, String> getPropertyValues(int processId, Collection<String> propertyNames) {
+        Map<String, String> answer = new HashMap<>();
+        Map<String, String> values = propertiesOfProcess.getOrDefault(processId, Map.of());
+        for (String name : propertyNames) {
+            if (values.containsKey(name)) {
+                answer.put(name, values.get(name));
+            }
+        }
+        return answer;
+    }
+
+    @Override
+    public synchronized Map<Integer, Map<String, String>> getPropertyValues(Collection<Integer> processIds, Collection<String> propertyNames) {
+        Map<Integer, Map<String, String>> answer = new HashMap<>();
+        for (Integer id : processIds) {
+            Map<String, String> values = getPropertyValues(id, propertyNames);
+            if (!values.isEmpty()) {
+                answer.put(id, values);
+            }
+        }
+        return answer;
+    }
+
+    @Override
+    public synchronized Map<Integer, Map<String, String>> getBatchPropertyValues(Collection<Integer> batchIds, Collection<String> propertyNames) {
+        Map<Integer, Map<String, String>> answer = new HashMap<>();
+        for (Integer id : batchIds) {
+            Map<String, String> values = propertiesOfBatch.get(id);
+            if (values != null) {
+                Map<String, String> selected = new HashMap<>(values);
+                selected.keySet().retainAll(propertyNames);
+                answer.put(id, selected);
+            }
+        }
+        return answer;
+    }
+
+    @Override
+    public synchronized void saveBatchPropertyValues(int batchId, Map<String, String> propertyValues) {
+        Map<String, String> values = new HashMap<>();
+        propertyValues.forEach((name, value) -> {
+            if (StringUtils.isNotBlank(value)) {
+                values.put(name, value);
+            }
+        });
+        propertiesOfBatch.put(batchId, values);
+    }
+
+    @Override
+    public synchronized Map<Integer, Integer> getBatchIdsOfProcesses(Collection<Integer> processIds) {
+        Map<Integer, Integer> answer = new HashMap<>();
+        for (Integer id : processIds) {
+            if (propertiesOfProcess.containsKey(id)) {
+                answer.put(id, batchOfProcess.get(id));
+            }
+        }
+        return answer;
+    }
+
+    @Override
+    public synchronized List<ManifestRow> getManifestRows(int batchId, Institution institution, int afterProcessId, int count) {
+        // one joined row per current step and the limit applies to these rows, as in the database query
+        List<ManifestRow> joinedRows = new ArrayList<>();
+        for (Integer id : processesOfBatch.getOrDefault(batchId, new TreeSet<>()).tailSet(afterProcessId, false)) {
+            List<String> steps = currentSteps.get(id);
+            if (steps == null) {
+                joinedRows.add(new ManifestRow(id, "process " + id, null, null));
+            } else {
+                steps.forEach(step -> joinedRows.add(new ManifestRow(id, "process " + id, step, StepStatus.OPEN.getValue())));
+            }
+        }
+        return BatchAssignmentManager.toManifestRows(joinedRows.subList(0, Math.min(count, joinedRows.size())));
+    }
+
+    @Override
+    public synchronized List<DisplayProperty> getDisplayProperties(int processId) {
+        List<DisplayProperty> answer = new ArrayList<>();
+        for (Map.Entry<String, String> value : propertiesOfProcess.getOrDefault(processId, Map.of()).entrySet()) {
+            DisplayProperty property = new DisplayProperty();
+            property.setName(value.getKey());
+            property.setValue(value.getValue());
+            property.setType(Type.TEXT);
+            answer.add(property);
+        }
+        return answer;
+    }
+
+    @Override
+    public synchronized Batch getBatch(int batchId) {
+        if (!batchNames.containsKey(batchId)) {
+            return null;
+        }
+        Batch batch = new Batch();
+        batch.setBatchId(batchId);
+        batch.setBatchName(batchNames.get(batchId));
+        return batch;
+    }
+
+    @Override
+    public synchronized int createBatch(String batchName, Date startDate) {
+        int id = batchCounter.incrementAndGet();
+        batchNames.put(id, batchName);
+        if (startDate != null) {
+            startDates.put(id, startDate);
+        }
+        return id;
+    }
+
+    @Override
+    public synchronized void assignToBatch(int processId, int batchId, String batchWaitStep, int maxSize, Map<String, String> propertyValues,
+            Map<String, String> batchValues, JournalEntry entry) throws BatchAssignmentException {
+        if (!batchNames.containsKey(batchId) || lockedBatches.contains(batchId)) {
+            throw new BatchAssignmentException(Reason.BATCH_CLOSED, batchId);
+        }
+        // the process left the assignment step already when its batch was locked
+        Integer previousBatchId = batchOfProcess.get(processId);
+        if (previousBatchId != null && lockedBatches.contains(previousBatchId)) {
+            throw new BatchAssignmentException(Reason.BATCH_CLOSED, previousBatchId);
+        }
+        Set<Integer> processes = getProcesses(batchId);
+        int size = processes.size() - (processes.contains(processId) ? 1 : 0);
+        if (size >= maxSize) {
+            throw new BatchAssignmentException(Reason.BATCH_FULL, batchId);
+        }
+        propertiesOfProcess.computeIfAbsent(processId, k -> new HashMap<>()).putAll(propertyValues);
+        setBatch(processId, batchId);
+        if (batchValues != null) {
+            saveBatchPropertyValues(batchId, batchValues);
+        }
+        if (entry != null) {
+            journal.add(entry);
+        }
+    }
+
+    @Override
+    public synchronized boolean isBatchClosed(int batchId, String batchWaitStep) {
+        return lockedBatches.contains(batchId);
+    }
+
+    @Override
+    public synchronized List<WaitStep> getOpenWaitSteps(int batchId, String batchWaitStep) {
+        // the wait step of a process has the id of the process
+        return getProcesses(batchId).stream().filter(id -> !closedWaitSteps.contains(id)).map(id -> new WaitStep(id, id)).toList();
+    }
+
+    @Override
+    public synchronized void closeWaitStep(WaitStep waitStep, User user, JournalEntry entry) {
+        closedWaitSteps.add(waitStep.processId());
+        lockedBatches.add(batchOfProcess.get(waitStep.processId()));
+        journal.add(entry);
+    }
+
+    @Override
+    public synchronized List<Integer> getExpiredEmptyBatchIds(Date startedBefore, Collection<String> propertyNames, boolean withoutStoredValues,
+            int count) {
+        return batchNames.keySet()
+                .stream()
+                .filter(id -> startDates.containsKey(id) && startDates.get(id).before(startedBefore))
+                .filter(id -> !processesOfBatch.containsKey(id))
+                .filter(id -> withoutStoredValues
+                        || propertiesOfBatch.getOrDefault(id, Map.of()).keySet().stream().anyMatch(propertyNames::contains))
+                .sorted()
+                .limit(count)
+                .toList();
+    }
+
+    @Override
+    public synchronized boolean deleteEmptyBatch(int batchId) {
+        if (!batchNames.containsKey(batchId) || processesOfBatch.containsKey(batchId)) {
+            return false;
+        }
+        batchNames.remove(batchId);
+        startDates.remove(batchId);
+        propertiesOfBatch.remove(batchId);
+        return true;
+    }
+
+    @Override
+    public synchronized List<Integer> getProcessIdsOfBatch(int batchId) {
+        return new ArrayList<>(getProcesses(batchId));
+    }
+
+    @Override
+    public synchronized List<Integer> getProcessIdsOfBatch(int batchId, Institution institution) {
+        processIdQueries++;
+        return getProcessIdsOfBatch(batchId);
+    }
+
+    @Override
+    public synchronized int moveProcesses(int fromBatchId, int toBatchId, Collection<Integer> processIds, String batchWaitStep, int maxSize,
+            Map<String, String> propertyValues, JournalEntry entry) throws BatchAssignmentException {
+        List<Integer> moving = getProcessIdsOfBatch(fromBatchId).stream().filter(processIds::contains).toList();
+        return move(fromBatchId, toBatchId, moving, maxSize, propertyValues, entry);
+    }
+
+    @Override
+    public synchronized int mergeBatches(int sourceBatchId, int targetBatchId, String batchWaitStep, int maxSize,
+            Map<String, String> propertyValues, JournalEntry entry) throws BatchAssignmentException {
+        int moved = move(sourceBatchId, targetBatchId, getProcessIdsOfBatch(sourceBatchId), maxSize, propertyValues, entry);
+        batchNames.remove(sourceBatchId);
+        startDates.remove(sourceBatchId);
+        propertiesOfBatch.remove(sourceBatchId);
+        return moved;
+    }
+
+    private int move(int fromBatchId, int toBatchId, List<Integer> moving, int maxSize, Map<String, String> propertyValues, JournalEntry entry)
+            throws BatchAssignmentException {
+        for (int batchId : new int[] { fromBatchId, toBatchId }) {
+            if (!batchNames.containsKey(batchId) || lockedBatches.contains(batchId)) {
+                throw new BatchAssignmentException(Reason.BATCH_CLOSED, batchId);
+            }
+        }
+        if (getProcessIdsOfBatch(toBatchId).size() + moving.size() > maxSize) {
+            throw new BatchAssignmentException(Reason.BATCH_FULL, toBatchId);
+        }
+        for (Integer processId : moving) {
+            propertiesOfProcess.computeIfAbsent(processId, k -> new HashMap<>()).putAll(propertyValues);
+            setBatch(processId, toBatchId);
+        }
+        if (entry != null && !moving.isEmpty()) {
+            journal.add(entry);
+        }
+        return moving.size();
+    }
+}
@@ -0,0 +1,129 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.goobi.beans.JournalEntry;
+import org.goobi.beans.JournalEntry.EntryType;
+import org.goobi.production.enums.LogType;
+import org.junit.Test;
+
+public class JournalWriterTest {
+
+    private static JournalEntry createEntry(int processId) {
+        return new JournalEntry(processId, new Date(), "user", LogType.DEBUG, "entry " + processId, EntryType.PROCESS);
+    }
+
+    private static JournalWriter createWriter(JournalWriter.JournalSink sink, int capacity) {
+        JournalWriter writer = new JournalWriter(sink, entry -> {
+            throw new SQLException("no fallback");
+        }, capacity, 10);
+        writer.start();
+        return writer;
+    }
+
+    @Test
+    public void testEntriesAreWrittenInBatches() {
+        List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+        List<JournalEntry> written = Collections.synchronizedList(new ArrayList<>());
+        JournalWriter writer = createWriter(entries -> {
+            batchSizes.add(entries.size());
+            written.addAll(entries);
+        }, 1000);
+
+        for (int i = 0; i < 100; i++) {
+            writer.add(createEntry(i));
+        }
+        assertTrue(writer.flush(5000));
+        assertEquals(100, written.size());
+        assertEquals(0, writer.getPendingEntries());
+        for (Integer size : batchSizes) {
+            assertTrue(size <= 10);
+        }
+    }
+
+    @Test
+    public void testFullQueueWritesDirectly() throws Exception {
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<JournalEntry> written = Collections.synchronizedList(new ArrayList<>());
+        JournalWriter writer = createWriter(entries -> {
+            if ("batch-assignment-journal".equals(Thread.currentThread().getName())) {
+                blocked.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            written.addAll(entries);
+        }, 1);
+
+        // the background thread takes the first entry and blocks, the second one fills the queue
+        writer.add(createEntry(1));
+        assertTrue(blocked.await(5, TimeUnit.SECONDS));
+        writer.add(createEntry(2));
+        // the queue is full, this entry is written by the caller
+        writer.add(createEntry(3));
+        assertEquals(1, written.size());
+        assertEquals(Integer.valueOf(3), written.get(0).getObjectId());
+
+        release.countDown();
+        assertTrue(writer.flush(5000));
+        assertEquals(3, written.size());
+    }
+
+    @Test
+    public void testFailedWriteIsNotPending() {
+        JournalWriter writer = createWriter(entries -> {
+            throw new SQLException("database not available");
+        }, 100);
+        writer.add(createEntry(1));
+        assertTrue(writer.flush(5000));
+        assertEquals(0, writer.getPendingEntries());
+    }
+
+    @Test
+    public void testFailedBatchIsWrittenOneByOne() {
+        List<JournalEntry> written = Collections.synchronizedList(new ArrayList<>());
+        JournalWriter writer = new JournalWriter(entries -> {
+            throw new SQLException("batch insert failed");
+        }, written::add, 100, 10);
+        writer.start();
+        for (int i = 0; i < 5; i++) {
+            writer.add(createEntry(i));
+        }
+        assertTrue(writer.flush(5000));
+        assertEquals(5, written.size());
+    }
+
+    @Test
+    public void testEntriesAreWrittenDirectlyBeforeStart() {
+        List<String> threads = Collections.synchronizedList(new ArrayList<>());
+        JournalWriter writer = new JournalWriter(entries -> threads.add(Thread.currentThread().getName()), entry -> {
+        }, 100, 10);
+        writer.add(createEntry(1));
+        assertEquals(0, writer.getPendingEntries());
+        assertEquals(List.of(Thread.currentThread().getName()), threads);
+    }
+
+    @Test
+    public void testEntriesAfterCloseAreWrittenDirectly() {
+        List<String> threads = Collections.synchronizedList(new ArrayList<>());
+        JournalWriter writer = createWriter(entries -> threads.add(Thread.currentThread().getName()), 100);
+        writer.add(createEntry(1));
+        assertTrue(writer.close(5000));
+
+        writer.add(createEntry(2));
+        assertEquals(0, writer.getPendingEntries());
+        assertEquals(Thread.currentThread().getName(), threads.get(threads.size() - 1));
+    }
+}
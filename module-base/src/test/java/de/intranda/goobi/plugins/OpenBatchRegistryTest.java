@@ -0,0 +1,149 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class OpenBatchRegistryTest {
+
+    private static MiniBatch createBatch(int id, int numberOfProcesses) {
+        return new MiniBatch(id, "batch " + id, numberOfProcesses, 0, 0, List.of());
+    }
+
+    private static Map<Integer, MiniBatch> load(List<Integer> ids) {
+        Map<Integer, MiniBatch> map = new HashMap<>();
+        ids.forEach(id -> map.put(id, createBatch(id, 2)));
+        return map;
+    }
+
+    @Test
+    public void testListIsLoadedOnce() {
+        OpenBatchRegistry registry = new OpenBatchRegistry(60000);
+        AtomicInteger calls = new AtomicInteger();
+        for (int i = 0; i < 3; i++) {
+            List<Integer> ids = registry.getBatchIds("wait", OpenBatchRegistry.UNRESTRICTED, () -> {
+                calls.incrementAndGet();
+                return Arrays.asList(3, 2, 1);
+            });
+            assertEquals(Arrays.asList(3, 2, 1), ids);
+        }
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void testUpdates() {
+        OpenBatchRegistry registry = new OpenBatchRegistry(60000);
+        registry.getBatchIds("wait", OpenBatchRegistry.UNRESTRICTED, () -> Arrays.asList(2, 1));
+        registry.getSummaries("wait", OpenBatchRegistry.UNRESTRICTED, Arrays.asList(2, 1), OpenBatchRegistryTest::load);
+
+        // move a process from batch 1 to batch 2
+        registry.processMoved(1, 2);
+        List<MiniBatch> summaries = registry.getSummaries("wait", OpenBatchRegistry.UNRESTRICTED, Arrays.asList(2, 1), OpenBatchRegistryTest::load);
+        assertEquals(3, summaries.get(0).getNumberOfProcesses());
+        assertEquals(1, summaries.get(1).getNumberOfProcesses());
+
+        // create a new batch
+        registry.batchCreated("wait", OpenBatchRegistry.UNRESTRICTED, createBatch(5, 1));
+        assertEquals(Arrays.asList(5, 2, 1), registry.getBatchIds("wait", OpenBatchRegistry.UNRESTRICTED, () -> Arrays.asList(2, 1)));
+
+        // lock a batch
+        registry.batchLocked(2);
+        assertEquals(Arrays.asList(5, 1), registry.getBatchIds("wait", OpenBatchRegistry.UNRESTRICTED, () -> Arrays.asList(2, 1)));
+    }
+
+    @Test
+    public void testProgressIsKeptWhenProcessMoved() {
+        OpenBatchRegistry registry = new OpenBatchRegistry(60000);
+        registry.getBatchIds("wait", OpenBatchRegistry.UNRESTRICTED, () -> Arrays.asList(2, 1));
+        registry.getSummaries("wait", OpenBatchRegistry.UNRESTRICTED, Arrays.asList(2, 1), ids -> {
+            Map<Integer, MiniBatch> map = new HashMap<>();
+            ids.forEach(id -> map.put(id, new MiniBatch(id, "batch " + id, 2, 1, 1, List.of())));
+            return map;
+        });
+
+        // the moved process is at the assignment step
+        registry.processMoved(1, 2);
+        List<MiniBatch> summaries = registry.getSummaries("wait", OpenBatchRegistry.UNRESTRICTED, Arrays.asList(2, 1), OpenBatchRegistryTest::load);
+        assertEquals(1, summaries.get(0).getProcessesAtWaitStep());
+        assertEquals(2, summaries.get(0).getProcessesUpstream());
+        assertEquals(1, summaries.get(1).getProcessesAtWaitStep());
+        assertEquals(0, summaries.get(1).getProcessesUpstream());
+    }
+
+    @Test
+    public void testRestrictedSummariesAreReloadedWhenProcessMoved() {
+        OpenBatchRegistry registry = new OpenBatchRegistry(60000);
+        AtomicInteger calls = new AtomicInteger();
+        registry.getSummaries("wait", "criteria|1", Arrays.asList(3, 2, 1), ids -> {
+            calls.incrementAndGet();
+            return load(ids);
+        });
+
+        // the user may not see the moved process, so the counts are not changed in place
+        registry.processMoved(1, 2);
+        List<MiniBatch> summaries = registry.getSummaries("wait", "criteria|1", Arrays.asList(3, 2, 1), ids -> {
+            calls.incrementAndGet();
+            assertEquals(Arrays.asList(2, 1), ids);
+            return load(ids);
+        });
+        assertEquals(2, calls.get());
+        assertEquals(2, summaries.get(0).getNumberOfProcesses());
+        assertEquals(2, summaries.get(1).getNumberOfProcesses());
+        assertEquals(2, summaries.get(2).getNumberOfProcesses());
+    }
+
+    @Test
+    public void testSummariesOfMovingUserAreUpdated() {
+        OpenBatchRegistry registry = new OpenBatchRegistry(60000);
+        AtomicInteger calls = new AtomicInteger();
+        registry.getSummaries("wait", "criteria|1", Arrays.asList(2, 1), ids -> {
+            calls.incrementAndGet();
+            return load(ids);
+        });
+
+        // the user who moved the process sees it
+        registry.processMoved(1, 2, "criteria|1");
+        List<MiniBatch> summaries = registry.getSummaries("wait", "criteria|1", Arrays.asList(2, 1), ids -> {
+            calls.incrementAndGet();
+            return load(ids);
+        });
+        assertEquals(1, calls.get());
+        assertEquals(3, summaries.get(0).getNumberOfProcesses());
+        assertEquals(1, summaries.get(1).getNumberOfProcesses());
+    }
+
+    @Test
+    public void testStaleListIsNotKept() {
+        OpenBatchRegistry registry = new OpenBatchRegistry(60000);
+        // the batch is locked while the list is loaded
+        List<Integer> ids = registry.getBatchIds("wait", OpenBatchRegistry.UNRESTRICTED, () -> {
+            registry.batchLocked(2);
+            return Arrays.asList(2, 1);
+        });
+        assertEquals(Arrays.asList(2, 1), ids);
+        assertEquals(Arrays.asList(1), registry.getBatchIds("wait", OpenBatchRegistry.UNRESTRICTED, () -> Arrays.asList(1)));
+    }
+
+    @Test
+    public void testStaleSummaryIsNotKept() {
+        OpenBatchRegistry registry = new OpenBatchRegistry(60000);
+        // a process is moved while the summaries are loaded
+        registry.getSummaries("wait", OpenBatchRegistry.UNRESTRICTED, Arrays.asList(2, 1), ids -> {
+            registry.processMoved(1, 2);
+            return load(ids);
+        });
+        List<MiniBatch> summaries = registry.getSummaries("wait", OpenBatchRegistry.UNRESTRICTED, Arrays.asList(2, 1), ids -> {
+            Map<Integer, MiniBatch> map = new HashMap<>();
+            ids.forEach(id -> map.put(id, createBatch(id, id == 2 ? 3 : 1)));
+            return map;
+        });
+        assertEquals(3, summaries.get(0).getNumberOfProcesses());
+        assertEquals(1, summaries.get(1).getNumberOfProcesses());
+    }
+}
@@ -0,0 +1,122 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.goobi.production.properties.DisplayProperty;
+import org.goobi.production.properties.Type;
+import org.junit.Test;
+
+public class VocabularyFilterCacheTest {
+
+    @Test
+    public void testMatchesUsesCache() {
+        AtomicInteger calls = new AtomicInteger();
+        VocabularyFilterCache cache = new VocabularyFilterCache((id, field) -> {
+            calls.incrementAndGet();
+            return Optional.of(id % 2 == 0 ? "Yes" : "No");
+        }, id -> Optional.empty(), 60000, 100);
+
+        assertTrue(cache.matches("2", "Working", "Yes"));
+        assertFalse(cache.matches("3", "Working", "Yes"));
+        assertTrue(cache.matches("2", "Working", "Yes"));
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void testPrefetch() {
+        AtomicInteger calls = new AtomicInteger();
+        VocabularyFilterCache cache = new VocabularyFilterCache((id, field) -> {
+            calls.incrementAndGet();
+            return Optional.of("Yes");
+        }, id -> Optional.empty(), 60000, 100);
+
+        cache.prefetch(Arrays.asList("1", "2", "3", "invalid"), "Working");
+        assertEquals(3, calls.get());
+        assertTrue(cache.matches("1", "Working", "Yes"));
+        assertTrue(cache.matches("3", "Working", "Yes"));
+        assertEquals(3, calls.get());
+    }
+
+    @Test
+    public void testMaximumSize() {
+        VocabularyFilterCache cache = new VocabularyFilterCache((id, field) -> Optional.empty(), id -> Optional.empty(), 60000, 5);
+        for (int i = 0; i < 20; i++) {
+            assertFalse(cache.matches(String.valueOf(i), "Working", "Yes"));
+        }
+        assertTrue(cache.size() <= 5);
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntryIsRemoved() {
+        AtomicInteger calls = new AtomicInteger();
+        VocabularyFilterCache cache = new VocabularyFilterCache((id, field) -> {
+            calls.incrementAndGet();
+            return Optional.of("Yes");
+        }, id -> Optional.empty(), 60000, 2);
+
+        cache.matches("1", "Working", "Yes");
+        cache.matches("2", "Working", "Yes");
+        // record 1 was used again, so record 2 is removed for record 3
+        cache.matches("1", "Working", "Yes");
+        cache.matches("3", "Working", "Yes");
+        assertEquals(3, calls.get());
+
+        cache.matches("1", "Working", "Yes");
+        assertEquals(3, calls.get());
+        cache.matches("2", "Working", "Yes");
+        assertEquals(4, calls.get());
+    }
+
+    @Test
+    public void testLabelsAreCachedSeparately() {
+        AtomicInteger calls = new AtomicInteger();
+        VocabularyFilterCache cache = new VocabularyFilterCache((id, field) -> {
+            calls.incrementAndGet();
+            return Optional.of("Yes");
+        }, id -> {
+            calls.incrementAndGet();
+            return Optional.of("Record " + id);
+        }, 60000, 100);
+
+        cache.prefetchLabels(List.of("1", "2"));
+        assertEquals(2, calls.get());
+        assertEquals(Optional.of("Record 1"), cache.getLabel("1"));
+        assertTrue(cache.matches("1", "Working", "Yes"));
+        assertEquals(3, calls.get());
+        assertEquals(Optional.empty(), cache.getLabel("invalid"));
+    }
+
+    @Test
+    public void testUnreadableRecordHasNoLabel() {
+        VocabularyFilterCache cache = new VocabularyFilterCache((id, field) -> Optional.empty(), id -> {
+            throw new IllegalStateException("record " + id + " was deleted");
+        }, 60000, 100);
+        assertEquals(Optional.empty(), cache.getLabel("1"));
+    }
+
+    @Test
+    public void testSummaryOfStoredRecords() {
+        VocabularyFilterCache cache = new VocabularyFilterCache((id, field) -> Optional.empty(), id -> Optional.of("Record " + id), 60000, 100);
+        // the stored records are not part of the filtered possible values of the current process
+        DisplayProperty template = new DisplayProperty();
+        template.setType(Type.VOCABULARYMULTIREFERENCE);
+        template.setPossibleValues(new ArrayList<>());
+
+        BatchPropertySummary summary = BatchPropertySummary.of("Scanner", "1; 2", template, cache);
+
+        assertEquals("Record 1", summary.getEntries().get(0).getLabel());
+        assertEquals("2", summary.getEntries().get(1).getValue());
+        assertEquals("Record 2", summary.getEntries().get(1).getLabel());
+
+        template.setType(Type.VOCABULARYREFERENCE);
+        assertEquals("Record 3", BatchPropertySummary.of("Scanner", "3", template, cache).getDisplayValue());
+    }
+}
@@ -0,0 +1,180 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import jakarta.faces.model.SelectItem;
+
+import org.goobi.beans.GoobiProperty;
+import org.goobi.beans.Process;
+import org.goobi.beans.Processproperty;
+import org.goobi.beans.Step;
+import org.goobi.production.properties.DisplayProperty;
+import org.goobi.production.properties.Type;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks of the batch list, the property filter and the assignment with an in-memory data source. Run with
+ * <code>java -jar module-benchmark/target/benchmarks.jar</code> after <code>mvn -P benchmark package</code>.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BatchAssignmentBenchmark {
+
+    private static final String WAIT_STEP = "wait for batch";
+    private static final String VOCABULARY_PROPERTY = "Material";
+
+    // number of batches, each batch contains one process
+    @Param({ "10", "1000", "10000" })
+    private int size;
+
+    private InMemoryBatchDataSource dataSource;
+    private BatchAssignmentStepPlugin plugin;
+    private VocabularyFilterCache vocabularyCache;
+    private MiniBatch[] targets;
+    private int nextTarget;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        dataSource = new InMemoryBatchDataSource();
+        for (int i = 0; i < size; i++) {
+            int batchId = dataSource.createBatch("batch " + i);
+            dataSource.createProcess(batchId, createValues(i));
+            dataSource.saveBatchPropertyValues(batchId, createValues(i));
+        }
+
+        // the current process is not part of a batch yet
+        Process process = new Process();
+        process.setId(dataSource.createProcess(null, createValues(0)));
+        List<GoobiProperty> eigenschaften = new ArrayList<>();
+        for (Map.Entry<String, String> value : createValues(0).entrySet()) {
+            Processproperty property = new Processproperty();
+            property.setTitel(value.getKey());
+            property.setWert(value.getValue());
+            property.setProzess(process);
+            eigenschaften.add(property);
+        }
+        process.setEigenschaften(eigenschaften);
+        Step step = new Step();
+        step.setTitel("assign batch");
+        step.setProzess(process);
+
+        // every second vocabulary record passes the filter
+        vocabularyCache = new VocabularyFilterCache((id, field) -> Optional.of(id % 2 == 0 ? "yes" : "no"), TimeUnit.HOURS.toMillis(1),
+                Math.max(1000, size * 2));
+
+        plugin = new BatchAssignmentStepPlugin();
+        plugin.configure(step, WAIT_STEP, 20, createDefinitions(), dataSource, vocabularyCache);
+        plugin.setProperties(plugin.filterProperties(dataSource.getDisplayProperties(process.getId())));
+
+        // move the process between the two newest batches
+        targets = new MiniBatch[2];
+        for (int i = 0; i < targets.length; i++) {
+            targets[i] = new MiniBatch(size - i, null, 0, 0, 0, List.of());
+        }
+
+        OpenBatchRegistry.getInstance().clear();
+        BatchPropertyIndex.getInstance().clear();
+    }
+
+    /**
+     * list the first page without any cached data
+     */
+    @Benchmark
+    public void collectAvailableBatchesCold(Blackhole bh) {
+        OpenBatchRegistry.getInstance().clear();
+        BatchPropertyIndex.getInstance().clear();
+        plugin.collectAvailableBatches();
+        bh.consume(plugin.getBatches());
+    }
+
+    /**
+     * list the first page again, as it happens with every page change of another user
+     */
+    @Benchmark
+    public void collectAvailableBatchesWarm(Blackhole bh) {
+        plugin.collectAvailableBatches();
+        bh.consume(plugin.getBatches());
+    }
+
+    /**
+     * filter the configured properties and the possible values of a vocabulary property with one record per batch
+     */
+    @Benchmark
+    public void filterProperties(Blackhole bh) {
+        bh.consume(plugin.filterProperties(createDisplayProperties()));
+    }
+
+    /**
+     * assign the current process to an existing batch, including the refresh of the batch list
+     */
+    @Benchmark
+    public void assignToExistingBatch(Blackhole bh) throws SQLException, BatchAssignmentException {
+        MiniBatch target = targets[nextTarget];
+        nextTarget = (nextTarget + 1) % targets.length;
+        plugin.assignToBatch(target, "benchmark");
+        bh.consume(plugin.getBatches());
+    }
+
+    private List<DisplayProperty> createDisplayProperties() {
+        List<DisplayProperty> answer = dataSource.getDisplayProperties(plugin.getStep().getProzess().getId());
+        DisplayProperty vocabulary = new DisplayProperty();
+        vocabulary.setName(VOCABULARY_PROPERTY);
+        vocabulary.setType(Type.VOCABULARYREFERENCE);
+        List<SelectItem> possibleValues = new ArrayList<>(size);
+        for (int i = 1; i <= size; i++) {
+            possibleValues.add(new SelectItem(String.valueOf(i), "record " + i));
+        }
+        vocabulary.setPossibleValues(possibleValues);
+        answer.add(vocabulary);
+        return answer;
+    }
+
+    private static Map<String, String> createValues(int i) {
+        return Map.of("Scanner", "scanner " + i % 5, "Opening angle", String.valueOf(i % 3 * 90));
+    }
+
+    private static List<PropertyDefinition> createDefinitions() {
+        return List.of(new PropertyDefinition("Scanner", null, null), new PropertyDefinition("Opening angle", null, null),
+                new PropertyDefinition(VOCABULARY_PROPERTY, "active", "yes"));
+    }
+}